@@ -0,0 +1,76 @@
+package kz.ai.sarbaz.api;
+
+import kz.ai.sarbaz.bench.SyntheticData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One streamed answer end to end on the servlet stack: chunks are mapped to
+ * {@link ServerSentEvent} the way {@link ChatStreamingController} does it, then
+ * adapted to {@link SseEmitter} events and written as UTF-8, as Spring MVC does
+ * for a {@code Flux<ServerSentEvent>} return value.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SseSerializationBenchmark {
+
+    @Param({"200", "2000"})
+    public int chunks;
+
+    private List<String> content;
+    private String messageId;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() {
+        content = SyntheticData.chunks(chunks, 3);
+        messageId = UUID.randomUUID().toString();
+        out = new ByteArrayOutputStream(64 * 1024);
+    }
+
+    @Benchmark
+    public int streamChunks() {
+        out.reset();
+        Flux.fromIterable(content)
+                .map(chunk -> ServerSentEvent.<String>builder()
+                        .id(messageId)
+                        .event("message")
+                        .data(chunk)
+                        .build())
+                .subscribe(this::write);
+        return out.size();
+    }
+
+    private void write(ServerSentEvent<String> event) {
+        SseEmitter.SseEventBuilder builder = SseEmitter.event()
+                .id(event.id())
+                .name(event.event())
+                .data(event.data());
+        for (ResponseBodyEmitter.DataWithMediaType data : builder.build()) {
+            out.writeBytes(data.getData().toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package kz.ai.sarbaz.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares a JMH JSON result with the committed baseline.
+ * <p>
+ * Prints score and normalized allocation ({@code gc.alloc.rate.norm}, bytes per operation)
+ * for every benchmark/parameter combination and exits with status 1 when either got worse
+ * by more than the threshold. Time is noisy across machines, so the allocation column is
+ * the one to trust in review; the baseline should be refreshed on the machine that runs the check.
+ * Benchmarks reporting a {@code recall} secondary metric also fail the check when recall drops.
+ * <p>
+ * Usage: {@code BaselineComparison <baseline.json> <result.json> [threshold, default 0.10]}
+ */
+public final class BaselineComparison {
+
+    private static final String ALLOC_NORM = "gc.alloc.rate.norm";
+    // Allocation differences below this are JIT noise (escape analysis, TLAB refills)
+    private static final double MIN_ALLOC_BYTES = 64;
+    private static final String RECALL = "recall";
+    // Recall comes from seeded data, so a drop past rounding is a real change of the search
+    private static final double MAX_RECALL_DROP = 0.005;
+
+    private BaselineComparison() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparison <baseline.json> <result.json> [threshold]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.10;
+
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, JsonNode> baseline = index(mapper.readTree(new File(args[0])));
+        Map<String, JsonNode> current = index(mapper.readTree(new File(args[1])));
+
+        int regressions = 0;
+        System.out.printf("%-70s %14s %14s %8s %12s %12s %8s%n",
+                "benchmark", "base score", "score", "change", "base B/op", "B/op", "change");
+        for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            JsonNode run = entry.getValue();
+            JsonNode base = baseline.get(entry.getKey());
+            double score = run.at("/primaryMetric/score").asDouble();
+            double alloc = allocation(run);
+            if (base == null) {
+                System.out.printf("%-70s %14s %14.3f %8s %12s %12.0f %8s%n",
+                        entry.getKey(), "-", score, "new", "-", alloc, "");
+                continue;
+            }
+
+            double baseScore = base.at("/primaryMetric/score").asDouble();
+            double baseAlloc = allocation(base);
+            // Higher is better only in throughput mode
+            boolean higherIsBetter = "thrpt".equals(run.path("mode").asText());
+            double scoreChange = relativeChange(baseScore, score);
+            double allocChange = relativeChange(baseAlloc, alloc);
+
+            boolean scoreRegressed = higherIsBetter ? scoreChange < -threshold : scoreChange > threshold;
+            boolean allocRegressed = Math.abs(alloc - baseAlloc) >= MIN_ALLOC_BYTES && allocChange > threshold;
+            if (scoreRegressed || allocRegressed) {
+                regressions++;
+            }
+
+            System.out.printf("%-70s %14.3f %14.3f %7.1f%%%s %12.0f %12.0f %7.1f%%%s%n",
+                    entry.getKey(), baseScore, score, scoreChange * 100, scoreRegressed ? "!" : " ",
+                    baseAlloc, alloc, allocChange * 100, allocRegressed ? "!" : " ");
+
+            JsonNode recall = run.at("/secondaryMetrics/" + RECALL + "/score");
+            JsonNode baseRecall = base.at("/secondaryMetrics/" + RECALL + "/score");
+            if (recall.isNumber() && baseRecall.isNumber()) {
+                boolean recallRegressed = baseRecall.asDouble() - recall.asDouble() > MAX_RECALL_DROP;
+                if (recallRegressed) {
+                    regressions++;
+                }
+                System.out.printf("%-70s %14.3f %14.3f %8s%n",
+                        "  " + RECALL, baseRecall.asDouble(), recall.asDouble(), recallRegressed ? "!" : "");
+            }
+        }
+
+        for (String missing : baseline.keySet()) {
+            if (!current.containsKey(missing)) {
+                System.out.printf("%-70s not run%n", missing);
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.printf("%d benchmark(s) regressed by more than %.0f%%%n", regressions, threshold * 100);
+            System.exit(1);
+        }
+        System.out.println("No regressions beyond " + Math.round(threshold * 100) + "%");
+    }
+
+    private static Map<String, JsonNode> index(JsonNode runs) {
+        Map<String, JsonNode> byKey = new LinkedHashMap<>();
+        for (JsonNode run : runs) {
+            String name = run.path("benchmark").asText().replaceFirst("^kz\\.ai\\.sarbaz\\.", "");
+            Map<String, String> params = new TreeMap<>();
+            run.path("params").fields().forEachRemaining(param -> params.put(param.getKey(), param.getValue().asText()));
+            byKey.put(params.isEmpty() ? name : name + params, run);
+        }
+        return byKey;
+    }
+
+    private static double allocation(JsonNode run) {
+        JsonNode secondary = run.path("secondaryMetrics");
+        for (var it = secondary.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> metric = it.next();
+            if (metric.getKey().endsWith(ALLOC_NORM)) {
+                return metric.getValue().path("score").asDouble();
+            }
+        }
+        return 0;
+    }
+
+    private static double relativeChange(double base, double value) {
+        return base == 0 ? 0 : (value - base) / base;
+    }
+}
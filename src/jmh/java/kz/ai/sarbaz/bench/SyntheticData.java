@@ -0,0 +1,99 @@
+package kz.ai.sarbaz.bench;
+
+import kz.ai.sarbaz.entity.Chat;
+import kz.ai.sarbaz.entity.Message;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Deterministic synthetic chats and messages for benchmarks.
+ * Message lengths roughly follow real traffic: short questions, longer answers.
+ */
+public final class SyntheticData {
+
+    private static final String[] WORDS = {
+            "spring", "model", "ответ", "вопрос", "stream", "token", "latency", "память",
+            "history", "chat", "документ", "index", "mongo", "ollama", "prompt", "контекст"
+    };
+
+    private SyntheticData() {
+    }
+
+    public static List<Chat> chats(int count, long seed) {
+        Random random = new Random(seed);
+        LocalDateTime base = LocalDateTime.of(2025, 1, 1, 0, 0);
+        List<Chat> chats = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            chats.add(Chat.builder()
+                    .id(new UUID(seed, i).toString())
+                    .title(text(random, 3 + random.nextInt(6)))
+                    .createdAt(base.plusMinutes(i))
+                    .updatedAt(base.plusMinutes(i + random.nextInt(10_000)))
+                    .active(random.nextInt(10) > 0)
+                    .modelName("llama3.2:3b")
+                    .messageCount(random.nextInt(200))
+                    .build());
+        }
+        return chats;
+    }
+
+    /**
+     * Alternating user/assistant messages spread over {@code chats} chats;
+     * each question and its answer land in the same chat
+     */
+    public static List<Message> messages(int count, int chats, int attachmentsPerUserMessage, long seed) {
+        Random random = new Random(seed);
+        LocalDateTime base = LocalDateTime.of(2025, 1, 1, 0, 0);
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            boolean user = i % 2 == 0;
+            List<Message.MediaAttachment> attachments = new ArrayList<>();
+            if (user) {
+                for (int a = 0; a < attachmentsPerUserMessage; a++) {
+                    attachments.add(Message.MediaAttachment.builder()
+                            .filename("file-" + i + "-" + a + ".pdf")
+                            .contentType("application/pdf")
+                            .dataRef(UUID.randomUUID().toString())
+                            .build());
+                }
+            }
+            messages.add(Message.builder()
+                    .id(new UUID(seed, i).toString())
+                    .chatId(new UUID(seed, (i / 2) % chats).toString())
+                    .type(user ? Message.MessageType.USER : Message.MessageType.ASSISTANT)
+                    .content(text(random, user ? 10 + random.nextInt(30) : 80 + random.nextInt(300)))
+                    .timestamp(base.plusSeconds(i * 7L))
+                    .attachments(attachments.isEmpty() ? null : attachments)
+                    .sequenceNumber(i / (2 * chats) * 2 + i % 2 + 1)
+                    .build());
+        }
+        return messages;
+    }
+
+    /**
+     * Streaming chunks as Ollama emits them: one to three tokens each
+     */
+    public static List<String> chunks(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            chunks.add((i == 0 ? "" : " ") + text(random, 1 + random.nextInt(3)));
+        }
+        return chunks;
+    }
+
+    private static String text(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(i % 12 == 0 ? ". " : " ");
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,55 @@
+package kz.ai.sarbaz.service;
+
+import kz.ai.sarbaz.api.dto.ChatDTO;
+import kz.ai.sarbaz.api.dto.MessageDTO;
+import kz.ai.sarbaz.bench.SyntheticData;
+import kz.ai.sarbaz.entity.Chat;
+import kz.ai.sarbaz.entity.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity to DTO conversion for one page of history (50 messages) and one page of chats (20)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DtoConversionBenchmark {
+
+    @Param({"0", "2"})
+    public int attachments;
+
+    private List<Message> messages;
+    private List<Chat> chats;
+
+    @Setup
+    public void setUp() {
+        messages = SyntheticData.messages(50, 1, attachments, 42);
+        chats = SyntheticData.chats(20, 42);
+    }
+
+    @Benchmark
+    public List<MessageDTO> messagePage() {
+        return messages.stream().map(ChatService::convertToMessageDTO).toList();
+    }
+
+    @Benchmark
+    public List<ChatDTO> chatPage() {
+        return chats.stream().map(ChatService::convertToChatDTO).toList();
+    }
+}
@@ -0,0 +1,98 @@
+package kz.ai.sarbaz.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import kz.ai.sarbaz.bench.SyntheticData;
+import kz.ai.sarbaz.entity.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Export writers over a synthetic message set, written to a counting sink so
+ * that only serialization is measured, not the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExportWriterBenchmark {
+
+    @Param({"1000", "10000"})
+    public int messageCount;
+
+    private DataExportService dataExportService;
+    private List<Message> messages;
+    private List<List<Message>> messagesByChat;
+
+    @Setup
+    public void setUp() {
+        // Same date handling as the application's Boot-configured mapper
+        ObjectMapper objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        dataExportService = new DataExportService(null, null, objectMapper, null);
+        messages = SyntheticData.messages(messageCount, Math.max(1, messageCount / 50), 0, 11);
+        Map<String, List<Message>> grouped = messages.stream()
+                .collect(Collectors.groupingBy(Message::getChatId));
+        messagesByChat = new ArrayList<>(grouped.values());
+    }
+
+    @Benchmark
+    public long json() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        dataExportService.writeJson(messages, out);
+        return out.count;
+    }
+
+    @Benchmark
+    public long csv() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        dataExportService.writeMessagesCsv(messages, out);
+        return out.count;
+    }
+
+    @Benchmark
+    public long fineTuningJsonl() throws IOException {
+        List<DataExportService.FineTuningPair> pairs = new ArrayList<>();
+        for (List<Message> chatMessages : messagesByChat) {
+            dataExportService.addFineTuningPairs(chatMessages, pairs);
+        }
+        CountingOutputStream out = new CountingOutputStream();
+        dataExportService.writeJsonLines(pairs, out);
+        return out.count;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package kz.ai.sarbaz.service;
+
+import kz.ai.sarbaz.bench.SyntheticData;
+import kz.ai.sarbaz.entity.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chat history to Spring AI message mapping. Messages carry no attachments,
+ * so the assembler never touches its services and they can be left null.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryMappingBenchmark {
+
+    @Param({"10", "100"})
+    public int historySize;
+
+    private PromptAssembler promptAssembler;
+    private List<Message> history;
+
+    @Setup
+    public void setUp() {
+        promptAssembler = new PromptAssembler(null, null, null);
+        history = SyntheticData.messages(historySize, 1, 0, 7);
+    }
+
+    @Benchmark
+    public List<org.springframework.ai.chat.messages.Message> toHistoryMessages() {
+        return promptAssembler.toHistoryMessages(history);
+    }
+}
@@ -0,0 +1,100 @@
+package kz.ai.sarbaz.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Compression of assistant answers at rest: CPU per message both ways, with and without the
+ * preset dictionary. The compression ratio of each setup is printed once per trial, since
+ * it does not depend on timing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentCompressionBenchmark {
+
+    private static final String[] WORDS = (
+            "метод возвращает список значение индекс запрос ответ ошибка память поток модель контекст "
+            + "документ функция параметр класс объект строка файл сервер клиент таблица поле версия "
+            + "нужно можно следует если однако поэтому также чтобы который когда после перед через "
+            + "the method returns a list of values index query response error memory stream model "
+            + "context document function parameter class object string file server client table field "
+            + "version you should can if however so also that which when after before through with").split(" ");
+    private static final String[] CODE = {
+            "public List<String> %s(List<User> users) {\n    return users.stream().map(User::getName).limit(%d).toList();\n}\n",
+            "for i in range(%2$d):\n    print(f\"{i}: {%1$s[i]}\")\n",
+            "const %s = await fetch(url, { method: 'POST', timeout: %d });\n",
+            "SELECT id, name FROM %s WHERE active = true ORDER BY created_at DESC LIMIT %d;\n",
+            "try {\n    %s.process(request, %d);\n} catch (Exception e) {\n    log.error(\"Failed\", e);\n}\n"
+    };
+
+    @Param({"2048", "16384", "65536"})
+    public int length;
+
+    @Param({"0", "1"})
+    public int dictionary;
+
+    private String text;
+    private byte[] compressed;
+
+    @Setup
+    public void setUp() {
+        text = answer(length, new Random(17));
+        compressed = ContentCodec.compress(text, dictionary, Deflater.DEFAULT_COMPRESSION);
+        int raw = text.getBytes(StandardCharsets.UTF_8).length;
+        System.out.printf("%n[length=%d, dictionary=%d] %d -> %d bytes, ratio %.2f%n",
+                length, dictionary, raw, compressed.length, (double) raw / compressed.length);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return ContentCodec.compress(text, dictionary, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Benchmark
+    public String decompress() {
+        return ContentCodec.decompress(compressed);
+    }
+
+    /**
+     * Markdown answer of about the given length: paragraphs of random words with code blocks
+     * in between whose identifiers and numbers vary, so that the text is not a few fragments
+     * repeated over and over
+     */
+    private static String answer(int length, Random random) {
+        StringBuilder answer = new StringBuilder(length + 256);
+        while (answer.length() < length) {
+            int words = 20 + random.nextInt(40);
+            for (int i = 0; i < words; i++) {
+                answer.append(WORDS[random.nextInt(WORDS.length)]).append(i % 12 == 11 ? ". " : " ");
+            }
+            answer.append("\n\n");
+            if (random.nextBoolean()) {
+                answer.append("```java\n");
+                for (int i = 0; i < 1 + random.nextInt(3); i++) {
+                    String identifier = WORDS[random.nextInt(WORDS.length)] + random.nextInt(100);
+                    answer.append(String.format(CODE[random.nextInt(CODE.length)], identifier, random.nextInt(10_000)));
+                }
+                answer.append("```\n\n");
+            }
+        }
+        return answer.substring(0, length);
+    }
+}
@@ -0,0 +1,140 @@
+package kz.ai.sarbaz.vector;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Attachment chunk retrieval: approximate HNSW search against the exact scan it replaces,
+ * on random vectors of the test's size, plus the one-off cost of building the graph.
+ * The {@code recall} benchmark reports recall@k of the search against the exact top k as
+ * its {@code recall} secondary metric, so a faster graph that finds less shows up next to its timing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HnswIndexBenchmark {
+
+    private static final int DIMENSIONS = 64;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+    private static final int M = 16;
+    private static final int EF_CONSTRUCTION = 100;
+    private static final int EF_SEARCH = 128;
+
+    @Param({"5000"})
+    public int vectors;
+
+    private float[][] data;
+    private HnswIndex index;
+    private float[][] queries;
+    private List<Set<Integer>> exactTopK;
+    private int[] all;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        data = randomVectors(random, vectors);
+        index = build();
+        queries = randomVectors(random, QUERIES);
+        all = IntStream.range(0, vectors).toArray();
+        exactTopK = Arrays.stream(queries)
+                .map(query -> index.exactSearch(query, K, all).stream().map(HnswIndex.Hit::node).collect(Collectors.toSet()))
+                .toList();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public HnswIndex build() {
+        HnswIndex built = new HnswIndex(DIMENSIONS, M, EF_CONSTRUCTION);
+        for (float[] vector : data) {
+            built.add(vector);
+        }
+        return built;
+    }
+
+    @Benchmark
+    public List<HnswIndex.Hit> search() {
+        return index.search(nextQuery(), K, EF_SEARCH, null);
+    }
+
+    /**
+     * All queries once; recall does not depend on timing, so one measured shot is enough.
+     * The warmup shot keeps the trial setup out of the measured allocation.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 1)
+    public void recall(Recall counter) {
+        int found = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            for (HnswIndex.Hit hit : index.search(queries[i], K, EF_SEARCH, null)) {
+                if (exactTopK.get(i).contains(hit.node())) {
+                    found++;
+                }
+            }
+        }
+        counter.recall = found / (double) (QUERIES * K);
+    }
+
+    @Benchmark
+    public List<HnswIndex.Hit> exactSearch() {
+        return index.exactSearch(nextQuery(), K, all);
+    }
+
+    private float[] nextQuery() {
+        next = (next + 1) % QUERIES;
+        return queries[next];
+    }
+
+    /**
+     * Recall@k of one pass over the queries; JMH sums event counters over iterations, hence a single one
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Recall {
+        public double recall;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            recall = 0;
+        }
+    }
+
+    private static float[][] randomVectors(Random random, int count) {
+        float[][] vectors = new float[count][DIMENSIONS];
+        for (float[] vector : vectors) {
+            for (int i = 0; i < DIMENSIONS; i++) {
+                vector[i] = (float) random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+}
@@ -0,0 +1,160 @@
+package kz.ai.sarbaz.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Conversations to replay: each is the ordered list of user prompts of one chat.
+ * <p>
+ * Reads the files written by {@code DataExportService}: message exports as JSON
+ * ({@code messages_export_*.json}, {@code chat_*_export_*.json}) or CSV, where user
+ * messages are grouped by chat and ordered by sequence number, and fine-tuning JSONL,
+ * where every prompt is a one-turn conversation. Without a file, synthetic
+ * conversations of one to six turns are generated.
+ */
+public class ConversationSource {
+
+    private static final String[] TOPICS = {
+            "Spring Boot", "MongoDB indexes", "reactive streams", "JVM garbage collection",
+            "Kubernetes probes", "HTTP caching", "SQL joins", "Java records"
+    };
+    private static final String[] FOLLOW_UPS = {
+            "Can you give an example?", "What are the trade-offs?", "How does it behave under load?",
+            "Explain it more simply.", "What should I monitor in production?"
+    };
+
+    private final List<List<String>> conversations;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private ConversationSource(List<List<String>> conversations) {
+        if (conversations.isEmpty()) {
+            throw new IllegalArgumentException("No user prompts to replay");
+        }
+        this.conversations = conversations;
+    }
+
+    public static ConversationSource synthetic(int count, long seed) {
+        Random random = new Random(seed);
+        List<List<String>> conversations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String topic = TOPICS[random.nextInt(TOPICS.length)];
+            List<String> turns = new ArrayList<>();
+            turns.add("Tell me about " + topic + " in the context of a chat application.");
+            int followUps = random.nextInt(6);
+            for (int j = 0; j < followUps; j++) {
+                turns.add(FOLLOW_UPS[random.nextInt(FOLLOW_UPS.length)]);
+            }
+            conversations.add(turns);
+        }
+        return new ConversationSource(conversations);
+    }
+
+    public static ConversationSource fromExport(Path file) throws IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".jsonl")) {
+            return new ConversationSource(readFineTuning(file));
+        }
+        if (name.endsWith(".csv")) {
+            CsvMapper csvMapper = new CsvMapper();
+            try (MappingIterator<Map<String, String>> rows = csvMapper.readerForMapOf(String.class)
+                    .with(CsvSchema.emptySchema().withHeader())
+                    .readValues(file.toFile())) {
+                List<Turn> turns = new ArrayList<>();
+                while (rows.hasNext()) {
+                    Map<String, String> row = rows.next();
+                    turns.add(new Turn(row.get("chatId"), row.get("type"), row.get("content"),
+                            parseInt(row.get("sequenceNumber")), row.getOrDefault("timestamp", "")));
+                }
+                return new ConversationSource(group(turns));
+            }
+        }
+
+        JsonNode root = new ObjectMapper().readTree(file.toFile());
+        if (!root.isArray()) {
+            throw new IllegalArgumentException("Expected a JSON array of messages in " + file);
+        }
+        List<Turn> turns = new ArrayList<>();
+        for (JsonNode message : root) {
+            if (!message.has("content")) {
+                throw new IllegalArgumentException(file + " holds no message content (a chats export?)");
+            }
+            turns.add(new Turn(message.path("chatId").asText(), message.path("type").asText(),
+                    message.path("content").asText(), message.path("sequenceNumber").asInt(0),
+                    message.path("timestamp").asText("")));
+        }
+        return new ConversationSource(group(turns));
+    }
+
+    /**
+     * Next conversation, round robin; safe to call from several virtual users
+     */
+    public List<String> next() {
+        return conversations.get(Math.floorMod(next.getAndIncrement(), conversations.size()));
+    }
+
+    public int size() {
+        return conversations.size();
+    }
+
+    public int turns() {
+        return conversations.stream().mapToInt(List::size).sum();
+    }
+
+    private static List<List<String>> readFineTuning(Path file) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<List<String>> conversations = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    String prompt = objectMapper.readTree(line).path("prompt").asText();
+                    if (!prompt.isBlank()) {
+                        conversations.add(List.of(prompt));
+                    }
+                }
+            }
+        }
+        return conversations;
+    }
+
+    private static List<List<String>> group(List<Turn> turns) {
+        Map<String, List<Turn>> byChat = new LinkedHashMap<>();
+        for (Turn turn : turns) {
+            if ("USER".equals(turn.type()) && turn.content() != null && !turn.content().isBlank()) {
+                byChat.computeIfAbsent(turn.chatId(), id -> new ArrayList<>()).add(turn);
+            }
+        }
+        List<List<String>> conversations = new ArrayList<>(byChat.size());
+        for (List<Turn> chat : byChat.values()) {
+            chat.sort(Comparator.comparingInt(Turn::sequenceNumber).thenComparing(Turn::timestamp));
+            conversations.add(chat.stream().map(Turn::content).toList());
+        }
+        return conversations;
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return value == null || value.isBlank() ? 0 : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private record Turn(String chatId, String type, String content, int sequenceNumber, String timestamp) {
+    }
+}
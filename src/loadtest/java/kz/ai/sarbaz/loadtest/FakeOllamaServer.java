@@ -0,0 +1,493 @@
+package kz.ai.sarbaz.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for an Ollama server, so the application can be load-tested without a GPU.
+ * <p>
+ * Speaks enough of the Ollama HTTP API for Spring AI: {@code POST /api/chat} (NDJSON
+ * streaming and single response), {@code POST /api/embed}, {@code GET /api/tags} and
+ * {@code GET /api/version}, plus {@code POST /api/generate} model loading and
+ * {@code GET /api/ps} for the residency manager. Generation is simulated with a configurable
+ * prompt-processing delay, token rate, jitter, failures before and during the stream, and stalls.
+ * Models stay resident for their {@code keep_alive}; using a model that is not resident costs
+ * the configured load latency first.
+ * A semaphore models the number of parallel generation slots, like {@code OLLAMA_NUM_PARALLEL}.
+ * <p>
+ * Like Ollama, each slot keeps the last prompt plus its answer as a KV cache: a request is
+ * served by the slot sharing the longest prefix with it, and only the rest of the prompt costs
+ * prompt-processing time. A follow-up turn of a chat therefore gets its first token sooner,
+ * but only on the server that answered the previous turn and only if its prompt starts with
+ * exactly the same messages.
+ */
+public class FakeOllamaServer implements AutoCloseable {
+
+    private static final String[] VOCABULARY = {
+            "the", "model", "answer", "is", "based", "on", "context", "ответ", "вопрос", "данные",
+            "system", "stream", "token", "value", "result", "and", "of", "in", "для", "это"
+    };
+
+    private final Settings settings;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Semaphore slots;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong activeGenerations = new AtomicLong();
+    // Resident models and when they expire, in epoch millis
+    private final Map<String, Long> resident = new ConcurrentHashMap<>();
+    // Per-slot KV cache: the text of the last prompt and answer each slot processed
+    private final List<String> promptCache = new ArrayList<>();
+    private final AtomicLong promptTokensTotal = new AtomicLong();
+    private final AtomicLong promptTokensCached = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public FakeOllamaServer(Settings settings) {
+        this.settings = settings;
+        this.slots = new Semaphore(settings.parallel(), true);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Settings settings = Settings.from(LoadTestMain.parseArgs(args));
+        FakeOllamaServer server = new FakeOllamaServer(settings);
+        server.start();
+        System.out.println("Fake Ollama listening on http://localhost:" + server.getPort() + " with " + settings);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(settings.port()), 512);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "fake-ollama");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/api/chat", exchange -> handle(exchange, this::chat));
+        server.createContext("/api/embed", exchange -> handle(exchange, this::embed));
+        server.createContext("/api/tags", exchange -> handle(exchange, this::tags));
+        server.createContext("/api/generate", exchange -> handle(exchange, this::generate));
+        server.createContext("/api/ps", exchange -> handle(exchange, this::ps));
+        server.createContext("/api/version", exchange -> handle(exchange,
+                e -> respond(e, 200, objectMapper.createObjectNode().put("version", "0.0.0-fake"))));
+        server.createContext("/", exchange -> handle(exchange,
+                e -> respond(e, 200, "Ollama is running".getBytes(StandardCharsets.UTF_8), "text/plain")));
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + getPort();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Share of prompt tokens served from the simulated KV cache
+     */
+    public double getPrefixCacheHitRate() {
+        long total = promptTokensTotal.get();
+        return total == 0 ? 0 : promptTokensCached.get() / (double) total;
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private void chat(HttpExchange exchange) throws IOException {
+        JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+        String model = request.path("model").asText("fake");
+        boolean stream = request.path("stream").asBoolean(true);
+        requests.incrementAndGet();
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < settings.errorRate()) {
+            respond(exchange, 500, objectMapper.createObjectNode().put("error", "simulated server error"));
+            return;
+        }
+
+        StringBuilder promptText = new StringBuilder();
+        for (JsonNode message : request.path("messages")) {
+            appendMessage(promptText, message.path("role").asText(), message.path("content").asText());
+        }
+        String prompt = promptText.toString();
+        int promptTokens = Math.max(1, prompt.length() / 4);
+        int completionTokens = settings.minTokens()
+                + random.nextInt(Math.max(1, settings.maxTokens() - settings.minTokens() + 1));
+
+        // Wait for a free slot, like Ollama with a limited number of parallel requests
+        long started = System.nanoTime();
+        slots.acquireUninterruptibly();
+        activeGenerations.incrementAndGet();
+        try {
+            load(model, request.path("keep_alive"));
+            int cachedTokens = settings.prefixCache() ? cachedPrefix(prompt) / 4 : 0;
+            promptTokensTotal.addAndGet(promptTokens);
+            promptTokensCached.addAndGet(cachedTokens);
+            int evaluatedTokens = Math.max(1, promptTokens - cachedTokens);
+            long promptEvalNanos = settings.firstTokenLatency().toNanos()
+                    + (long) (evaluatedTokens * 1e9 / settings.promptTokensPerSecond());
+            sleepNanos(jittered(promptEvalNanos, random));
+
+            StringBuilder content = new StringBuilder();
+            if (!stream) {
+                for (int i = 0; i < completionTokens; i++) {
+                    content.append(token(random, i));
+                }
+                sleepNanos(jittered((long) (completionTokens * 1e9 / settings.tokensPerSecond()), random));
+                cache(prompt, content.toString());
+                respond(exchange, 200, finalChunk(model, content.toString(), evaluatedTokens, completionTokens, started));
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                int failAt = random.nextDouble() < settings.streamErrorRate() ? random.nextInt(completionTokens) : -1;
+                int stallAt = random.nextDouble() < settings.stallRate() ? random.nextInt(completionTokens) : -1;
+                long tokenNanos = (long) (1e9 / settings.tokensPerSecond());
+
+                for (int i = 0; i < completionTokens; i++) {
+                    if (i == failAt) {
+                        // Ollama reports a mid-stream failure as a separate {"error": ...} line
+                        writeLine(out, objectMapper.createObjectNode().put("error", "simulated generation failure"));
+                        return;
+                    }
+                    if (i == stallAt) {
+                        sleepNanos(settings.stallDuration().toNanos());
+                    }
+                    String token = token(random, i);
+                    content.append(token);
+                    writeLine(out, chunk(model, token));
+                    sleepNanos(jittered(tokenNanos, random));
+                }
+                cache(prompt, content.toString());
+                writeLine(out, finalChunk(model, "", evaluatedTokens, completionTokens, started));
+            }
+        } finally {
+            activeGenerations.decrementAndGet();
+            slots.release();
+        }
+    }
+
+    /**
+     * Characters of the prompt already held by the best matching slot
+     */
+    private int cachedPrefix(String prompt) {
+        synchronized (promptCache) {
+            int best = 0;
+            for (String cached : promptCache) {
+                best = Math.max(best, commonPrefix(cached, prompt));
+            }
+            return best;
+        }
+    }
+
+    /**
+     * The slot that served the prompt now holds it and the answer, as the next turn will send them.
+     * Like llama.cpp, a slot is reused when at least half of it matches the prompt, otherwise the
+     * least recently used slot is overwritten.
+     */
+    private void cache(String prompt, String answer) {
+        if (!settings.prefixCache()) {
+            return;
+        }
+        StringBuilder entry = new StringBuilder(prompt);
+        appendMessage(entry, "assistant", answer);
+        synchronized (promptCache) {
+            int slot = -1;
+            int best = 0;
+            for (int i = 0; i < promptCache.size(); i++) {
+                String cached = promptCache.get(i);
+                int shared = commonPrefix(cached, prompt);
+                if (shared > best && shared * 2 >= cached.length()) {
+                    best = shared;
+                    slot = i;
+                }
+            }
+            if (slot >= 0) {
+                promptCache.remove(slot);
+            } else if (promptCache.size() >= settings.parallel()) {
+                promptCache.remove(0);
+            }
+            // Most recently used last
+            promptCache.add(entry.toString());
+        }
+    }
+
+    private static void appendMessage(StringBuilder text, String role, String content) {
+        text.append('<').append(role).append(">\n").append(content).append('\n');
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < length && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private void embed(HttpExchange exchange) throws IOException {
+        JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+        JsonNode input = request.path("input");
+        ObjectNode response = objectMapper.createObjectNode().put("model", request.path("model").asText("fake"));
+        ArrayNode embeddings = response.putArray("embeddings");
+        if (input.isArray()) {
+            input.forEach(text -> embeddings.add(vector(text.asText())));
+        } else {
+            embeddings.add(vector(input.asText()));
+        }
+        respond(exchange, 200, response);
+    }
+
+    /**
+     * Only the model-loading form of /api/generate: no prompt, just model and keep_alive
+     */
+    private void generate(HttpExchange exchange) throws IOException {
+        JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+        String model = request.path("model").asText("fake");
+        JsonNode keepAlive = request.path("keep_alive");
+        boolean unload = keepAlive.isNumber() && keepAlive.asLong() == 0 || "0".equals(keepAlive.asText());
+        if (unload) {
+            resident.remove(model);
+        } else {
+            load(model, keepAlive);
+        }
+        respond(exchange, 200, objectMapper.createObjectNode()
+                .put("model", model)
+                .put("created_at", OffsetDateTime.now().toString())
+                .put("response", "")
+                .put("done", true)
+                .put("done_reason", unload ? "unload" : "load"));
+    }
+
+    private void ps(HttpExchange exchange) throws IOException {
+        long now = System.currentTimeMillis();
+        resident.values().removeIf(expires -> expires < now);
+        ObjectNode response = objectMapper.createObjectNode();
+        ArrayNode models = response.putArray("models");
+        resident.forEach((model, expires) -> models.addObject()
+                .put("name", model)
+                .put("model", model)
+                .put("size", 0)
+                .put("size_vram", 0)
+                .put("expires_at", expires == Long.MAX_VALUE
+                        ? "2318-01-01T00:00:00Z"
+                        : Instant.ofEpochMilli(expires).toString()));
+        respond(exchange, 200, response);
+    }
+
+    /**
+     * Make the model resident, paying the load latency if it was not, and extend its keep_alive
+     */
+    private void load(String model, JsonNode keepAlive) {
+        long now = System.currentTimeMillis();
+        Long expires = resident.get(model);
+        if (expires == null || expires < now) {
+            sleepNanos(settings.loadLatency().toNanos());
+        }
+
+        Duration keep = Duration.ofMinutes(5);
+        if (keepAlive.isNumber()) {
+            keep = Duration.ofSeconds(keepAlive.asLong());
+        } else if (keepAlive.isTextual() && !keepAlive.asText().isBlank()) {
+            keep = LoadTestMain.parseDuration(keepAlive.asText());
+        }
+        resident.put(model, keep.isNegative() ? Long.MAX_VALUE : now + keep.toMillis());
+    }
+
+    private void tags(HttpExchange exchange) throws IOException {
+        ObjectNode response = objectMapper.createObjectNode();
+        ArrayNode models = response.putArray("models");
+        for (String model : settings.models()) {
+            models.addObject().put("name", model).put("model", model).put("size", 0);
+        }
+        respond(exchange, 200, response);
+    }
+
+    /**
+     * Deterministic unit vector: the same text always gets the same embedding
+     */
+    private ArrayNode vector(String text) {
+        Random random = new Random(text.hashCode());
+        float[] values = new float[settings.embeddingDimensions()];
+        double norm = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) random.nextGaussian();
+            norm += values[i] * values[i];
+        }
+        ArrayNode vector = objectMapper.createArrayNode();
+        for (float value : values) {
+            vector.add(value / Math.sqrt(norm));
+        }
+        return vector;
+    }
+
+    private ObjectNode chunk(String model, String content) {
+        ObjectNode chunk = objectMapper.createObjectNode()
+                .put("model", model)
+                .put("created_at", OffsetDateTime.now().toString());
+        chunk.putObject("message").put("role", "assistant").put("content", content);
+        chunk.put("done", false);
+        return chunk;
+    }
+
+    private ObjectNode finalChunk(String model, String content, int promptTokens, int completionTokens, long started) {
+        long total = System.nanoTime() - started;
+        ObjectNode chunk = chunk(model, content);
+        chunk.put("done", true)
+                .put("done_reason", "stop")
+                .put("total_duration", total)
+                .put("load_duration", 0)
+                .put("prompt_eval_count", promptTokens)
+                .put("prompt_eval_duration", (long) (promptTokens * 1e9 / settings.promptTokensPerSecond()))
+                .put("eval_count", completionTokens)
+                .put("eval_duration", (long) (completionTokens * 1e9 / settings.tokensPerSecond()));
+        return chunk;
+    }
+
+    private String token(ThreadLocalRandom random, int index) {
+        String word = VOCABULARY[random.nextInt(VOCABULARY.length)];
+        return index == 0 ? word : " " + word;
+    }
+
+    private long jittered(long nanos, ThreadLocalRandom random) {
+        return Math.max(0, (long) (nanos * (1 + random.nextGaussian() * settings.jitter())));
+    }
+
+    private void writeLine(OutputStream out, JsonNode line) throws IOException {
+        out.write(objectMapper.writeValueAsBytes(line));
+        out.write('\n');
+        out.flush();
+    }
+
+    private void respond(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        respond(exchange, status, objectMapper.writeValueAsBytes(body), "application/json");
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body, String contentType) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void handle(HttpExchange exchange, Handler handler) {
+        try (exchange) {
+            handler.handle(exchange);
+        } catch (IOException e) {
+            // The client went away (cancelled request), which is expected under load
+        } catch (RuntimeException e) {
+            System.err.println("Fake Ollama handler failed: " + e);
+        }
+    }
+
+    private static void sleepNanos(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    /**
+     * Simulation parameters; see {@link #from(Map)} for the command-line names
+     */
+    public record Settings(int port,
+                           double tokensPerSecond,
+                           double promptTokensPerSecond,
+                           Duration firstTokenLatency,
+                           double jitter,
+                           int minTokens,
+                           int maxTokens,
+                           double errorRate,
+                           double streamErrorRate,
+                           double stallRate,
+                           Duration stallDuration,
+                           int parallel,
+                           int embeddingDimensions,
+                           Duration loadLatency,
+                           boolean prefixCache,
+                           String[] models) {
+
+        public static Settings from(Map<String, String> args) {
+            String[] tokens = args.getOrDefault("tokens", "50-300").split("-");
+            return new Settings(
+                    Integer.parseInt(args.getOrDefault("ollama-port", "11435")),
+                    Double.parseDouble(args.getOrDefault("token-rate", "30")),
+                    Double.parseDouble(args.getOrDefault("prompt-rate", "2000")),
+                    LoadTestMain.parseDuration(args.getOrDefault("first-token", "200ms")),
+                    Double.parseDouble(args.getOrDefault("jitter", "0.2")),
+                    Integer.parseInt(tokens[0]),
+                    Integer.parseInt(tokens.length > 1 ? tokens[1] : tokens[0]),
+                    Double.parseDouble(args.getOrDefault("error-rate", "0")),
+                    Double.parseDouble(args.getOrDefault("stream-error-rate", "0")),
+                    Double.parseDouble(args.getOrDefault("stall-rate", "0")),
+                    LoadTestMain.parseDuration(args.getOrDefault("stall", "5s")),
+                    Integer.parseInt(args.getOrDefault("parallel", "4")),
+                    Integer.parseInt(args.getOrDefault("embedding-dimensions", "768")),
+                    LoadTestMain.parseDuration(args.getOrDefault("load", "0ms")),
+                    Boolean.parseBoolean(args.getOrDefault("prefix-cache", "true")),
+                    args.getOrDefault("models", "llama3.2:3b,nomic-embed-text").split(","));
+        }
+
+        /**
+         * The same simulation on another port, for several fake hosts
+         */
+        public Settings withPort(int port) {
+            return new Settings(port, tokensPerSecond, promptTokensPerSecond, firstTokenLatency, jitter, minTokens,
+                    maxTokens, errorRate, streamErrorRate, stallRate, stallDuration, parallel, embeddingDimensions,
+                    loadLatency, prefixCache, models);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.0f tok/s, prompt %.0f tok/s, first token %d ms, jitter %.2f, %d-%d tokens, " +
+                            "errors %.3f/%.3f, stalls %.3f x %d ms, %d slots, model load %d ms, prefix cache %s",
+                    tokensPerSecond, promptTokensPerSecond, firstTokenLatency.toMillis(), jitter, minTokens, maxTokens,
+                    errorRate, streamErrorRate, stallRate, stallDuration.toMillis(), parallel, loadLatency.toMillis(),
+                    prefixCache ? "on" : "off");
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package kz.ai.sarbaz.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Closed-model load: every virtual user creates a chat, sends the turns of one
+ * conversation in order (waiting for each answer and a think time), then takes the next
+ * conversation, until the test duration is over. Users start evenly over the ramp-up.
+ */
+public class LoadGenerator {
+
+    private final Options options;
+    private final ConversationSource source;
+    private final LoadStats stats;
+    private final HttpClient client;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public LoadGenerator(Options options, ConversationSource source, LoadStats stats, HttpClient client) {
+        this.options = options;
+        this.source = source;
+        this.stats = stats;
+        this.client = client;
+    }
+
+    public void run() throws InterruptedException {
+        long deadline = System.nanoTime() + options.duration().toNanos();
+        ExecutorService users = Executors.newFixedThreadPool(options.users(), runnable -> {
+            Thread thread = new Thread(runnable, "virtual-user");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        stats.start();
+        for (int i = 0; i < options.users(); i++) {
+            long startDelay = options.rampUp().toNanos() * i / options.users();
+            users.execute(() -> user(startDelay, deadline));
+        }
+        users.shutdown();
+        // Requests started before the deadline get time to finish
+        if (!users.awaitTermination(options.duration().plus(options.requestTimeout()).toMillis() + 5_000,
+                TimeUnit.MILLISECONDS)) {
+            users.shutdownNow();
+        }
+        stats.finish();
+    }
+
+    private void user(long startDelayNanos, long deadline) {
+        sleep(TimeUnit.NANOSECONDS.toMillis(startDelayNanos));
+        while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+            String chatId = createChat();
+            if (chatId == null) {
+                sleep(1000);
+                continue;
+            }
+            boolean followUp = false;
+            for (String prompt : source.next()) {
+                if (System.nanoTime() >= deadline) {
+                    return;
+                }
+                if (ThreadLocalRandom.current().nextDouble() < options.streamingShare()) {
+                    streamingPrompt(chatId, prompt, followUp);
+                } else {
+                    blockingPrompt(chatId, prompt);
+                }
+                followUp = true;
+                sleep(thinkTime());
+            }
+        }
+    }
+
+    private String createChat() {
+        LoadStats.Endpoint endpoint = stats.endpoint(LoadStats.CREATE_CHAT);
+        long started = System.nanoTime();
+        try {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(options.target().resolve("/chats"))
+                    .timeout(options.requestTimeout())
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            objectMapper.writeValueAsString(Map.of("model", options.model()))))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                endpoint.error("http_" + response.statusCode(), started, 0);
+                return null;
+            }
+            endpoint.success(started, 0, 0);
+            return objectMapper.readTree(response.body()).path("id").asText(null);
+        } catch (Exception e) {
+            endpoint.error(errorKind(e), started, 0);
+            return null;
+        }
+    }
+
+    private void streamingPrompt(String chatId, String prompt, boolean followUp) {
+        LoadStats.Endpoint all = stats.endpoint(LoadStats.STREAMING);
+        Outcome endpoint = followUp ? new Outcome(all, stats.endpoint(LoadStats.STREAMING_FOLLOW_UP)) : new Outcome(all, null);
+        long started = System.nanoTime();
+        long firstToken = 0;
+        long chunks = 0;
+        try {
+            HttpResponse<Stream<String>> response = client.send(
+                    multipart("/chats/streaming/prompt", chatId, prompt, "text/event-stream"),
+                    HttpResponse.BodyHandlers.ofLines());
+            try (Stream<String> lines = response.body()) {
+                if (response.statusCode() != 200) {
+                    endpoint.error("http_" + response.statusCode(), started, 0);
+                    return;
+                }
+
+                String event = null;
+                for (Iterator<String> it = lines.iterator(); it.hasNext(); ) {
+                    String line = it.next();
+                    if (line.isEmpty()) {
+                        event = null;
+                    } else if (line.startsWith("event:")) {
+                        event = line.substring(6).strip();
+                    } else if (line.startsWith("data:")) {
+                        if ("error".equals(event)) {
+                            endpoint.error("stream_error", started, firstToken);
+                            return;
+                        }
+                        if (event == null || "message".equals(event)) {
+                            if (firstToken == 0) {
+                                firstToken = System.nanoTime();
+                            }
+                            chunks++;
+                        }
+                    }
+                }
+            }
+            if (chunks == 0) {
+                endpoint.error("empty_stream", started, 0);
+            } else {
+                endpoint.success(started, firstToken, chunks);
+            }
+        } catch (Exception e) {
+            endpoint.error(errorKind(e), started, firstToken);
+        }
+    }
+
+    /**
+     * Records a streaming result for all turns and, for follow-up turns, separately as well
+     */
+    private record Outcome(LoadStats.Endpoint all, LoadStats.Endpoint followUp) {
+        void success(long startedNanos, long firstTokenNanos, long chunkCount) {
+            all.success(startedNanos, firstTokenNanos, chunkCount);
+            if (followUp != null) {
+                followUp.success(startedNanos, firstTokenNanos, chunkCount);
+            }
+        }
+
+        void error(String kind, long startedNanos, long firstTokenNanos) {
+            all.error(kind, startedNanos, firstTokenNanos);
+            if (followUp != null) {
+                followUp.error(kind, startedNanos, firstTokenNanos);
+            }
+        }
+    }
+
+    private void blockingPrompt(String chatId, String prompt) {
+        LoadStats.Endpoint endpoint = stats.endpoint(LoadStats.BLOCKING);
+        long started = System.nanoTime();
+        try {
+            HttpResponse<String> response = client.send(
+                    multipart("/chats/prompt", chatId, prompt, "application/json"),
+                    HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                endpoint.error("http_" + response.statusCode(), started, 0);
+            } else {
+                endpoint.success(started, 0, 0);
+            }
+        } catch (Exception e) {
+            endpoint.error(errorKind(e), started, 0);
+        }
+    }
+
+    /**
+     * multipart/form-data with the text parts the controllers read via {@code @RequestPart}
+     */
+    private HttpRequest multipart(String path, String chatId, String prompt, String accept) {
+        String boundary = "loadtest-" + UUID.randomUUID();
+        Map<String, String> parts = new LinkedHashMap<>();
+        parts.put("model", options.model());
+        parts.put("prompt", prompt);
+        parts.put("role", options.role());
+        parts.put("chatId", chatId);
+
+        StringBuilder body = new StringBuilder();
+        parts.forEach((name, value) -> body.append("--").append(boundary).append("\r\n")
+                .append("Content-Disposition: form-data; name=\"").append(name).append("\"\r\n")
+                .append("Content-Type: text/plain; charset=UTF-8\r\n\r\n")
+                .append(value).append("\r\n"));
+        body.append("--").append(boundary).append("--\r\n");
+
+        return HttpRequest.newBuilder(options.target().resolve(path))
+                .timeout(options.requestTimeout())
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .header("Accept", accept)
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
+                .build();
+    }
+
+    private long thinkTime() {
+        long millis = options.thinkTime().toMillis();
+        // Exponentially distributed pauses instead of a strictly periodic load
+        return millis <= 0 ? 0 : (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * millis);
+    }
+
+    private static String errorKind(Exception e) {
+        if (e instanceof HttpTimeoutException) {
+            return "timeout";
+        }
+        if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+            return "interrupted";
+        }
+        return e instanceof IOException ? "io" : e.getClass().getSimpleName();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public record Options(URI target,
+                          int users,
+                          Duration duration,
+                          Duration rampUp,
+                          Duration thinkTime,
+                          Duration requestTimeout,
+                          double streamingShare,
+                          String model,
+                          String role) {
+
+        public static Options from(URI target, Map<String, String> args) {
+            String mode = args.getOrDefault("mode", "streaming");
+            double streamingShare = switch (mode) {
+                case "streaming" -> 1.0;
+                case "blocking" -> 0.0;
+                case "mixed" -> Double.parseDouble(args.getOrDefault("streaming-share", "0.8"));
+                default -> throw new IllegalArgumentException("Unknown mode " + mode + ", expected streaming|blocking|mixed");
+            };
+            return new Options(target,
+                    Integer.parseInt(args.getOrDefault("users", "10")),
+                    LoadTestMain.parseDuration(args.getOrDefault("duration", "60s")),
+                    LoadTestMain.parseDuration(args.getOrDefault("ramp-up", "10s")),
+                    LoadTestMain.parseDuration(args.getOrDefault("think-time", "1s")),
+                    LoadTestMain.parseDuration(args.getOrDefault("request-timeout", "5m")),
+                    streamingShare,
+                    args.getOrDefault("model", "llama3.2:3b"),
+                    args.getOrDefault("role", "assistant"));
+        }
+    }
+}
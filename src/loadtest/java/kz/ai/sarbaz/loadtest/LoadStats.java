@@ -0,0 +1,138 @@
+package kz.ai.sarbaz.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client-side results per endpoint: request and error counts, time to first token
+ * and full latency histograms (microseconds), streamed chunk counts.
+ */
+public class LoadStats {
+
+    public static final String STREAMING = "POST /chats/streaming/prompt";
+    // Second and later turns of a chat, also counted under STREAMING: their TTFT shows prompt-cache reuse
+    public static final String STREAMING_FOLLOW_UP = "POST /chats/streaming/prompt (follow-up turns)";
+    public static final String BLOCKING = "POST /chats/prompt";
+    public static final String CREATE_CHAT = "POST /chats";
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final AtomicLong startedNanos = new AtomicLong();
+    private final AtomicLong finishedNanos = new AtomicLong();
+
+    public void start() {
+        startedNanos.set(System.nanoTime());
+    }
+
+    public void finish() {
+        finishedNanos.set(System.nanoTime());
+    }
+
+    public Endpoint endpoint(String name) {
+        return endpoints.computeIfAbsent(name, Endpoint::new);
+    }
+
+    public double elapsedSeconds() {
+        long end = finishedNanos.get() != 0 ? finishedNanos.get() : System.nanoTime();
+        return (end - startedNanos.get()) / 1e9;
+    }
+
+    public Map<String, Object> toMap() {
+        double seconds = elapsedSeconds();
+        Map<String, Object> result = new LinkedHashMap<>();
+        new TreeMap<>(endpoints).forEach((name, endpoint) -> result.put(name, endpoint.toMap(seconds)));
+        return result;
+    }
+
+    public static final class Endpoint {
+        private final String name;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder chunks = new LongAdder();
+        private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+        private final Histogram firstToken = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(10), 3);
+        private final Histogram latency = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(10), 3);
+
+        private Endpoint(String name) {
+            this.name = name;
+        }
+
+        public void success(long startedNanos, long firstTokenNanos, long chunkCount) {
+            requests.increment();
+            chunks.add(chunkCount);
+            if (firstTokenNanos > 0) {
+                firstToken.recordValue(micros(firstTokenNanos - startedNanos));
+            }
+            latency.recordValue(micros(System.nanoTime() - startedNanos));
+        }
+
+        public void error(String kind, long startedNanos, long firstTokenNanos) {
+            requests.increment();
+            errors.computeIfAbsent(kind, k -> new LongAdder()).increment();
+            if (firstTokenNanos > 0) {
+                firstToken.recordValue(micros(firstTokenNanos - startedNanos));
+            }
+        }
+
+        public long requests() {
+            return requests.sum();
+        }
+
+        public long errorCount() {
+            return errors.values().stream().mapToLong(LongAdder::sum).sum();
+        }
+
+        Map<String, Object> toMap(double seconds) {
+            long total = requests.sum();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("requests", total);
+            result.put("throughputPerSecond", round(total / seconds));
+            result.put("errors", errorCount());
+            result.put("errorRate", total == 0 ? 0.0 : round(errorCount() / (double) total));
+            Map<String, Long> byKind = new TreeMap<>();
+            errors.forEach((kind, count) -> byKind.put(kind, count.sum()));
+            result.put("errorsByKind", byKind);
+            if (firstToken.getTotalCount() > 0) {
+                result.put("ttftMs", percentiles(firstToken));
+                result.put("chunksPerSecond", round(chunks.sum() / seconds));
+            }
+            if (latency.getTotalCount() > 0) {
+                result.put("latencyMs", percentiles(latency));
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+
+        private static Map<String, Double> percentiles(Histogram histogram) {
+            Map<String, Double> result = new LinkedHashMap<>();
+            result.put("p50", millis(histogram.getValueAtPercentile(50)));
+            result.put("p90", millis(histogram.getValueAtPercentile(90)));
+            result.put("p99", millis(histogram.getValueAtPercentile(99)));
+            result.put("max", millis(histogram.getMaxValue()));
+            result.put("mean", round(histogram.getMean() / 1000.0));
+            return result;
+        }
+
+        private static long micros(long nanos) {
+            return Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        }
+
+        private static double millis(long micros) {
+            return round(micros / 1000.0);
+        }
+    }
+
+    static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,200 @@
+package kz.ai.sarbaz.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kz.ai.sarbaz.AiSarbazApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * End-to-end load test: starts a {@link FakeOllamaServer}, the application (in-process
+ * with embedded or local MongoDB, unless {@code --target} points at a running instance),
+ * drives it with {@link LoadGenerator} and prints a report, also written as JSON.
+ * <p>
+ * Options ({@code --name=value}):
+ * <pre>
+ *   --target=http://host:8080   use a running server (start it with spring.ai.ollama.base-url
+ *                               pointing at the fake Ollama); otherwise the app starts in-process
+ *   --mongo-uri=mongodb://...   in-process app: use this MongoDB instead of an embedded one
+ *   --ollama-url=http://...     use an existing (fake or real) Ollama instead of starting one
+ *   --ollama-hosts=1            number of fake Ollama hosts (consecutive ports), all passed in app.ollama.hosts
+ *   --affinity=true             in-process app: route chats to hosts by chat id (app.ollama.affinity.enabled)
+ *   --replay=exports/x.json     replay a DataExportService file (.json messages, .csv, .jsonl)
+ *   --conversations=200         number of synthetic conversations without --replay
+ *   --mode=streaming|blocking|mixed, --streaming-share=0.8
+ *   --users=10 --duration=60s --ramp-up=10s --think-time=1s --request-timeout=5m
+ *   --model=llama3.2:3b --role=assistant
+ *   --report=target/loadtest-report.json --max-error-rate=1.0
+ *   fake Ollama: --ollama-port=11435 --token-rate=30 --prompt-rate=2000 --first-token=200ms
+ *                --jitter=0.2 --tokens=50-300 --error-rate=0 --stream-error-rate=0
+ *                --stall-rate=0 --stall=5s --parallel=4 --load=0ms --prefix-cache=true
+ * </pre>
+ * Time to first token of follow-up turns is reported separately; it shows prompt-cache reuse.
+ * For example, compare {@code --ollama-hosts=2 --affinity=false} with {@code --affinity=true}
+ * at a low {@code --prompt-rate}, with no more users than slots on all hosts together.
+ * In-process numbers include the load generator itself; for clean heap and thread figures
+ * run the server separately and pass {@code --target}.
+ */
+public final class LoadTestMain {
+
+    private static final String EMBEDDED_MONGO_VERSION = "7.0.14";
+
+    private LoadTestMain() {
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Map<String, String> args = parseArgs(argv);
+
+        List<FakeOllamaServer> fakeOllamas = new ArrayList<>();
+        String ollamaUrl = args.get("ollama-url");
+        if (ollamaUrl == null) {
+            FakeOllamaServer.Settings settings = FakeOllamaServer.Settings.from(args);
+            int hosts = Integer.parseInt(args.getOrDefault("ollama-hosts", "1"));
+            List<String> urls = new ArrayList<>();
+            for (int i = 0; i < hosts; i++) {
+                FakeOllamaServer fakeOllama = new FakeOllamaServer(
+                        settings.port() == 0 ? settings : settings.withPort(settings.port() + i));
+                fakeOllama.start();
+                fakeOllamas.add(fakeOllama);
+                urls.add(fakeOllama.getBaseUrl());
+            }
+            ollamaUrl = String.join(",", urls);
+            System.out.println("Fake Ollama at " + ollamaUrl);
+        }
+
+        ConfigurableApplicationContext app = null;
+        int exitCode;
+        try {
+            URI target;
+            if (args.containsKey("target")) {
+                target = URI.create(args.get("target"));
+            } else {
+                app = startApplication(ollamaUrl, args);
+                target = URI.create("http://localhost:" + app.getEnvironment().getProperty("local.server.port"));
+            }
+            System.out.println("Target " + target);
+
+            ConversationSource source = args.containsKey("replay")
+                    ? ConversationSource.fromExport(Paths.get(args.get("replay")))
+                    : ConversationSource.synthetic(Integer.parseInt(args.getOrDefault("conversations", "200")), 42);
+            System.out.printf("%d conversations, %d turns%n", source.size(), source.turns());
+
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .executor(Executors.newCachedThreadPool())
+                    .build();
+            LoadGenerator.Options options = LoadGenerator.Options.from(target, args);
+            LoadStats stats = new LoadStats();
+
+            Map<String, Object> server;
+            try (ServerMonitor monitor = new ServerMonitor(target, client)) {
+                monitor.start(Duration.ofSeconds(1));
+                new LoadGenerator(options, source, stats, client).run();
+                server = monitor.toMap();
+            }
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("finishedAt", Instant.now().toString());
+            report.put("durationSeconds", LoadStats.round(stats.elapsedSeconds()));
+            report.put("options", options);
+            if (!fakeOllamas.isEmpty()) {
+                report.put("fakeOllama", FakeOllamaServer.Settings.from(args).toString());
+                Map<String, Object> hosts = new LinkedHashMap<>();
+                for (FakeOllamaServer fakeOllama : fakeOllamas) {
+                    hosts.put(fakeOllama.getBaseUrl(), Map.of(
+                            "requests", fakeOllama.getRequests(),
+                            "prefixCacheHitRate", LoadStats.round(fakeOllama.getPrefixCacheHitRate())));
+                }
+                report.put("fakeOllamaHosts", hosts);
+            }
+            report.put("endpoints", stats.toMap());
+            report.put("server", server);
+
+            ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+            String json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(report);
+            System.out.println(json);
+            Path reportPath = Paths.get(args.getOrDefault("report", "target/loadtest-report.json"));
+            Files.createDirectories(reportPath.toAbsolutePath().getParent());
+            Files.writeString(reportPath, json);
+            System.out.println("Report written to " + reportPath);
+
+            exitCode = errorRate(stats) > Double.parseDouble(args.getOrDefault("max-error-rate", "1.0")) ? 1 : 0;
+        } finally {
+            if (app != null) {
+                app.close();
+            }
+            fakeOllamas.forEach(FakeOllamaServer::close);
+        }
+        System.exit(exitCode);
+    }
+
+    private static ConfigurableApplicationContext startApplication(String ollamaUrl, Map<String, String> args) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("server.port", 0);
+        // The first host doubles as the base URL for embeddings and the default client
+        properties.put("spring.ai.ollama.base-url", ollamaUrl.split(",")[0]);
+        properties.put("app.ollama.hosts", ollamaUrl);
+        properties.put("app.ollama.affinity.enabled", args.getOrDefault("affinity", "true"));
+        properties.put("spring.devtools.restart.enabled", false);
+        properties.put("logging.level.kz.ai.sarbaz", "WARN");
+        properties.put("app.file-storage-path", "target/loadtest/uploads");
+        properties.put("app.rag.index-path", "target/loadtest/attachments.hnsw");
+        properties.put("app.search.index-path", "target/loadtest/search.idx");
+        if (args.containsKey("mongo-uri")) {
+            properties.put("spring.data.mongodb.uri", args.get("mongo-uri"));
+        } else {
+            // Embedded MongoDB (flapdoodle) on a random port, from the loadtest profile
+            properties.put("de.flapdoodle.mongodb.embedded.version", EMBEDDED_MONGO_VERSION);
+            properties.put("spring.data.mongodb.port", 0);
+            properties.put("spring.data.mongodb.database", "loadtest");
+        }
+        // As an application property it comes too late: devtools would restart main and start the fakes again
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        return new SpringApplicationBuilder(AiSarbazApplication.class)
+                .properties(properties)
+                .run();
+    }
+
+    private static double errorRate(LoadStats stats) {
+        long requests = 0;
+        long errors = 0;
+        for (String name : new String[]{LoadStats.STREAMING, LoadStats.BLOCKING}) {
+            LoadStats.Endpoint endpoint = stats.endpoint(name);
+            requests += endpoint.requests();
+            errors += endpoint.errorCount();
+        }
+        return requests == 0 ? 1.0 : errors / (double) requests;
+    }
+
+    static Map<String, String> parseArgs(String[] argv) {
+        Map<String, String> args = new HashMap<>();
+        for (String arg : argv) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + arg + ", expected --name=value");
+            }
+            int eq = arg.indexOf('=');
+            args.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+        return args;
+    }
+
+    static Duration parseDuration(String value) {
+        return DurationStyle.detectAndParse(value);
+    }
+}
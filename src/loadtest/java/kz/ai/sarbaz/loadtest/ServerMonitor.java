@@ -0,0 +1,101 @@
+package kz.ai.sarbaz.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.DoubleSummaryStatistics;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples server heap, live threads and CPU from the actuator metrics endpoint
+ * once per interval while the load runs.
+ */
+public class ServerMonitor implements AutoCloseable {
+
+    private static final String HEAP = "/actuator/metrics/jvm.memory.used?tag=area:heap";
+    private static final String THREADS = "/actuator/metrics/jvm.threads.live";
+    private static final String CPU = "/actuator/metrics/process.cpu.usage";
+
+    private final URI target;
+    private final HttpClient client;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "server-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<double[]> samples = new ArrayList<>();
+    private volatile String failure;
+
+    public ServerMonitor(URI target, HttpClient client) {
+        this.target = target;
+        this.client = client;
+    }
+
+    public void start(Duration interval) {
+        scheduler.scheduleAtFixedRate(this::sample, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        List<double[]> snapshot;
+        synchronized (samples) {
+            snapshot = new ArrayList<>(samples);
+        }
+        if (snapshot.isEmpty()) {
+            result.put("error", failure != null ? failure : "no samples");
+            return result;
+        }
+
+        DoubleSummaryStatistics heap = snapshot.stream().mapToDouble(sample -> sample[0]).summaryStatistics();
+        DoubleSummaryStatistics threads = snapshot.stream().mapToDouble(sample -> sample[1]).summaryStatistics();
+        DoubleSummaryStatistics cpu = snapshot.stream().mapToDouble(sample -> sample[2]).summaryStatistics();
+        result.put("samples", snapshot.size());
+        result.put("heapUsedMbAvg", LoadStats.round(heap.getAverage() / (1 << 20)));
+        result.put("heapUsedMbMax", LoadStats.round(heap.getMax() / (1 << 20)));
+        result.put("threadsLiveAvg", LoadStats.round(threads.getAverage()));
+        result.put("threadsLiveMax", (long) threads.getMax());
+        result.put("processCpuAvg", LoadStats.round(cpu.getAverage()));
+        result.put("processCpuMax", LoadStats.round(cpu.getMax()));
+        return result;
+    }
+
+    private void sample() {
+        try {
+            double[] sample = {metric(HEAP), metric(THREADS), metric(CPU)};
+            synchronized (samples) {
+                samples.add(sample);
+            }
+        } catch (Exception e) {
+            failure = "actuator metrics unavailable: " + e.getMessage();
+        }
+    }
+
+    private double metric(String path) throws Exception {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(target.resolve(path))
+                .timeout(Duration.ofSeconds(5))
+                .GET()
+                .build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(path + " returned " + response.statusCode());
+        }
+        JsonNode measurements = objectMapper.readTree(response.body()).path("measurements");
+        return measurements.isEmpty() ? 0 : measurements.get(0).path("value").asDouble();
+    }
+}
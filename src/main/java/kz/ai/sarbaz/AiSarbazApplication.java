@@ -1,10 +1,11 @@
 package kz.ai.sarbaz;
 
-import org.springframework.ai.autoconfigure.mistralai.MistralAiAutoConfiguration;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
-@SpringBootApplication(exclude = {MistralAiAutoConfiguration.class})
+@SpringBootApplication
+@EnableScheduling
 public class AiSarbazApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,102 @@
+package kz.ai.sarbaz.api;
+
+import kz.ai.sarbaz.entity.RolePreset;
+import kz.ai.sarbaz.metrics.MongoCommandMetrics;
+import kz.ai.sarbaz.metrics.TimelineRecorder;
+import kz.ai.sarbaz.service.MessageMigrationService;
+import kz.ai.sarbaz.service.RoleRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/admin")
+@RequiredArgsConstructor
+public class AdminController {
+
+    private final TimelineRecorder timelineRecorder;
+    private final MongoCommandMetrics mongoCommandMetrics;
+    private final RoleRegistry roleRegistry;
+    private final MessageMigrationService messageMigrationService;
+
+    /**
+     * Последние сэмплированные таймлайны потоковых запросов
+     */
+    @GetMapping("/timings")
+    public List<Map<String, Object>> getTimings(@RequestParam(defaultValue = "50") int limit) {
+        return timelineRecorder.recent(limit);
+    }
+
+    /**
+     * Последние медленные команды MongoDB с формой запроса
+     */
+    @GetMapping("/mongo/slow")
+    public List<Map<String, Object>> getSlowMongoCommands() {
+        return mongoCommandMetrics.recentSlowCommands();
+    }
+
+    /**
+     * Именованные роли из файла и MongoDB
+     */
+    @GetMapping("/roles")
+    public Collection<RolePreset> getRoles() {
+        return roleRegistry.roles();
+    }
+
+    /**
+     * Создать или изменить роль в MongoDB; реестр перестраивается сразу
+     */
+    @PutMapping("/roles/{name}")
+    public RolePreset saveRole(@PathVariable String name, @RequestBody RolePreset preset) {
+        preset.setName(name);
+        return roleRegistry.save(preset);
+    }
+
+    @DeleteMapping("/roles/{name}")
+    public ResponseEntity<Void> deleteRole(@PathVariable String name) {
+        roleRegistry.delete(name);
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Перечитать роли из файла и MongoDB, не дожидаясь периодической перезагрузки
+     */
+    @PostMapping("/roles/reload")
+    public Collection<RolePreset> reloadRoles() {
+        roleRegistry.load();
+        return roleRegistry.roles();
+    }
+
+    /**
+     * Запустить перенос сообщений в бакеты (только при app.messages.store=dual)
+     */
+    @PostMapping("/messages/migration")
+    public Map<String, Object> startMessageMigration(@RequestParam(required = false) String resumeAfter) {
+        return messageMigrationService.start(resumeAfter);
+    }
+
+    @GetMapping("/messages/migration")
+    public Map<String, Object> getMessageMigration() {
+        return messageMigrationService.status();
+    }
+
+    /**
+     * Остановить перенос после текущего чата
+     */
+    @DeleteMapping("/messages/migration")
+    public Map<String, Object> stopMessageMigration() {
+        return messageMigrationService.stop();
+    }
+}
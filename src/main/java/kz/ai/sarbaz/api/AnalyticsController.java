@@ -0,0 +1,77 @@
+package kz.ai.sarbaz.api;
+
+import kz.ai.sarbaz.api.dto.UsageStatsDTO;
+import kz.ai.sarbaz.service.UsageAnalyticsService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/**
+ * Использование LLM по дням из предагрегированных счетчиков: токены, задержки, число ходов и сообщений.
+ * Период задается датами from/to включительно, по умолчанию - последние 7 дней.
+ */
+@RestController
+@RequestMapping("/analytics")
+@RequiredArgsConstructor
+public class AnalyticsController {
+
+    private static final int DEFAULT_DAYS = 7;
+    private static final int MAX_DAYS = 366;
+
+    private final UsageAnalyticsService usageAnalyticsService;
+
+    /**
+     * Использование по моделям и дням
+     */
+    @GetMapping("/usage")
+    public List<UsageStatsDTO> getUsage(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String model) {
+        LocalDate end = to != null ? to : usageAnalyticsService.today();
+        LocalDate start = start(from, end);
+        return usageAnalyticsService.getModelUsage(start, end, model);
+    }
+
+    /**
+     * Итоги по моделям за период
+     */
+    @GetMapping("/usage/totals")
+    public List<UsageStatsDTO> getUsageTotals(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        LocalDate end = to != null ? to : usageAnalyticsService.today();
+        return usageAnalyticsService.getModelTotals(start(from, end), end);
+    }
+
+    /**
+     * Использование одного чата по дням
+     */
+    @GetMapping("/usage/chats/{chatId}")
+    public List<UsageStatsDTO> getChatUsage(
+            @PathVariable String chatId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        LocalDate end = to != null ? to : usageAnalyticsService.today();
+        return usageAnalyticsService.getChatUsage(chatId, start(from, end), end);
+    }
+
+    private static LocalDate start(LocalDate from, LocalDate end) {
+        LocalDate start = from != null ? from : end.minusDays(DEFAULT_DAYS - 1);
+        if (start.isAfter(end)) {
+            throw new IllegalArgumentException("from must not be after to");
+        }
+        if (ChronoUnit.DAYS.between(start, end) >= MAX_DAYS) {
+            throw new IllegalArgumentException("Period must not exceed " + MAX_DAYS + " days");
+        }
+        return start;
+    }
+}
@@ -0,0 +1,83 @@
+package kz.ai.sarbaz.api;
+
+import kz.ai.sarbaz.api.dto.BatchItemResultDTO;
+import kz.ai.sarbaz.api.dto.BatchPromptRequest;
+import kz.ai.sarbaz.api.dto.BatchStatusDTO;
+import kz.ai.sarbaz.entity.BatchJob;
+import kz.ai.sarbaz.service.BatchPromptService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Пакетная обработка промптов. Результаты отдаются потоком NDJSON по мере готовности,
+ * идентификатор пакета - в заголовке X-Batch-Id; прерванный пакет продолжается через /resume.
+ */
+@RestController
+@RequestMapping("/batches")
+@RequiredArgsConstructor
+public class BatchController {
+
+    private static final String BATCH_ID_HEADER = "X-Batch-Id";
+
+    private final BatchPromptService batchPromptService;
+
+    /**
+     * Запустить пакет из JSON-тела с массивом items
+     */
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<Flux<BatchItemResultDTO>> createBatch(@RequestBody BatchPromptRequest request) {
+        return started(batchPromptService.create(request));
+    }
+
+    /**
+     * Запустить пакет из JSONL-файла: по одному элементу {"id","prompt","model","role"} в строке
+     */
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<Flux<BatchItemResultDTO>> createBatchFromFile(
+            @RequestPart("file") MultipartFile file,
+            @RequestPart(value = "model", required = false) String model,
+            @RequestPart(value = "role", required = false) String role,
+            @RequestPart(value = "persist", required = false) String persist) throws IOException {
+
+        BatchPromptRequest request = BatchPromptRequest.builder()
+                .model(model)
+                .role(role)
+                .persist(Boolean.parseBoolean(persist))
+                .build();
+        try (InputStream input = file.getInputStream()) {
+            request.setItems(batchPromptService.readJsonLines(input));
+        }
+        return started(batchPromptService.create(request));
+    }
+
+    /**
+     * Продолжить пакет: выполняются элементы без успешного результата
+     */
+    @PostMapping(value = "/{batchId}/resume", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<Flux<BatchItemResultDTO>> resumeBatch(@PathVariable String batchId) {
+        return ResponseEntity.ok()
+                .header(BATCH_ID_HEADER, batchId)
+                .body(batchPromptService.run(batchId));
+    }
+
+    /**
+     * Состояние пакета
+     */
+    @GetMapping("/{batchId}")
+    public BatchStatusDTO getBatch(@PathVariable String batchId) {
+        return batchPromptService.status(batchId);
+    }
+
+    private ResponseEntity<Flux<BatchItemResultDTO>> started(BatchJob job) {
+        return ResponseEntity.ok()
+                .header(BATCH_ID_HEADER, job.getId())
+                .body(batchPromptService.run(job.getId()));
+    }
+}
@@ -1,118 +1,172 @@
 package kz.ai.sarbaz.api;
 
 import kz.ai.sarbaz.api.dto.ChatDTO;
+import kz.ai.sarbaz.api.dto.ChatSearchResultDTO;
 import kz.ai.sarbaz.api.dto.MessageDTO;
 import kz.ai.sarbaz.api.dto.PageResponse;
 import kz.ai.sarbaz.api.model.ChatResponse;
 import kz.ai.sarbaz.entity.Chat;
 import kz.ai.sarbaz.entity.Message;
+import kz.ai.sarbaz.llm.ChatAffinity;
+import kz.ai.sarbaz.service.ChatSearchService;
 import kz.ai.sarbaz.service.ChatService;
+import kz.ai.sarbaz.service.PromptAssembler;
+import kz.ai.sarbaz.service.RoleRegistry;
+import kz.ai.sarbaz.service.UsageAnalyticsService;
+import kz.ai.sarbaz.streaming.HeartbeatHub;
+import kz.ai.sarbaz.streaming.LiveGenerationRegistry;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.SystemMessage;
-import org.springframework.ai.chat.messages.UserMessage;
-import org.springframework.ai.model.Media;
 import org.springframework.ai.ollama.api.OllamaOptions;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.util.MimeType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
 
-import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
 
 @RestController
 @RequestMapping("/chats")
 @RequiredArgsConstructor
+@Slf4j
 public class ChatController {
 
     @Qualifier("ollamaChatClient")
     private final ChatClient ollamaChatClient;
     private final ChatService chatService;
+    private final PromptAssembler promptAssembler;
+    private final RoleRegistry roleRegistry;
+    private final ChatSearchService chatSearchService;
+    private final LiveGenerationRegistry liveGenerationRegistry;
+    private final HeartbeatHub heartbeatHub;
+    private final UsageAnalyticsService usageAnalyticsService;
+
+    @Qualifier("llmPromptExecutor")
+    private final ThreadPoolTaskExecutor llmPromptExecutor;
+
+    @Value("${app.prompt.timeout:5m}")
+    private Duration promptTimeout;
 
     // Максимальное количество предыдущих сообщений для контекста
     private static final int MAX_HISTORY_MESSAGES = 10;
 
+    /**
+     * Отправить сообщение и получить ответ целиком. Чат и сообщение пользователя сохраняются
+     * в потоке запроса, сборка промпта и вызов LLM идут в отдельном пуле llmPromptExecutor,
+     * так что поток Tomcat освобождается сразу. По таймауту или при разрыве соединения
+     * генерация прерывается.
+     */
     @PostMapping(value = "/prompt")
-    public ChatResponse processPrompt(
+    public DeferredResult<ChatResponse> processPrompt(
             @RequestPart("model") String model,
             @RequestPart("prompt") String prompt,
             @RequestPart("role") String role,
             @RequestPart(value = "chatId", required = false) String chatId,
-            @RequestPart(value = "attachments", required = false) List<MultipartFile> attachments) throws IOException {
+            @RequestPart(value = "attachments", required = false) List<MultipartFile> attachments) {
 
         // Получаем или создаем чат
         Chat chat = chatService.getOrCreateChat(chatId, model);
 
-        // Создаем новое сообщение пользователя
-        UserMessage currentUserMessage = new UserMessage(prompt);
-
-        // Добавляем вложения, если они есть
-        if (attachments != null && !attachments.isEmpty()) {
-            List<Media> mediaList = new ArrayList<>();
-            for (MultipartFile file : attachments) {
-                Media media = Media.builder()
-                        .data(file.getBytes())
-                        .mimeType(MimeType.valueOf(file.getContentType()))
-                        .build();
-                mediaList.add(media);
+        // Получаем недавнюю историю чата; более ранняя часть приходит сводкой
+        List<Message> history = chatService.chatExists(chat.getId())
+                ? chatService.getPromptHistory(chat, MAX_HISTORY_MESSAGES)
+                : List.of();
+
+        DeferredResult<ChatResponse> result = new DeferredResult<>(promptTimeout.toMillis());
+        long started = System.nanoTime();
+        // Задача ставится в пул до сохранения сообщения: при заполненной очереди запрос отклоняется
+        // с 503, не оставив в чате вопроса без ответа, который повторный запрос бы продублировал
+        CompletableFuture<Message> savedUserMessage = new CompletableFuture<>();
+        Future<?> generation = llmPromptExecutor.submit(() -> {
+            Message userMessage;
+            try {
+                userMessage = savedUserMessage.join();
+            } catch (CompletionException | CancellationException e) {
+                // Сохранить не удалось, ошибку вернул поток запроса
+                return;
+            }
+            try {
+                org.springframework.ai.chat.model.ChatResponse response = generate(chat, model, role, history, userMessage);
+                String completion = response.getResult().getOutput().getText();
+                long latencyMillis = (System.nanoTime() - started) / 1_000_000;
+
+                // Сохраняем ответ в истории, даже если клиент уже не ждет; токены идут в счетчики чата
+                chatService.saveAssistantMessage(chat.getId(), completion, response.getMetadata().getUsage());
+                // Без стриминга первый токен приходит вместе со всем ответом
+                usageAnalyticsService.recordTurn(new UsageAnalyticsService.Turn(chat.getId(), model,
+                        response.getMetadata().getUsage(), latencyMillis, latencyMillis, 2, false));
+                result.setResult(ChatResponse.builder()
+                        .chatId(chat.getId())
+                        .completion(completion)
+                        .build());
+            } catch (Exception e) {
+                if (!Thread.currentThread().isInterrupted()) {
+                    log.error("Error processing prompt for chat {}: {}", chat.getId(), e.getMessage(), e);
+                }
+                long latencyMillis = (System.nanoTime() - started) / 1_000_000;
+                usageAnalyticsService.recordTurn(new UsageAnalyticsService.Turn(chat.getId(), model,
+                        null, latencyMillis, 0, 1, true));
+                result.setErrorResult(e);
             }
-            currentUserMessage.getMedia().addAll(mediaList);
+        });
+
+        // Сохраняем сообщение пользователя: вложения-документы уходят на фоновое извлечение текста.
+        // Делаем это до освобождения потока запроса, пока multipart-файлы еще доступны
+        try {
+            savedUserMessage.complete(chatService.saveUserMessage(chat.getId(), prompt, attachments));
+        } catch (RuntimeException e) {
+            savedUserMessage.completeExceptionally(e);
+            throw e;
         }
 
-        // Создаем системное сообщение с ролью
-        SystemMessage systemMessage = new SystemMessage("You are a friendly chat bot that answers question in the role of a " + role);
+        // Прерываем генерацию, когда ответ больше никому не нужен
+        result.onTimeout(() -> {
+            generation.cancel(true);
+            result.setErrorResult(new TimeoutException("LLM response timed out after " + promptTimeout));
+        });
+        result.onError(e -> generation.cancel(true));
+        return result;
+    }
+
+    private org.springframework.ai.chat.model.ChatResponse generate(Chat chat, String model, String role, List<Message> history, Message userMessage) {
+        // Создаем системное сообщение с ролью и сводкой ранней части диалога
+        SystemMessage systemMessage = new SystemMessage(promptAssembler.withSummary(
+                roleRegistry.systemPrompt(role), chat));
 
-        // Получаем историю чата и преобразуем в сообщения для LLM
+        // Преобразуем историю чата в сообщения для LLM
         List<org.springframework.ai.chat.messages.Message> messageHistory = new ArrayList<>();
         messageHistory.add(systemMessage);
+        messageHistory.addAll(promptAssembler.toHistoryMessages(history));
 
-        // Добавляем историю, если чат уже существует
-        if (chatService.chatExists(chat.getId())) {
-            List<Message> history = chatService.getLastMessages(chat.getId(), MAX_HISTORY_MESSAGES);
-
-            // Преобразуем историю в сообщения для LLM
-            List<org.springframework.ai.chat.messages.Message> historyMessages = history.stream()
-                    .map(msg -> {
-                        if (msg.getType() == Message.MessageType.USER) {
-                            return new UserMessage(msg.getContent());
-                        } else {
-                            return new AssistantMessage(msg.getContent());
-                        }
-                    })
-                    .collect(Collectors.toList());
-
-            messageHistory.addAll(historyMessages);
-        }
-
-        // Добавляем текущее сообщение пользователя
-        messageHistory.add(currentUserMessage);
+        // Добавляем текущее сообщение пользователя с изображениями и текстом документов
+        messageHistory.add(promptAssembler.toCurrentUserMessage(userMessage, history));
 
         // Настраиваем options для модели
         OllamaOptions options = OllamaOptions.builder()
                 .model(model)
                 .build();
 
-        // Отправляем запрос к LLM и получаем ответ
-        String completion = this.ollamaChatClient.prompt()
+        // Отправляем запрос к LLM на хост Ollama этого чата и получаем ответ
+        return ChatAffinity.callWith(chat.getId(), () -> this.ollamaChatClient.prompt()
                 .options(options)
                 .messages(messageHistory)
-                .call().content();
-
-        // Сохраняем сообщение пользователя и ответ в истории
-        chatService.saveUserMessage(chat.getId(), prompt, attachments);
-        chatService.saveAssistantMessage(chat.getId(), completion);
-
-        // Возвращаем ответ
-        return ChatResponse.builder()
-                .chatId(chat.getId())
-                .completion(completion)
-                .build();
+                .call().chatResponse());
     }
 
     // Управление чатами
@@ -129,6 +183,30 @@ public class ChatController {
         return chatService.getChats(page, size, activeOnly);
     }
 
+    /**
+     * Полнотекстовый поиск по названиям чатов и сообщениям
+     */
+    @GetMapping("/search")
+    public List<ChatSearchResultDTO> searchChats(
+            @RequestParam("q") String query,
+            @RequestParam(defaultValue = "20") int limit,
+            @RequestParam(defaultValue = "false") boolean activeOnly) {
+
+        return chatSearchService.search(query, Math.min(limit, 100), activeOnly);
+    }
+
+    /**
+     * Подписаться на ответы модели в чате: текущая генерация (с уже полученными фрагментами)
+     * и все следующие. Все вкладки чата читают один поток от Ollama.
+     */
+    @GetMapping(value = "/{chatId}/live", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> liveChat(@PathVariable String chatId) {
+        if (!chatService.chatExists(chatId)) {
+            throw new IllegalArgumentException("Чат не найден: " + chatId);
+        }
+        return Flux.merge(liveGenerationRegistry.live(chatId), heartbeatHub.heartbeats());
+    }
+
     /**
      * Получить историю чата с пагинацией
      */
@@ -167,12 +245,12 @@ public class ChatController {
     }
 
     /**
-     * Удалить чат
+     * Удалить чат. 202: файлы вложений удаляются в фоне
      */
     @DeleteMapping("/{chatId}")
     public ResponseEntity<Void> deleteChat(@PathVariable String chatId) {
         chatService.deleteChat(chatId);
-        return ResponseEntity.ok().build();
+        return ResponseEntity.accepted().build();
     }
 
     /**
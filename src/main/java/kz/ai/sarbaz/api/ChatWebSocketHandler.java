@@ -0,0 +1,269 @@
+package kz.ai.sarbaz.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kz.ai.sarbaz.metrics.LlmMetrics;
+import kz.ai.sarbaz.metrics.RequestTimeline;
+import kz.ai.sarbaz.metrics.TimelineRecorder;
+import kz.ai.sarbaz.service.ChatGenerationService;
+import kz.ai.sarbaz.streaming.HeartbeatHub;
+import kz.ai.sarbaz.streaming.LiveGenerationRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * WebSocket-транспорт стриминга чата: одно соединение несет любое число чатов и ходов.
+ * <p>
+ * Кадры клиента - JSON, в каждом номер стрима, выбранный клиентом:
+ * <pre>
+ * {"t":"prompt","stream":1,"chatId":"...","model":"...","role":"...","prompt":"..."}
+ * {"t":"follow","stream":2,"chatId":"..."}
+ * {"t":"cancel","stream":1}
+ * </pre>
+ * Кадры сервера - компактный текст с разделителем '|', полезная нагрузка всегда в последнем поле:
+ * <pre>
+ * S|stream|chatId|messageId   a turn starts; ids are sent once, deltas refer to the stream number
+ * D|stream|seq|delta          next chunk of the answer, seq starts at 0 for every turn
+ * E|stream                    the stream is finished
+ * X|stream|error              the stream failed (stream is 0 for errors not tied to a stream)
+ * H                           shared heartbeat
+ * </pre>
+ * Все исходящие кадры соединения идут через один конвейер Reactor с единственным потоком
+ * отправки. Отправка блокирующая, поэтому медленный клиент перестает запрашивать из конвейера,
+ * и спрос доходит до стримов модели, а не копится кадрами в памяти.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "app.websocket.enabled", havingValue = "true", matchIfMissing = true)
+public class ChatWebSocketHandler extends TextWebSocketHandler {
+
+    private static final String CONNECTION = "chatConnection";
+    private static final String HEARTBEAT_FRAME = "H";
+
+    private final ChatGenerationService chatGenerationService;
+    private final LiveGenerationRegistry liveGenerationRegistry;
+    private final HeartbeatHub heartbeatHub;
+    private final TimelineRecorder timelineRecorder;
+    private final ObjectMapper objectMapper;
+
+    @Value("${app.websocket.max-streams-per-connection:8}")
+    private int maxStreams;
+
+    @Value("${app.websocket.send-buffer-frames:32}")
+    private int sendBufferFrames;
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        Connection connection = new Connection(session);
+        session.getAttributes().put(CONNECTION, connection);
+        connection.start();
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        Connection connection = (Connection) session.getAttributes().get(CONNECTION);
+        ClientFrame frame;
+        try {
+            frame = objectMapper.readValue(message.getPayload(), ClientFrame.class);
+        } catch (IOException e) {
+            connection.reject(0, "Malformed frame");
+            return;
+        }
+
+        int stream = frame != null && frame.stream() != null ? frame.stream() : 0;
+        if (stream <= 0) {
+            connection.reject(0, "Frame without a positive stream number");
+            return;
+        }
+        switch (Objects.requireNonNullElse(frame.t(), "")) {
+            case "prompt" -> connection.open(stream, prompt(frame));
+            case "follow" -> connection.open(stream, follow(frame));
+            case "cancel" -> connection.cancel(stream);
+            default -> connection.reject(stream, "Unknown frame type: " + frame.t());
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Connection connection = (Connection) session.getAttributes().remove(CONNECTION);
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Новый ход. Поиск чата и сохранение сообщения пользователя блокируются на MongoDB, поэтому
+     * идут вне потока сокета, и соединение тем временем продолжает читать кадры.
+     */
+    private StreamSource prompt(ClientFrame frame) {
+        if (frame.model() == null || frame.role() == null || frame.prompt() == null) {
+            return stream -> Flux.just(errorFrame(stream, "model, role and prompt are required"));
+        }
+
+        return stream -> {
+            String messageId = UUID.randomUUID().toString();
+            RequestTimeline timeline = new RequestTimeline(messageId, frame.model());
+            return Mono.fromCallable(() -> chatGenerationService.streamPrompt(
+                            messageId, frame.chatId(), frame.model(), frame.role(), frame.prompt(), null, timeline))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .flatMapMany(generation -> frames(stream, generation.chatId(), generation.events()))
+                    .onErrorResume(e -> {
+                        log.error("Error initializing websocket streaming: {}", e.getMessage(), e);
+                        timeline.setOutcome(LlmMetrics.OUTCOME_ERROR);
+                        return Flux.just(errorFrame(stream, "Error: " + e.getMessage()));
+                    })
+                    .doFinally(signal -> {
+                        if (timeline.getOutcome() == null) {
+                            timeline.setOutcome(LlmMetrics.OUTCOME_CANCELLED);
+                        }
+                        timelineRecorder.record(timeline, false);
+                    });
+        };
+    }
+
+    /**
+     * Следить за генерациями чата, запущенными в другом месте; открыт до отмены
+     */
+    private StreamSource follow(ClientFrame frame) {
+        if (frame.chatId() == null) {
+            return stream -> Flux.just(errorFrame(stream, "chatId is required"));
+        }
+        return stream -> frames(stream, frame.chatId(), liveGenerationRegistry.live(frame.chatId()));
+    }
+
+    /**
+     * Перевести события генерации в кадры. Кадр начала отправляется при каждой смене id
+     * сообщения, поэтому наблюдатели видят каждый ход чата отдельной последовательностью.
+     */
+    private Flux<String> frames(int stream, String chatId, Flux<ServerSentEvent<String>> events) {
+        AtomicReference<String> currentMessage = new AtomicReference<>();
+        AtomicInteger seq = new AtomicInteger();
+        return events
+                .concatMap(event -> {
+                    String data = event.data() != null ? event.data() : "";
+                    if (ChatGenerationService.EVENT_ERROR.equals(event.event())) {
+                        return Flux.just(errorFrame(stream, data));
+                    }
+                    if (Objects.equals(currentMessage.get(), event.id())) {
+                        return Flux.just(deltaFrame(stream, seq.getAndIncrement(), data));
+                    }
+                    currentMessage.set(event.id());
+                    seq.set(1);
+                    return Flux.just("S|" + stream + "|" + chatId + "|" + event.id(), deltaFrame(stream, 0, data));
+                })
+                .concatWith(Mono.just("E|" + stream));
+    }
+
+    private static String deltaFrame(int stream, int seq, String delta) {
+        return "D|" + stream + "|" + seq + "|" + delta;
+    }
+
+    private static String errorFrame(int stream, String error) {
+        return "X|" + stream + "|" + error;
+    }
+
+    @FunctionalInterface
+    private interface StreamSource {
+        Flux<String> frames(int stream);
+    }
+
+    record ClientFrame(String t, Integer stream, String chatId, String model, String role, String prompt) {
+    }
+
+    /**
+     * Состояние соединения: мультиплексор стримов и переключатели отмены открытых стримов
+     */
+    private class Connection {
+
+        private final WebSocketSession session;
+        private final Sinks.Many<Flux<String>> streams = Sinks.many().unicast().onBackpressureBuffer();
+        private final Map<Integer, Sinks.Empty<Void>> cancels = new ConcurrentHashMap<>();
+        private volatile Disposable subscription;
+
+        Connection(WebSocketSession session) {
+            this.session = session;
+        }
+
+        void start() {
+            // Предвыборка по одному на стрим: следующий фрагмент стрим выдает, только когда предыдущий встал в очередь
+            Flux<String> frames = streams.asFlux().flatMap(stream -> stream, maxStreams + 1, 1);
+            Flux<String> heartbeats = heartbeatHub.heartbeats().map(event -> HEARTBEAT_FRAME);
+            subscription = Flux.merge(frames, heartbeats)
+                    .publishOn(Schedulers.boundedElastic(), sendBufferFrames)
+                    .subscribe(this::send, e -> log.error("WebSocket {} pipeline failed: {}", session.getId(), e.getMessage(), e));
+        }
+
+        void open(int stream, StreamSource function) {
+            if (cancels.size() >= maxStreams) {
+                reject(stream, "Too many concurrent streams");
+                return;
+            }
+            Sinks.Empty<Void> cancel = Sinks.empty();
+            if (cancels.putIfAbsent(stream, cancel) != null) {
+                reject(stream, "Stream " + stream + " is already open");
+                return;
+            }
+            emit(Flux.defer(() -> function.frames(stream))
+                    .takeUntilOther(cancel.asMono())
+                    .doFinally(signal -> cancels.remove(stream, cancel)));
+        }
+
+        void cancel(int stream) {
+            Sinks.Empty<Void> cancel = cancels.get(stream);
+            if (cancel != null) {
+                cancel.tryEmitEmpty();
+            }
+        }
+
+        void reject(int stream, String error) {
+            emit(Flux.just(errorFrame(stream, error)));
+        }
+
+        void close() {
+            Disposable current = subscription;
+            if (current != null) {
+                current.dispose();
+            }
+            cancels.clear();
+        }
+
+        private void emit(Flux<String> frames) {
+            // Входящие кадры сессии доставляются по одному, поэтому у sink единственный производитель
+            streams.tryEmitNext(frames);
+        }
+
+        private void send(String frame) {
+            if (!session.isOpen()) {
+                close();
+                return;
+            }
+            try {
+                session.sendMessage(new TextMessage(frame));
+            } catch (IOException e) {
+                log.debug("WebSocket {} send failed, closing: {}", session.getId(), e.getMessage());
+                close();
+            }
+        }
+    }
+}
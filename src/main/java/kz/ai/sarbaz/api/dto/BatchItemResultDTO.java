@@ -0,0 +1,22 @@
+package kz.ai.sarbaz.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchItemResultDTO {
+    private String batchId;
+    private int index;
+    private String id;
+    private String model;
+    private String status;
+    private String completion;
+    private String error;
+    private String chatId;
+    private Long durationMs;
+}
@@ -0,0 +1,33 @@
+package kz.ai.sarbaz.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Пакет промптов. Модель и роль элемента по умолчанию берутся из пакета.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchPromptRequest {
+    private String model;
+    private String role;
+    private boolean persist;
+    private List<Item> items;
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Item {
+        private String id;
+        private String prompt;
+        private String model;
+        private String role;
+    }
+}
@@ -0,0 +1,24 @@
+package kz.ai.sarbaz.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchStatusDTO {
+    private String batchId;
+    private String model;
+    private boolean persist;
+    private boolean running;
+    private int total;
+    private long done;
+    private long failed;
+    private long pending;
+    private LocalDateTime createdAt;
+}
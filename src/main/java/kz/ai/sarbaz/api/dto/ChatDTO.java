@@ -1,5 +1,6 @@
 package kz.ai.sarbaz.api.dto;
 
+import kz.ai.sarbaz.entity.Message;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -19,4 +20,8 @@ public class ChatDTO {
     private Boolean active;
     private String modelName;
     private Integer messageCount;
+    private String lastMessagePreview;
+    private Message.MessageType lastMessageType;
+    private Long promptTokens;
+    private Long completionTokens;
 }
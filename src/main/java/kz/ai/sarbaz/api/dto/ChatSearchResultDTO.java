@@ -0,0 +1,21 @@
+package kz.ai.sarbaz.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatSearchResultDTO {
+    private String chatId;
+    private String title;
+    private String messageId;
+    private String snippet;
+    private float score;
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,25 @@
+package kz.ai.sarbaz.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UsageStatsDTO {
+    private String day;
+    private String model;
+    private String chatId;
+    private long turns;
+    private long failedTurns;
+    private long messages;
+    private long promptTokens;
+    private long completionTokens;
+    private long totalTokens;
+    private Double avgLatencyMs;
+    private Double avgFirstTokenMs;
+    private long maxLatencyMs;
+}
@@ -1,27 +1,112 @@
 package kz.ai.sarbaz.config;
 
+import io.micrometer.observation.ObservationRegistry;
+import kz.ai.sarbaz.llm.AffinityChatModel;
+import kz.ai.sarbaz.llm.KeepAliveChatModel;
+import kz.ai.sarbaz.llm.LlmPriority;
+import kz.ai.sarbaz.llm.LlmScheduler;
+import kz.ai.sarbaz.llm.ModelResidencyManager;
+import kz.ai.sarbaz.llm.ProviderRouter;
+import kz.ai.sarbaz.llm.ScheduledChatModel;
+import kz.ai.sarbaz.metrics.LlmMetrics;
+import kz.ai.sarbaz.metrics.MeteredChatModel;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.mistralai.MistralAiChatModel;
-import org.springframework.ai.mistralai.MistralAiChatOptions;
 import org.springframework.ai.ollama.OllamaChatModel;
-import org.springframework.ai.ollama.api.OllamaModel;
+import org.springframework.ai.ollama.api.OllamaApi;
 import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @Configuration
 public class ApplicationConfiguration {
 
     @Primary
     @Bean("ollamaChatClient")
-    public ChatClient ollamaChatClient(OllamaChatModel ollamaChatModel) {
-        return ChatClient.create(ollamaChatModel);
+    public ChatClient ollamaChatClient(ProviderRouter providerRouter, LlmMetrics llmMetrics,
+                                       LlmScheduler llmScheduler) {
+        return ChatClient.create(scheduled(providerRouter, llmMetrics, llmScheduler, LlmPriority.INTERACTIVE));
+    }
+
+    /**
+     * Клиент для фоновых задач (названия чатов и т.п.): уступает слоты интерактивным запросам
+     */
+    @Bean("backgroundChatClient")
+    public ChatClient backgroundChatClient(ProviderRouter providerRouter, LlmMetrics llmMetrics,
+                                           LlmScheduler llmScheduler) {
+        return ChatClient.create(scheduled(providerRouter, llmMetrics, llmScheduler, LlmPriority.BACKGROUND));
+    }
+
+    /**
+     * Клиент для пакетной обработки: работает только на свободных от остальных задач слотах
+     */
+    @Bean("batchChatClient")
+    public ChatClient batchChatClient(ProviderRouter providerRouter, LlmMetrics llmMetrics,
+                                      LlmScheduler llmScheduler) {
+        return ChatClient.create(scheduled(providerRouter, llmMetrics, llmScheduler, LlmPriority.BATCH));
     }
 
-//    @Bean("mistralChatClient")
-//    public ChatClient mistralChatClient(MistralAiChatModel mistralAiChatModel) {
-//        return ChatClient.create(mistralAiChatModel);
-//    }
+    /**
+     * Маршрутизация логических моделей по провайдерам с переключением при сбоях и хеджированием.
+     * Ollama доступна всегда (с привязкой чатов к хостам), Mistral - если включен spring.ai.mistralai.chat.enabled
+     * и задан spring.ai.mistralai.api-key (автоконфигурация Spring AI)
+     */
+    @Bean
+    public ProviderRouter providerRouter(OllamaChatModel ollamaChatModel, ModelResidencyManager residencyManager,
+                                         ObjectProvider<MistralAiChatModel> mistralAiChatModel, MeterRegistry meterRegistry,
+                                         ObjectProvider<RestClient.Builder> restClientBuilder,
+                                         ObjectProvider<WebClient.Builder> webClientBuilder,
+                                         ObjectProvider<ObservationRegistry> observationRegistry,
+                                         @Value("${spring.ai.ollama.base-url:http://localhost:11434}") String baseUrl,
+                                         @Value("${app.ollama.affinity.enabled:true}") boolean affinity,
+                                         @Value("${app.ollama.affinity.virtual-nodes:100}") int virtualNodes,
+                                         @Value("${app.ollama.affinity.load-factor:1.25}") double loadFactor,
+                                         @Value("${app.routing.default-provider:ollama}") String defaultProvider,
+                                         @Value("${app.routing.routes:}") String routes,
+                                         @Value("${app.routing.first-token-timeout:2m}") Duration firstTokenTimeout,
+                                         @Value("${app.routing.call-timeout:5m}") Duration callTimeout,
+                                         @Value("${app.routing.hedge.enabled:false}") boolean hedging,
+                                         @Value("${app.routing.hedge.min-delay:500ms}") Duration hedgeMinDelay,
+                                         @Value("${app.routing.hedge.default-delay:5s}") Duration hedgeDefaultDelay) {
+        // Клиенты Ollama по одному на хост из app.ollama.hosts; хост выбирается по chatId,
+        // чтобы ходы одного чата попадали в KV-кеш того же сервера
+        Map<String, ChatModel> hosts = new LinkedHashMap<>();
+        for (String host : residencyManager.getHosts()) {
+            // Для основного адреса используем модель автоконфигурации со всеми ее настройками
+            hosts.put(host, host.equals(ModelResidencyManager.normalize(baseUrl)) ? ollamaChatModel
+                    : OllamaChatModel.builder()
+                    .ollamaApi(new OllamaApi(host, restClientBuilder.getObject(), webClientBuilder.getObject()))
+                    .defaultOptions((OllamaOptions) ollamaChatModel.getDefaultOptions())
+                    .observationRegistry(observationRegistry.getIfUnique(() -> ObservationRegistry.NOOP))
+                    .build());
+        }
+        ChatModel ollama = new AffinityChatModel(hosts, residencyManager, affinity, virtualNodes, loadFactor, meterRegistry);
+
+        Map<String, ChatModel> providers = new LinkedHashMap<>();
+        providers.put("ollama", new KeepAliveChatModel(ollama, residencyManager));
+        mistralAiChatModel.ifAvailable(model -> providers.put("mistral", model));
+        return new ProviderRouter(providers, defaultProvider, routes,
+                new ProviderRouter.Settings(firstTokenTimeout, callTimeout, hedging, hedgeMinDelay, hedgeDefaultDelay),
+                meterRegistry);
+    }
+
+    /**
+     * Цепочка декораторов модели: планировщик -> метрики -> маршрутизатор провайдеров
+     */
+    private static ChatModel scheduled(ProviderRouter providerRouter, LlmMetrics llmMetrics, LlmScheduler llmScheduler,
+                                       LlmPriority priority) {
+        return new ScheduledChatModel(new MeteredChatModel(providerRouter.asChatModel(), llmMetrics), llmScheduler, priority);
+    }
 
 }
@@ -0,0 +1,46 @@
+package kz.ai.sarbaz.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class ExecutorConfig {
+
+    /**
+     * Пул для извлечения текста из вложений. Очередь ограничена, чтобы
+     * поток крупных PDF не съел всю память: лишние задачи отклоняются
+     * и будут повторены при следующем обращении к документу.
+     */
+    @Bean("documentExtractionExecutor")
+    public ThreadPoolTaskExecutor documentExtractionExecutor(
+            @Value("${app.extraction.threads:2}") int threads,
+            @Value("${app.extraction.queue-capacity:100}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("doc-extract-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        return executor;
+    }
+
+    /**
+     * Пул для блокирующих вызовов LLM из /chats/prompt. Поток Tomcat освобождается сразу,
+     * генерация идет здесь; при заполненной очереди запрос отклоняется с 503, а не
+     * занимает потоки, обслуживающие список чатов и историю.
+     */
+    @Bean("llmPromptExecutor")
+    public ThreadPoolTaskExecutor llmPromptExecutor(
+            @Value("${app.prompt.threads:16}") int threads,
+            @Value("${app.prompt.queue-capacity:50}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("llm-prompt-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        return executor;
+    }
+}
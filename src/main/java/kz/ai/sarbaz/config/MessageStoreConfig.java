@@ -0,0 +1,64 @@
+package kz.ai.sarbaz.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import kz.ai.sarbaz.repository.MessageRepository;
+import kz.ai.sarbaz.storage.BucketedMessageStore;
+import kz.ai.sarbaz.storage.DocumentMessageStore;
+import kz.ai.sarbaz.storage.DualMessageStore;
+import kz.ai.sarbaz.storage.MessageCompressor;
+import kz.ai.sarbaz.storage.MessageStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+@Configuration
+public class MessageStoreConfig {
+
+    public static final String DOCUMENTS = "documents";
+    public static final String BUCKETED = "bucketed";
+    public static final String DUAL = "dual";
+
+    /**
+     * Сжатие длинных сообщений при записи; чтение сжатых не зависит от настроек
+     */
+    @Bean
+    public MessageCompressor messageCompressor(@Value("${app.messages.compression.enabled:true}") boolean enabled,
+                                               @Value("${app.messages.compression.min-length:2048}") int minLength,
+                                               @Value("${app.messages.compression.min-savings:0.2}") double minSavings,
+                                               MeterRegistry meterRegistry) {
+        return new MessageCompressor(enabled, minLength, minSavings, meterRegistry);
+    }
+
+    @Bean
+    public DocumentMessageStore documentMessageStore(MessageRepository messageRepository, MongoTemplate mongoTemplate,
+                                                     MessageCompressor messageCompressor) {
+        return new DocumentMessageStore(messageRepository, mongoTemplate, messageCompressor);
+    }
+
+    @Bean
+    public BucketedMessageStore bucketedMessageStore(MongoTemplate mongoTemplate,
+                                                     @Value("${app.messages.bucket-size:50}") int bucketSize,
+                                                     MessageCompressor messageCompressor) {
+        return new BucketedMessageStore(mongoTemplate, bucketSize, messageCompressor);
+    }
+
+    /**
+     * Хранилище сообщений для сервисов: документ на сообщение, бакеты или оба сразу на время миграции
+     */
+    @Bean
+    @Primary
+    public MessageStore messageStore(@Value("${app.messages.store:" + DOCUMENTS + "}") String mode,
+                                     @Value("${app.messages.dual.read:" + DOCUMENTS + "}") String dualRead,
+                                     DocumentMessageStore documentMessageStore,
+                                     BucketedMessageStore bucketedMessageStore) {
+        return switch (mode.strip()) {
+            case DOCUMENTS -> documentMessageStore;
+            case BUCKETED -> bucketedMessageStore;
+            case DUAL -> new DualMessageStore(documentMessageStore, bucketedMessageStore, BUCKETED.equals(dualRead.strip()));
+            default -> throw new IllegalArgumentException("Unknown app.messages.store: " + mode
+                    + ", expected " + DOCUMENTS + ", " + BUCKETED + " or " + DUAL);
+        };
+    }
+}
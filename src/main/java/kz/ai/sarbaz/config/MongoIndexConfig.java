@@ -1,6 +1,7 @@
 package kz.ai.sarbaz.config;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.event.EventListener;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
@@ -8,8 +9,13 @@ import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.index.Index;
 
+import kz.ai.sarbaz.entity.BatchItem;
 import kz.ai.sarbaz.entity.Chat;
+import kz.ai.sarbaz.entity.ColdMessageSegment;
+import kz.ai.sarbaz.entity.FileCleanupTask;
 import kz.ai.sarbaz.entity.Message;
+import kz.ai.sarbaz.entity.MessageBucket;
+import kz.ai.sarbaz.entity.UsageBucket;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
 
 @Configuration
@@ -19,6 +25,9 @@ public class MongoIndexConfig {
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    @Value("${app.messages.store:documents}")
+    private String messageStore;
+
     @EventListener(ApplicationReadyEvent.class)
     public void initIndicesAfterStartup() {
         // Индексы для чатов
@@ -41,5 +50,62 @@ public class MongoIndexConfig {
                 .ensureIndex(new Index()
                         .on("chatId", Sort.Direction.ASC)
                         .on("sequenceNumber", Sort.Direction.DESC));
+
+        // Продолжение пакета выбирает незавершенные элементы по порядку
+        mongoTemplate.indexOps(BatchItem.class)
+                .ensureIndex(new Index()
+                        .on("batchId", Sort.Direction.ASC)
+                        .on("status", Sort.Direction.ASC)
+                        .on("index", Sort.Direction.ASC));
+
+        // Догрузка поискового индекса после рестарта читает сообщения по времени
+        mongoTemplate.indexOps(Message.class)
+                .ensureIndex(new Index()
+                        .on("timestamp", Sort.Direction.ASC));
+
+        // Отчеты по использованию читают дневные агрегаты за период: по моделям и по чату
+        mongoTemplate.indexOps(UsageBucket.class)
+                .ensureIndex(new Index()
+                        .on("scope", Sort.Direction.ASC)
+                        .on("day", Sort.Direction.ASC)
+                        .on("model", Sort.Direction.ASC));
+
+        mongoTemplate.indexOps(UsageBucket.class)
+                .ensureIndex(new Index()
+                        .on("chatId", Sort.Direction.ASC)
+                        .on("day", Sort.Direction.ASC)
+                        .sparse());
+
+        // Политика хранения ищет давно архивированные чаты; холодные сегменты читаются по чату
+        mongoTemplate.indexOps(Chat.class)
+                .ensureIndex(new Index()
+                        .on("archivedAt", Sort.Direction.ASC)
+                        .sparse());
+
+        mongoTemplate.indexOps(ColdMessageSegment.class)
+                .ensureIndex(new Index()
+                        .on("chatId", Sort.Direction.ASC)
+                        .on("segment", Sort.Direction.ASC));
+
+        // Очередь удаления файлов выбирает задачи, срок которых подошел
+        mongoTemplate.indexOps(FileCleanupTask.class)
+                .ensureIndex(new Index()
+                        .on("nextAttemptAt", Sort.Direction.ASC));
+
+        // Бакеты сообщений: окно истории по номерам бакетов, поиск по id сообщения, догрузка поиска по времени
+        if (!MessageStoreConfig.DOCUMENTS.equals(messageStore.strip())) {
+            mongoTemplate.indexOps(MessageBucket.class)
+                    .ensureIndex(new Index()
+                            .on("chatId", Sort.Direction.ASC)
+                            .on("bucket", Sort.Direction.ASC));
+
+            mongoTemplate.indexOps(MessageBucket.class)
+                    .ensureIndex(new Index()
+                            .on("messages._id", Sort.Direction.ASC));
+
+            mongoTemplate.indexOps(MessageBucket.class)
+                    .ensureIndex(new Index()
+                            .on("updatedAt", Sort.Direction.ASC));
+        }
     }
 }
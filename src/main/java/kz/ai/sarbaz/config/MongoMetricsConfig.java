@@ -0,0 +1,22 @@
+package kz.ai.sarbaz.config;
+
+import kz.ai.sarbaz.metrics.MongoCommandMetrics;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MongoMetricsConfig {
+
+    /**
+     * Подключает слушатель команд и пула соединений к клиенту MongoDB.
+     * Стандартный слушатель команд actuator отключен в application.properties,
+     * чтобы задержки не считались дважды.
+     */
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoCommandMetricsCustomizer(MongoCommandMetrics mongoCommandMetrics) {
+        return settings -> settings
+                .addCommandListener(mongoCommandMetrics)
+                .applyToConnectionPoolSettings(pool -> pool.addConnectionPoolListener(mongoCommandMetrics));
+    }
+}
@@ -0,0 +1,53 @@
+package kz.ai.sarbaz.config;
+
+import kz.ai.sarbaz.api.ChatWebSocketHandler;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistration;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
+
+import java.time.Duration;
+
+/**
+ * WebSocket-транспорт чата (/ws/chats). Сжатие permessage-deflate согласует сам Tomcat,
+ * если клиент его предлагает (браузеры предлагают всегда).
+ */
+@Configuration
+@EnableWebSocket
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "app.websocket.enabled", havingValue = "true", matchIfMissing = true)
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final ChatWebSocketHandler chatWebSocketHandler;
+
+    /**
+     * Доверенные источники кроме своего; по умолчанию пусто, и Spring пускает только рукопожатия
+     * с того же origin, иначе любая страница могла бы открыть сокет с cookie пользователя
+     */
+    @Value("${app.websocket.allowed-origins:}")
+    private String[] allowedOrigins;
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        WebSocketHandlerRegistration registration = registry.addHandler(chatWebSocketHandler, "/ws/chats");
+        if (allowedOrigins.length > 0) {
+            registration.setAllowedOriginPatterns(allowedOrigins);
+        }
+    }
+
+    @Bean
+    public ServletServerContainerFactoryBean webSocketContainer(
+            @Value("${app.websocket.max-text-message-size:262144}") int maxTextMessageSize,
+            @Value("${app.websocket.idle-timeout:5m}") Duration idleTimeout) {
+        ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
+        container.setMaxTextMessageBufferSize(maxTextMessageSize);
+        container.setMaxSessionIdleTimeout(idleTimeout.toMillis());
+        return container;
+    }
+}
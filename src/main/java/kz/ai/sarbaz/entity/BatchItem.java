@@ -0,0 +1,51 @@
+package kz.ai.sarbaz.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Один промпт пакетного задания и его результат
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "batch_items")
+public class BatchItem {
+    @Id
+    private String id; // batchId:index
+
+    @Indexed
+    private String batchId;
+
+    private Integer index;
+    private String externalId;
+    private String model;
+    private String role;
+    private String prompt;
+    private Status status;
+    private String completion;
+    private String error;
+    private String chatId;
+    private Long durationMs;
+    private LocalDateTime completedAt;
+
+    // Токены ответа для аналитики; учитываются при сохранении результата и не хранятся
+    @Transient
+    private Usage usage;
+
+    public enum Status {
+        PENDING,
+        DONE,
+        FAILED
+    }
+}
@@ -0,0 +1,28 @@
+package kz.ai.sarbaz.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Пакетное задание. Промпты и результаты хранятся в batch_items, здесь - общие параметры.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "batches")
+public class BatchJob {
+    @Id
+    private String id;
+    private String model;
+    private String role;
+    private Boolean persist;
+    private Integer total;
+    private LocalDateTime createdAt;
+}
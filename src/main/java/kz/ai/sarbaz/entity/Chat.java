@@ -23,4 +23,19 @@ public class Chat {
     private Boolean active;
     private String modelName;
     private Integer messageCount;
+
+    // Сводка начала диалога и sequenceNumber последнего вошедшего в нее сообщения
+    private String summary;
+    private Integer summarizedUpTo;
+
+    // Денормализованные поля для списка чатов: обновляются атомарно вместе с messageCount
+    // при каждом добавлении сообщения, чтобы список не читал сообщения
+    private String lastMessagePreview;
+    private Message.MessageType lastMessageType;
+    private Long promptTokens;
+    private Long completionTokens;
+
+    // Когда чат архивирован и когда его сообщения вынесены в cold_messages (ChatRetentionService)
+    private LocalDateTime archivedAt;
+    private LocalDateTime coldAt;
 }
@@ -0,0 +1,33 @@
+package kz.ai.sarbaz.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Часть сообщений давно архивированного чата, вынесенная из горячих коллекций:
+ * JSON-массив сообщений, сжатый ContentCodec. Индексы сообщений эти данные не занимают.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "cold_messages")
+public class ColdMessageSegment {
+    // chatId:номер части
+    @Id
+    private String id;
+
+    private String chatId;
+    private Integer segment;
+    private Integer count;
+    @ToString.Exclude
+    private byte[] data;
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,30 @@
+package kz.ai.sarbaz.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Фрагмент извлеченного документа. Вектор фрагмента хранится во внутрипроцессном
+ * HNSW-индексе под номером vectorId, здесь - только текст и привязка к документу.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "document_chunks")
+public class DocumentChunk {
+    @Id
+    private String id; // contentHash:chunkIndex
+
+    @Indexed
+    private String contentHash;
+
+    private Integer chunkIndex;
+    private String text;
+    private Integer vectorId;
+}
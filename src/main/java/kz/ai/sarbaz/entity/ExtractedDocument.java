@@ -0,0 +1,40 @@
+package kz.ai.sarbaz.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Текст, извлеченный из вложения. Ключ - SHA-256 содержимого файла,
+ * поэтому один и тот же документ разбирается только один раз.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "extracted_documents")
+public class ExtractedDocument {
+    @Id
+    private String contentHash;
+
+    private String filename;
+    private String contentType;
+    private ExtractionStatus status;
+    private String text;
+    private Integer textLength;
+    private Boolean truncated;
+    private String error;
+    private LocalDateTime extractedAt;
+    // Для FAILED из-за временного сбоя: после этого момента извлечение повторяется; null - файл не разбирается
+    private LocalDateTime retryAfter;
+
+    public enum ExtractionStatus {
+        READY,
+        FAILED
+    }
+}
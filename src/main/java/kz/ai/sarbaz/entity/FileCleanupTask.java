@@ -0,0 +1,31 @@
+package kz.ai.sarbaz.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Файл вложения, который нужно удалить с диска. Задачи переживают рестарт и
+ * повторяются с растущей паузой, пока удаление не пройдет.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "file_cleanup")
+public class FileCleanupTask {
+    // Ссылка на файл (dataRef вложения), поэтому повторная постановка не дублирует задачу
+    @Id
+    private String id;
+
+    private String chatId;
+    private int attempts;
+    private LocalDateTime nextAttemptAt;
+    private String lastError;
+    private LocalDateTime createdAt;
+}
@@ -1,9 +1,12 @@
 package kz.ai.sarbaz.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import kz.ai.sarbaz.storage.ContentCodec;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
@@ -25,9 +28,32 @@ public class Message {
     
     private MessageType type;
     private String content;
+    // Длинный текст хранится сжатым (ContentCodec) вместо content и распаковывается при первом чтении
+    @JsonIgnore
+    @ToString.Exclude
+    private byte[] compressedContent;
     private LocalDateTime timestamp;
     private List<MediaAttachment> attachments;
     private Integer sequenceNumber;
+
+    public String getContent() {
+        if (content == null && compressedContent != null) {
+            content = ContentCodec.decompress(compressedContent);
+        }
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+        this.compressedContent = null;
+    }
+
+    /**
+     * Копия для записи: текст заменен сжатым, остальные поля общие с исходным сообщением
+     */
+    public Message withCompressedContent(byte[] compressed) {
+        return new Message(id, chatId, type, null, compressed, timestamp, attachments, sequenceNumber);
+    }
     
     public enum MessageType {
         USER,
@@ -43,5 +69,6 @@ public class Message {
         private String filename;
         private String contentType;
         private String dataRef; // Ссылка на GridFS или другое хранилище
+        private String contentHash; // SHA-256 содержимого, ключ извлеченного текста
     }
 }
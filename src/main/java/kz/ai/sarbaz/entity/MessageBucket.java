@@ -0,0 +1,33 @@
+package kz.ai.sarbaz.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Сообщения чата с номерами из одного диапазона фиксированного размера:
+ * бакет N хранит sequenceNumber от N * size + 1 до (N + 1) * size.
+ * Сообщения добавляются через $push, count растет вместе с ними.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "message_buckets")
+public class MessageBucket {
+    // chatId:N
+    @Id
+    private String id;
+
+    private String chatId;
+    private Integer bucket;
+    private Integer count;
+    private LocalDateTime updatedAt;
+    private List<Message> messages;
+}
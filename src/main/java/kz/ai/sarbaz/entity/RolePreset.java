@@ -0,0 +1,28 @@
+package kz.ai.sarbaz.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Именованная роль (персона) с шаблоном системного промпта.
+ * В шаблоне доступны {name} и {description}.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "roles")
+public class RolePreset {
+    @Id
+    private String name;
+
+    private String description;
+    private String template;
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,45 @@
+package kz.ai.sarbaz.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Агрегат использования LLM за день: по модели (scope MODEL) или по чату (scope CHAT).
+ * Счетчики увеличиваются через $inc при каждом ходе диалога, поэтому отчет за период
+ * читает по документу на день, а не сообщения.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "usage_buckets")
+public class UsageBucket {
+    // scope|модель или chatId|день, см. UsageAnalyticsService
+    @Id
+    private String id;
+
+    private Scope scope;
+    // День в формате yyyy-MM-dd, строки сравниваются так же, как даты
+    private String day;
+    private String model;
+    private String chatId;
+
+    private long turns;
+    private long failedTurns;
+    private long messages;
+    private long promptTokens;
+    private long completionTokens;
+    // Суммы для средних, максимум - для хвоста
+    private long latencyMillis;
+    private long firstTokenMillis;
+    private long maxLatencyMillis;
+
+    public enum Scope {
+        MODEL,
+        CHAT
+    }
+}
@@ -0,0 +1,181 @@
+package kz.ai.sarbaz.llm;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Распределяет запросы по хостам Ollama так, чтобы все ходы чата шли на один хост.
+ * <p>
+ * Соседние ходы делят системное сообщение и историю как префикс промпта, который Ollama берет
+ * из KV-кеша только на хосте, обслужившем предыдущий ход. Id чата ({@link ChatAffinity})
+ * размещается на кольце консистентного хеширования с виртуальными узлами, поэтому добавление
+ * или удаление хоста переносит только его чаты. Нагрузка ограничена: хост, у которого уже больше
+ * {@code loadFactor} средних запросов, пропускается по кольцу, как и хосты, которые
+ * {@link ModelResidencyManager} счел недоступными. Запросы без id чата идут на наименее
+ * загруженный хост.
+ */
+public class AffinityChatModel implements ChatModel {
+
+    private final Map<String, ChatModel> hosts;
+    private final ModelResidencyManager residencyManager;
+    private final boolean affinity;
+    private final double loadFactor;
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+    private final Map<String, AtomicInteger> inFlight = new LinkedHashMap<>();
+    private final AtomicInteger totalInFlight = new AtomicInteger();
+    private final MeterRegistry meterRegistry;
+
+    public AffinityChatModel(Map<String, ChatModel> hosts, ModelResidencyManager residencyManager,
+                             boolean affinity, int virtualNodes, double loadFactor, MeterRegistry meterRegistry) {
+        if (hosts.isEmpty()) {
+            throw new IllegalArgumentException("At least one Ollama host is required");
+        }
+        if (loadFactor < 1) {
+            throw new IllegalArgumentException("Load factor must be at least 1, got " + loadFactor);
+        }
+        this.hosts = new LinkedHashMap<>(hosts);
+        this.residencyManager = residencyManager;
+        this.affinity = affinity;
+        this.loadFactor = loadFactor;
+        this.meterRegistry = meterRegistry;
+        for (String host : hosts.keySet()) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(host + "#" + i), host);
+            }
+            AtomicInteger load = new AtomicInteger();
+            inFlight.put(host, load);
+            Gauge.builder("ollama.host.in.flight", load, AtomicInteger::get)
+                    .description("LLM requests in progress per Ollama host")
+                    .tag("host", host)
+                    .register(meterRegistry);
+        }
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        String host = select(ChatAffinity.current());
+        inFlight.get(host).incrementAndGet();
+        totalInFlight.incrementAndGet();
+        try {
+            return hosts.get(host).call(prompt);
+        } finally {
+            release(host);
+        }
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.deferContextual(context -> {
+            String host = select(ChatAffinity.from(context));
+            inFlight.get(host).incrementAndGet();
+            totalInFlight.incrementAndGet();
+            return hosts.get(host).stream(prompt)
+                    .doFinally(signal -> release(host));
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return hosts.values().iterator().next().getDefaultOptions();
+    }
+
+    /**
+     * Хост для чата: первый по часовой стрелке от его позиции на кольце, доступный и не перегруженный
+     */
+    String select(String chatId) {
+        if (hosts.size() == 1) {
+            return hosts.keySet().iterator().next();
+        }
+        if (!affinity || chatId == null) {
+            return leastLoaded();
+        }
+
+        int capacity = (int) Math.ceil(loadFactor * (totalInFlight.get() + 1) / hosts.size());
+        List<String> candidates = ringOrder(hash(chatId));
+        for (int i = 0; i < candidates.size(); i++) {
+            String host = candidates.get(i);
+            if (inFlight.get(host).get() < capacity && !residencyManager.isUnreachable(host)) {
+                count(host, i == 0 ? "home" : "spill");
+                return host;
+            }
+        }
+        // Все заняты или недоступны: для кеша лучше всего по-прежнему свой хост
+        count(candidates.get(0), "home");
+        return candidates.get(0);
+    }
+
+    private List<String> ringOrder(long position) {
+        Set<String> ordered = new LinkedHashSet<>();
+        for (String host : ring.tailMap(position, true).values()) {
+            if (ordered.add(host) && ordered.size() == hosts.size()) {
+                return new ArrayList<>(ordered);
+            }
+        }
+        for (String host : ring.headMap(position, false).values()) {
+            if (ordered.add(host) && ordered.size() == hosts.size()) {
+                break;
+            }
+        }
+        return new ArrayList<>(ordered);
+    }
+
+    private String leastLoaded() {
+        String best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (Map.Entry<String, AtomicInteger> entry : inFlight.entrySet()) {
+            int load = entry.getValue().get();
+            if (load < bestLoad && !residencyManager.isUnreachable(entry.getKey())) {
+                best = entry.getKey();
+                bestLoad = load;
+            }
+        }
+        String host = best != null ? best : hosts.keySet().iterator().next();
+        count(host, "unkeyed");
+        return host;
+    }
+
+    private void release(String host) {
+        inFlight.get(host).decrementAndGet();
+        totalInFlight.decrementAndGet();
+    }
+
+    private void count(String host, String placement) {
+        Counter.builder("ollama.host.requests")
+                .description("LLM requests per Ollama host: home host of the chat, spilled over, or without a chat")
+                .tags("host", host, "placement", placement)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * FNV-1a с финальным перемешиванием, чтобы похожие id ложились далеко друг от друга
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
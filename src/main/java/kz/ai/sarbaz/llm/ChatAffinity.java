@@ -0,0 +1,53 @@
+package kz.ai.sarbaz.llm;
+
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.util.function.Supplier;
+
+/**
+ * Передает id чата запроса к LLM до {@link AffinityChatModel}, который выбирает по нему хост
+ * Ollama. В промпте для него нет места, поэтому стримы несут его в контексте Reactor, а
+ * блокирующие вызовы - в ThreadLocal; декораторы, переносящие вызов в другой поток, передают
+ * его через {@link #current()} и {@link #callWith}.
+ */
+public final class ChatAffinity {
+
+    private static final String CONTEXT_KEY = ChatAffinity.class.getName();
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private ChatAffinity() {
+    }
+
+    /**
+     * Контекст Reactor для {@code contextWrite} на стриминговом ответе
+     */
+    public static Context context(String chatId) {
+        return chatId == null ? Context.empty() : Context.of(CONTEXT_KEY, chatId);
+    }
+
+    /**
+     * Выполнить блокирующий вызов с id чата, установленным для текущего потока
+     */
+    public static <T> T callWith(String chatId, Supplier<T> call) {
+        String previous = CURRENT.get();
+        CURRENT.set(chatId);
+        try {
+            return call.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    public static String current() {
+        return CURRENT.get();
+    }
+
+    static String from(ContextView context) {
+        return context.getOrDefault(CONTEXT_KEY, CURRENT.get());
+    }
+}
@@ -0,0 +1,57 @@
+package kz.ai.sarbaz.llm;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import reactor.core.publisher.Flux;
+
+/**
+ * Декоратор ChatModel, добавляющий подсказку {@code keep_alive} от {@link ModelResidencyManager}
+ * в каждый запрос к Ollama, где она не задана.
+ */
+public class KeepAliveChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final ModelResidencyManager residencyManager;
+
+    public KeepAliveChatModel(ChatModel delegate, ModelResidencyManager residencyManager) {
+        this.delegate = delegate;
+        this.residencyManager = residencyManager;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return delegate.call(withKeepAlive(prompt));
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return delegate.stream(withKeepAlive(prompt));
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    private Prompt withKeepAlive(Prompt prompt) {
+        ChatOptions options = prompt.getOptions();
+        if (options instanceof OllamaOptions ollamaOptions && ollamaOptions.getKeepAlive() != null) {
+            return prompt;
+        }
+
+        String model = options != null && options.getModel() != null ? options.getModel()
+                : delegate.getDefaultOptions() != null ? delegate.getDefaultOptions().getModel() : null;
+        if (model == null) {
+            return prompt;
+        }
+
+        OllamaOptions withKeepAlive = options instanceof OllamaOptions ollamaOptions
+                ? OllamaOptions.fromOptions(ollamaOptions)
+                : OllamaOptions.builder().model(model).build();
+        withKeepAlive.setKeepAlive(residencyManager.keepAliveFor(model));
+        return new Prompt(prompt.getInstructions(), withKeepAlive);
+    }
+}
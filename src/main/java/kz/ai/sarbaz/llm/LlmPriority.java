@@ -0,0 +1,29 @@
+package kz.ai.sarbaz.llm;
+
+/**
+ * Классы приоритета работы с LLM, от высшего к низшему.
+ */
+public enum LlmPriority {
+
+    /**
+     * Пользователь ждет ответа: промпты и стримы чата
+     */
+    INTERACTIVE,
+
+    /**
+     * Фоновая работа, которую пользователь не ждет: названия чатов, сводки
+     */
+    BACKGROUND,
+
+    /**
+     * Пакетные задачи вроде офлайн-оценки; выполняются только на свободной мощности
+     */
+    BATCH;
+
+    /**
+     * Можно ли остановить задачу этого класса и вернуть в очередь, чтобы освободить место интерактивной
+     */
+    public boolean preemptible() {
+        return this != INTERACTIVE;
+    }
+}
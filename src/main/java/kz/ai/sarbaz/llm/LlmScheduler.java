@@ -0,0 +1,300 @@
+package kz.ai.sarbaz.llm;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Допуск работы с LLM по классам приоритета.
+ * <p>
+ * Фиксированное число слотов общее для всех классов. Интерактивные задачи могут занять все слоты;
+ * фоновые и пакетные стартуют, только пока интерактивных нет в очереди и часть слотов остается
+ * свободной для них, поэтому рост интерактивной нагрузки сначала останавливает новую фоновую работу.
+ * Если интерактивной задаче все равно приходится ждать, самая свежая вытесняемая задача, еще не
+ * выдавшая ни одного фрагмента, отменяется и возвращается в начало своей очереди; позже она
+ * выполняется заново. Стримы, которые уже что-то выдали, не вытесняются никогда, иначе подписчик
+ * увидел бы ответ дважды.
+ * <p>
+ * Длина очереди, число выполняющихся задач, время ожидания и вытеснения экспортируются по классам
+ * как метрики {@code scheduler.llm.*}, вне пространства {@code llm.*}, которое /actuator/llm
+ * сводит по модели и исходу.
+ * <p>
+ * Блокирующие вызовы выполняются в собственном пуле планировщика на число слотов, а не в общем
+ * boundedElastic: вызывающие сервисы сами сидят в boundedElastic, и вложенный переход в тот же пул
+ * держал бы два его потока на вызов.
+ */
+@Component
+@Slf4j
+public class LlmScheduler {
+
+    private final int slots;
+    private final int interactiveReserved;
+    private final Map<LlmPriority, ArrayDeque<Job>> queues = new EnumMap<>(LlmPriority.class);
+    private final Map<LlmPriority, AtomicInteger> queued = new EnumMap<>(LlmPriority.class);
+    private final Map<LlmPriority, AtomicInteger> runningByClass = new EnumMap<>(LlmPriority.class);
+    private final Map<LlmPriority, Timer> waitTimers = new EnumMap<>(LlmPriority.class);
+    private final Map<LlmPriority, Counter> preemptions = new EnumMap<>(LlmPriority.class);
+    private final List<Job> running = new ArrayList<>();
+    private final Scheduler blockingCalls;
+
+    public LlmScheduler(MeterRegistry meterRegistry,
+                        @Value("${app.llm.scheduler.slots:8}") int slots,
+                        @Value("${app.llm.scheduler.interactive-reserved:2}") int interactiveReserved) {
+        if (slots < 1 || interactiveReserved < 0 || interactiveReserved >= slots) {
+            throw new IllegalArgumentException("LLM scheduler needs slots >= 1 and 0 <= interactive-reserved < slots");
+        }
+        this.slots = slots;
+        this.interactiveReserved = interactiveReserved;
+        // Слот держит не больше одного потока; вытесненный вызов может еще досчитываться, пока новый ждет в очереди
+        this.blockingCalls = Schedulers.newBoundedElastic(slots, Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "llm-call");
+
+        for (LlmPriority priority : LlmPriority.values()) {
+            String tag = priority.name().toLowerCase();
+            queues.put(priority, new ArrayDeque<>());
+            queued.put(priority, new AtomicInteger());
+            runningByClass.put(priority, new AtomicInteger());
+            Gauge.builder("scheduler.llm.queue.depth", queued.get(priority), AtomicInteger::get)
+                    .description("LLM jobs waiting for a slot")
+                    .tag("class", tag)
+                    .register(meterRegistry);
+            Gauge.builder("scheduler.llm.running", runningByClass.get(priority), AtomicInteger::get)
+                    .description("LLM jobs holding a slot")
+                    .tag("class", tag)
+                    .register(meterRegistry);
+            waitTimers.put(priority, Timer.builder("scheduler.llm.wait")
+                    .description("Time an LLM job waited for a slot")
+                    .tag("class", tag)
+                    .publishPercentileHistogram()
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry));
+            preemptions.put(priority, Counter.builder("scheduler.llm.preemptions")
+                    .description("LLM jobs stopped and requeued to make room for interactive work")
+                    .tag("class", tag)
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Выполнить работу, когда освободится слот для указанного класса. Подписка на работу
+     * происходит только после допуска и повторяется с нуля при вытеснении; отмена возвращенного
+     * Flux убирает задачу из очереди или освобождает слот.
+     */
+    public <T> Flux<T> schedule(LlmPriority priority, Supplier<? extends Publisher<T>> work) {
+        return Flux.defer(() -> {
+            AtomicBoolean requeue = new AtomicBoolean();
+            return Flux.usingWhen(
+                            Mono.defer(() -> acquire(priority, requeue.get())),
+                            job -> Flux.<T>from(work.get())
+                                    .filter(item -> job.markEmitted())
+                                    .takeUntilOther(job.preemption.asMono())
+                                    .concatWith(Mono.defer(() -> job.isPreempted()
+                                            ? Mono.error(new PreemptedException())
+                                            : Mono.empty())),
+                            this::release,
+                            (job, error) -> release(job),
+                            this::release)
+                    .retryWhen(Retry.indefinitely()
+                            .filter(PreemptedException.class::isInstance)
+                            .doBeforeRetry(signal -> requeue.set(true)));
+        });
+    }
+
+    /**
+     * Выполнить блокирующий вызов, когда освободится слот, и дождаться результата. Вызов идет в пуле
+     * планировщика, чтобы вытеснение могло прервать его поток, не трогая поток вызывающего.
+     */
+    public <T> T call(LlmPriority priority, Callable<T> call) {
+        return schedule(priority, () -> Mono.fromCallable(call).subscribeOn(blockingCalls)).blockLast();
+    }
+
+    @PreDestroy
+    void close() {
+        blockingCalls.dispose();
+    }
+
+    private Mono<Job> acquire(LlmPriority priority, boolean requeue) {
+        return Mono.create(sink -> {
+            Job job = new Job(priority, sink);
+            sink.onCancel(() -> cancel(job));
+
+            List<Job> granted;
+            List<Job> preempted = new ArrayList<>();
+            synchronized (this) {
+                if (requeue) {
+                    queues.get(priority).addFirst(job);
+                } else {
+                    queues.get(priority).addLast(job);
+                }
+                queued.get(priority).incrementAndGet();
+                granted = dispatch(preempted);
+            }
+            signal(granted, preempted);
+        });
+    }
+
+    private Mono<Void> release(Job job) {
+        return Mono.fromRunnable(() -> free(job));
+    }
+
+    private void cancel(Job job) {
+        boolean wasQueued;
+        synchronized (this) {
+            wasQueued = queues.get(job.priority).remove(job);
+            if (wasQueued) {
+                queued.get(job.priority).decrementAndGet();
+            }
+        }
+        if (!wasQueued) {
+            // Отменена сразу после допуска, до того как работа заняла слот
+            free(job);
+        }
+    }
+
+    private void free(Job job) {
+        if (!job.released.compareAndSet(false, true)) {
+            return;
+        }
+        List<Job> granted;
+        List<Job> preempted = new ArrayList<>();
+        synchronized (this) {
+            if (running.remove(job)) {
+                runningByClass.get(job.priority).decrementAndGet();
+            }
+            granted = dispatch(preempted);
+        }
+        signal(granted, preempted);
+    }
+
+    /**
+     * Раздать свободные слоты, начиная с высшего класса. Вызывается под блокировкой; выбранным
+     * задачам сигналит вызывающий после ее снятия, потому что допуск запускает работу.
+     */
+    private List<Job> dispatch(List<Job> toPreempt) {
+        List<Job> granted = new ArrayList<>();
+        ArrayDeque<Job> interactive = queues.get(LlmPriority.INTERACTIVE);
+        while (true) {
+            Job next = null;
+            if (!interactive.isEmpty()) {
+                if (running.size() < slots) {
+                    next = interactive.poll();
+                } else {
+                    selectPreemptions(interactive.size(), toPreempt);
+                }
+            } else if (running.size() < slots - interactiveReserved) {
+                next = queues.get(LlmPriority.BACKGROUND).poll();
+                if (next == null) {
+                    next = queues.get(LlmPriority.BATCH).poll();
+                }
+            }
+            if (next == null) {
+                return granted;
+            }
+
+            queued.get(next.priority).decrementAndGet();
+            runningByClass.get(next.priority).incrementAndGet();
+            running.add(next);
+            waitTimers.get(next.priority).record(System.nanoTime() - next.enqueuedNanos, TimeUnit.NANOSECONDS);
+            granted.add(next);
+        }
+    }
+
+    /**
+     * Отметить столько вытесняемых задач, сколько нужно ждущим интерактивным:
+     * сначала низший класс, внутри класса - допущенные последними.
+     */
+    private void selectPreemptions(int waiting, List<Job> toPreempt) {
+        int needed = waiting - (int) running.stream().filter(Job::isPreempted).count();
+        LlmPriority[] priorities = LlmPriority.values();
+        for (int p = priorities.length - 1; p >= 0; p--) {
+            LlmPriority priority = priorities[p];
+            if (!priority.preemptible()) {
+                continue;
+            }
+            for (int i = running.size() - 1; i >= 0 && needed > 0; i--) {
+                Job job = running.get(i);
+                if (job.priority == priority && job.markPreempted()) {
+                    toPreempt.add(job);
+                    needed--;
+                }
+            }
+        }
+    }
+
+    private void signal(List<Job> granted, List<Job> preempted) {
+        for (Job job : preempted) {
+            log.debug("Preempting {} LLM job to make room for interactive work", job.priority);
+            preemptions.get(job.priority).increment();
+            job.preemption.tryEmitEmpty();
+        }
+        for (Job job : granted) {
+            job.sink.success(job);
+        }
+    }
+
+    /**
+     * Одна попытка допуска; вытесненная задача повторяется новой попыткой
+     */
+    private static final class Job {
+        private static final int FRESH = 0;
+        private static final int EMITTED = 1;
+        private static final int PREEMPTED = 2;
+
+        private final LlmPriority priority;
+        private final MonoSink<Job> sink;
+        private final long enqueuedNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+        private final Sinks.Empty<Void> preemption = Sinks.empty();
+        // FRESH, пока не пройдет первый фрагмент или задачу не вытеснят
+        private final AtomicInteger state = new AtomicInteger(FRESH);
+
+        private Job(LlmPriority priority, MonoSink<Job> sink) {
+            this.priority = priority;
+            this.sink = sink;
+        }
+
+        /**
+         * Пропустить фрагмент, если задачу не вытеснили до первого фрагмента
+         */
+        private boolean markEmitted() {
+            return state.compareAndSet(FRESH, EMITTED) || state.get() == EMITTED;
+        }
+
+        private boolean markPreempted() {
+            return state.compareAndSet(FRESH, PREEMPTED);
+        }
+
+        private boolean isPreempted() {
+            return state.get() == PREEMPTED;
+        }
+    }
+
+    private static final class PreemptedException extends RuntimeException {
+        private PreemptedException() {
+            super("Preempted by interactive work", null, false, false);
+        }
+    }
+}
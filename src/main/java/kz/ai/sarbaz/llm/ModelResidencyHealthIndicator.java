@@ -0,0 +1,24 @@
+package kz.ai.sarbaz.llm;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Участник readiness: OUT_OF_SERVICE, пока хотя бы одна модель прогрева не загружена на каком-то
+ * доступном хосте Ollama или пока ни один хост недоступен.
+ * В liveness не входит, поэтому холодная модель никогда не приводит к перезапуску пода.
+ */
+@Component("modelResidency")
+@RequiredArgsConstructor
+public class ModelResidencyHealthIndicator implements HealthIndicator {
+
+    private final ModelResidencyManager residencyManager;
+
+    @Override
+    public Health health() {
+        Health.Builder builder = residencyManager.isReady() ? Health.up() : Health.outOfService();
+        return builder.withDetail("hosts", residencyManager.residency()).build();
+    }
+}
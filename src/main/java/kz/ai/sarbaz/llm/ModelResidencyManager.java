@@ -0,0 +1,263 @@
+package kz.ai.sarbaz.llm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Держит обслуживаемые модели загруженными на хостах Ollama.
+ * <p>
+ * При старте каждая модель прогрева загружается на каждый хост пустым запросом
+ * {@code /api/generate}. Затем загруженность опрашивается через {@code /api/ps}; выгруженная
+ * модель прогрева загружается снова. Запросы несут подсказку {@code keep_alive}: модели прогрева
+ * и модели с недавним трафиком просят Ollama держать их долгий интервал, редкие - короткий, чтобы
+ * они быстрее освобождали память. {@link #isReady()} питает readiness-пробу, поэтому под получает
+ * трафик, только когда его модели горячие на доступных ему хостах.
+ */
+@Component
+@Slf4j
+public class ModelResidencyManager {
+
+    private final List<String> hosts;
+    private final Set<String> warmupModels;
+    private final String hotKeepAlive;
+    private final String coldKeepAlive;
+    private final int hotThreshold;
+    private final long windowMillis;
+    private final RestClient restClient;
+
+    // хост -> модель -> срок выгрузки из /api/ps
+    private final Map<String, Map<String, Instant>> resident = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> reachable = new ConcurrentHashMap<>();
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+    private final Map<String, UsageWindow> usage = new ConcurrentHashMap<>();
+
+    public ModelResidencyManager(
+            @Value("${app.ollama.hosts:${spring.ai.ollama.base-url:http://localhost:11434}}") List<String> hosts,
+            @Value("${app.ollama.warmup.models:}") Set<String> warmupModels,
+            @Value("${app.ollama.warmup.timeout:2m}") Duration warmupTimeout,
+            @Value("${app.ollama.keep-alive.hot:30m}") String hotKeepAlive,
+            @Value("${app.ollama.keep-alive.cold:5m}") String coldKeepAlive,
+            @Value("${app.ollama.keep-alive.hot-threshold:5}") int hotThreshold,
+            @Value("${app.ollama.keep-alive.window:10m}") Duration window) {
+        this.hosts = hosts.stream().map(ModelResidencyManager::normalize).toList();
+        this.warmupModels = warmupModels.stream().map(String::strip).filter(m -> !m.isEmpty())
+                .map(ModelResidencyManager::withTag)
+                .collect(Collectors.toUnmodifiableSet());
+        this.hotKeepAlive = hotKeepAlive;
+        this.coldKeepAlive = coldKeepAlive;
+        this.hotThreshold = hotThreshold;
+        this.windowMillis = window.toMillis();
+
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .build());
+        // Загрузка большой модели с диска может занять время
+        requestFactory.setReadTimeout(warmupTimeout);
+        this.restClient = RestClient.builder().requestFactory(requestFactory).build();
+    }
+
+    public List<String> getHosts() {
+        return hosts;
+    }
+
+    /**
+     * Учесть запрос к модели и вернуть keep_alive для него
+     */
+    public String keepAliveFor(String model) {
+        String tagged = withTag(model);
+        long now = System.currentTimeMillis();
+        int recent = usage.computeIfAbsent(tagged, m -> new UsageWindow()).record(now, windowMillis);
+        return warmupModels.contains(tagged) || recent >= hotThreshold ? hotKeepAlive : coldKeepAlive;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (warmupModels.isEmpty()) {
+            return;
+        }
+        log.info("Warming up models {} on {}", warmupModels, hosts);
+        // Не в потоке старта: readiness-проба тем временем показывает прогресс
+        Mono.fromRunnable(this::refresh)
+                .subscribeOn(Schedulers.boundedElastic())
+                .subscribe();
+    }
+
+    /**
+     * Опросить загруженность на всех хостах и заново загрузить выгруженные модели прогрева
+     */
+    @Scheduled(fixedDelayString = "${app.ollama.residency.poll-interval:30s}",
+            initialDelayString = "${app.ollama.residency.poll-interval:30s}")
+    public void refresh() {
+        for (String host : hosts) {
+            pollResidency(host);
+        }
+
+        Flux.fromIterable(hosts)
+                .flatMap(host -> Flux.fromIterable(warmupModels)
+                        .filter(model -> !isResident(host, model))
+                        .map(model -> host + "|" + model))
+                .filter(loading::add)
+                .flatMap(key -> Mono.fromRunnable(() -> load(key))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .doFinally(signal -> loading.remove(key)), hosts.size())
+                .subscribe();
+    }
+
+    /**
+     * Последний опрос хоста завершился ошибкой; еще не опрошенный хост считается доступным
+     */
+    public boolean isUnreachable(String host) {
+        return Boolean.FALSE.equals(reachable.get(host));
+    }
+
+    public boolean isResident(String host, String model) {
+        Instant expires = resident.getOrDefault(host, Map.of()).get(withTag(model));
+        return expires != null && expires.isAfter(Instant.now());
+    }
+
+    /**
+     * Готов, когда каждая модель прогрева загружена на каждом доступном хосте и доступен хотя бы
+     * один хост. Запросы обходят недоступные хосты, поэтому падение одного из них не выводит
+     * из обслуживания все поды.
+     */
+    public boolean isReady() {
+        boolean anyReachable = false;
+        for (String host : hosts) {
+            if (isUnreachable(host)) {
+                continue;
+            }
+            anyReachable = true;
+            for (String model : warmupModels) {
+                if (!isResident(host, model)) {
+                    return false;
+                }
+            }
+        }
+        return anyReachable;
+    }
+
+    /**
+     * По хостам: доступность, состояние моделей прогрева и все остальные загруженные модели
+     */
+    public Map<String, Object> residency() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (String host : hosts) {
+            Map<String, Object> hostState = new LinkedHashMap<>();
+            hostState.put("reachable", reachable.getOrDefault(host, false));
+            Map<String, String> models = new LinkedHashMap<>();
+            for (String model : warmupModels) {
+                models.put(model, isResident(host, model) ? "warm" : loading.contains(host + "|" + model) ? "loading" : "cold");
+            }
+            resident.getOrDefault(host, Map.of()).keySet().forEach(model -> models.putIfAbsent(model, "warm"));
+            hostState.put("models", models);
+            result.put(host, hostState);
+        }
+        return result;
+    }
+
+    private void pollResidency(String host) {
+        try {
+            JsonNode response = restClient.get().uri(host + "/api/ps").retrieve().body(JsonNode.class);
+            Map<String, Instant> models = new ConcurrentHashMap<>();
+            if (response != null) {
+                for (JsonNode model : response.path("models")) {
+                    models.put(withTag(model.path("name").asText()), expiry(model.path("expires_at").asText()));
+                }
+            }
+            resident.put(host, models);
+            reachable.put(host, true);
+        } catch (Exception e) {
+            log.warn("Ollama host {} is not reachable: {}", host, e.getMessage());
+            resident.remove(host);
+            reachable.put(host, false);
+        }
+    }
+
+    private void load(String key) {
+        int separator = key.indexOf('|');
+        String host = key.substring(0, separator);
+        String model = key.substring(separator + 1);
+        long started = System.nanoTime();
+        try {
+            restClient.post().uri(host + "/api/generate")
+                    .body(Map.of("model", model, "keep_alive", hotKeepAlive))
+                    .retrieve()
+                    .toBodilessEntity();
+            log.info("Loaded model {} on {} in {} ms", model, host, (System.nanoTime() - started) / 1_000_000);
+            pollResidency(host);
+        } catch (Exception e) {
+            log.warn("Failed to load model {} on {}: {}", model, host, e.getMessage());
+        }
+    }
+
+    private static Instant expiry(String expiresAt) {
+        try {
+            return OffsetDateTime.parse(expiresAt).toInstant();
+        } catch (Exception e) {
+            // Неизвестный формат: считаем загруженной до следующего опроса
+            return Instant.MAX;
+        }
+    }
+
+    public static String normalize(String host) {
+        String trimmed = host.strip();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+
+    /**
+     * Имя модели с тегом: Ollama понимает {@code llama3.2} как {@code llama3.2:latest} и так же
+     * отдает его в /api/ps. Двоеточие до последнего '/' - порт реестра, а не тег.
+     */
+    static String withTag(String model) {
+        return model.indexOf(':', model.lastIndexOf('/') + 1) >= 0 ? model : model + ":latest";
+    }
+
+    /**
+     * Запросы по моделям в скользящем окне из минутных интервалов
+     */
+    private static final class UsageWindow {
+        private static final long BUCKET_MILLIS = 60_000;
+
+        private final long[] buckets = new long[60];
+        private final long[] bucketStarts = new long[60];
+
+        synchronized int record(long now, long windowMillis) {
+            long bucketStart = now - now % BUCKET_MILLIS;
+            int slot = (int) ((bucketStart / BUCKET_MILLIS) % buckets.length);
+            if (bucketStarts[slot] != bucketStart) {
+                bucketStarts[slot] = bucketStart;
+                buckets[slot] = 0;
+            }
+            buckets[slot]++;
+
+            long total = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                if (now - bucketStarts[i] < windowMillis) {
+                    total += buckets[i];
+                }
+            }
+            return (int) Math.min(total, Integer.MAX_VALUE);
+        }
+    }
+}
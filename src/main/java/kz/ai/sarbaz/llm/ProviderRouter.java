@@ -0,0 +1,359 @@
+package kz.ai.sarbaz.llm;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Направляет логическую модель на один или несколько маршрутов провайдеров, например
+ * {@code llama3.2:3b=ollama/llama3.2:3b,mistral/open-mistral-7b}.
+ * <p>
+ * Маршруты пробуются по порядку. Стрим переключается на следующий маршрут, если упал или не
+ * дождался первого токена; после выдачи токенов ошибка передается дальше, потому что смена
+ * провайдера посреди ответа повторила бы его. С хеджированием следующий маршрут запускается
+ * параллельно, если текущий не выдал первый токен за p95 времени до первого токена этого
+ * маршрута (или сразу при его ошибке); остается стрим, ответивший первым, второй отменяется.
+ * <p>
+ * Модель без настроенного маршрута идет к провайдеру по умолчанию под своим именем, так что без
+ * настройки роутер просто передает запросы в Ollama. Переключения, хеджи и время до первого
+ * токена экспортируются как {@code router.llm.*} по маршрутам.
+ */
+@Slf4j
+public class ProviderRouter {
+
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private static final int CALL_RUNNING = 0;
+    private static final int CALL_DONE = 1;
+    private static final int CALL_TIMED_OUT = 2;
+
+    private final Map<String, ChatModel> providers;
+    private final String defaultProvider;
+    private final Map<String, List<Route>> routes;
+    private final Settings settings;
+    private final MeterRegistry meterRegistry;
+    private final Map<Route, Timer> firstTokenTimers = new ConcurrentHashMap<>();
+    private final ChatModel chatModel = new RoutingChatModel();
+
+    public ProviderRouter(Map<String, ChatModel> providers, String defaultProvider, String routes,
+                          Settings settings, MeterRegistry meterRegistry) {
+        if (!providers.containsKey(defaultProvider)) {
+            throw new IllegalArgumentException("Unknown default LLM provider: " + defaultProvider);
+        }
+        this.providers = Map.copyOf(providers);
+        this.defaultProvider = defaultProvider;
+        this.routes = parseRoutes(routes);
+        this.settings = settings;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Роутер как ChatModel, для оборачивания декораторами метрик и планировщика
+     */
+    public ChatModel asChatModel() {
+        return chatModel;
+    }
+
+    /**
+     * Имена настроенных провайдеров
+     */
+    public Set<String> getProviders() {
+        return providers.keySet();
+    }
+
+    /**
+     * Маршруты логической модели в порядке переключения
+     */
+    public List<Route> routesFor(String model) {
+        return routes.getOrDefault(model, List.of(new Route(defaultProvider, model)));
+    }
+
+    private Flux<ChatResponse> stream(Prompt prompt) {
+        return streamFrom(routesFor(modelOf(prompt)), 0, prompt);
+    }
+
+    private Flux<ChatResponse> streamFrom(List<Route> candidates, int index, Prompt prompt) {
+        Route primary = candidates.get(index);
+        Flux<ChatResponse> first;
+        int next;
+        if (settings.hedging() && index + 1 < candidates.size()) {
+            first = hedged(primary, candidates.get(index + 1), prompt);
+            next = index + 2;
+        } else {
+            first = attempt(primary, prompt);
+            next = index + 1;
+        }
+
+        AtomicBoolean delivered = new AtomicBoolean();
+        return first
+                .doOnNext(response -> delivered.set(true))
+                .onErrorResume(e -> !delivered.get() && next < candidates.size(), e -> {
+                    log.warn("LLM route {} failed before the first token, failing over to {}: {}",
+                            primary, candidates.get(next), e.getMessage());
+                    counter("router.llm.failovers", primary).increment();
+                    return streamFrom(candidates, next, prompt);
+                });
+    }
+
+    /**
+     * Основной стрим плюс второй на следующем маршруте, запущенный после задержки хеджа
+     * или сразу при ошибке основного; побеждает первый выдавший токен.
+     */
+    private Flux<ChatResponse> hedged(Route primary, Route hedge, Prompt prompt) {
+        Sinks.Empty<Void> primaryFailed = Sinks.empty();
+        Duration delay = hedgeDelay(primary);
+        AtomicBoolean hedgeStarted = new AtomicBoolean();
+
+        Flux<ChatResponse> primaryStream = attempt(primary, prompt)
+                .doOnError(e -> primaryFailed.tryEmitEmpty());
+        Flux<ChatResponse> hedgeStream = Mono.firstWithSignal(Mono.delay(delay).then(), primaryFailed.asMono())
+                .thenMany(Flux.defer(() -> {
+                    hedgeStarted.set(true);
+                    counter("router.llm.hedges", hedge).increment();
+                    return attempt(hedge, prompt);
+                }))
+                .doOnNext(response -> {
+                    if (hedgeStarted.compareAndSet(true, false)) {
+                        counter("router.llm.hedge.wins", hedge).increment();
+                    }
+                });
+
+        return Flux.firstWithValue(primaryStream, hedgeStream);
+    }
+
+    /**
+     * Один стрим на одном маршруте, с ошибкой, если первый токен не пришел вовремя
+     */
+    private Flux<ChatResponse> attempt(Route route, Prompt prompt) {
+        return Flux.defer(() -> {
+            long started = System.nanoTime();
+            AtomicBoolean first = new AtomicBoolean(true);
+            return provider(route).stream(forRoute(route, prompt))
+                    .timeout(Mono.delay(settings.firstTokenTimeout()), response -> Mono.never())
+                    .doOnNext(response -> {
+                        if (first.compareAndSet(true, false)) {
+                            firstTokenTimer(route).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                        }
+                    });
+        });
+    }
+
+    private ChatResponse call(Prompt prompt) {
+        // Id чата читается один раз в потоке вызывающего: переключение идет в onErrorResume
+        // на другом потоке, где ThreadLocal не задан, и попало бы не на хост этого чата
+        String chatId = ChatAffinity.current();
+        List<Route> candidates = routesFor(modelOf(prompt));
+        Mono<ChatResponse> result = callOn(candidates.get(0), prompt, chatId);
+        for (int i = 1; i < candidates.size(); i++) {
+            Route failed = candidates.get(i - 1);
+            Route next = candidates.get(i);
+            result = result.onErrorResume(e -> {
+                log.warn("LLM route {} failed, failing over to {}: {}", failed, next, e.getMessage());
+                counter("router.llm.failovers", failed).increment();
+                return callOn(next, prompt, chatId);
+            });
+        }
+        return result.block();
+    }
+
+    private Mono<ChatResponse> callOn(Route route, Prompt prompt, String chatId) {
+        return Mono.defer(() -> {
+            if (Schedulers.isInNonBlockingThread()) {
+                return Mono.fromCallable(() -> ChatAffinity.callWith(chatId, () -> provider(route).call(forRoute(route, prompt))))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .timeout(settings.callTimeout());
+            }
+            // Вызывающий уже вне event loop (обычно в пуле планировщика): второй переход держал бы
+            // лишний поток на вызов, поэтому вызов идет здесь, а таймаут прерывает этот поток
+            return Mono.fromCallable(() -> ChatAffinity.callWith(chatId, () -> callWithin(route, prompt)));
+        });
+    }
+
+    /**
+     * Вызов в текущем потоке, прерываемый по таймауту вызова; прерывание приходит только пока вызов идет
+     */
+    private ChatResponse callWithin(Route route, Prompt prompt) {
+        Thread caller = Thread.currentThread();
+        AtomicInteger state = new AtomicInteger(CALL_RUNNING);
+        Disposable deadline = Schedulers.parallel().schedule(() -> {
+            if (state.compareAndSet(CALL_RUNNING, CALL_TIMED_OUT)) {
+                caller.interrupt();
+            }
+        }, settings.callTimeout().toMillis(), TimeUnit.MILLISECONDS);
+
+        RuntimeException failure = null;
+        ChatResponse response = null;
+        try {
+            response = provider(route).call(forRoute(route, prompt));
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            deadline.dispose();
+        }
+        if (!state.compareAndSet(CALL_RUNNING, CALL_DONE)) {
+            // Снять свое прерывание, чтобы переключение на следующий маршрут шло в чистом потоке
+            Thread.interrupted();
+            throw Exceptions.propagate(new TimeoutException("LLM route " + route + " did not answer within " + settings.callTimeout()));
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return response;
+    }
+
+    /**
+     * Хедж после p95 времени до первого токена маршрута, но не раньше минимальной задержки
+     */
+    Duration hedgeDelay(Route route) {
+        Timer timer = firstTokenTimer(route);
+        if (timer.count() < MIN_HEDGE_SAMPLES) {
+            return settings.hedgeDefaultDelay();
+        }
+        for (ValueAtPercentile percentile : timer.takeSnapshot().percentileValues()) {
+            if (percentile.percentile() == 0.95) {
+                Duration p95 = Duration.ofNanos((long) percentile.value(TimeUnit.NANOSECONDS));
+                return p95.compareTo(settings.hedgeMinDelay()) > 0 ? p95 : settings.hedgeMinDelay();
+            }
+        }
+        return settings.hedgeDefaultDelay();
+    }
+
+    private ChatModel provider(Route route) {
+        ChatModel provider = providers.get(route.provider());
+        if (provider == null) {
+            throw new IllegalStateException("LLM provider " + route.provider() + " is not configured");
+        }
+        return provider;
+    }
+
+    /**
+     * Тот же промпт с именем модели провайдера; Ollama сохраняет свои опции, остальные получают переносимые
+     */
+    private static Prompt forRoute(Route route, Prompt prompt) {
+        ChatOptions options = prompt.getOptions();
+        if (options instanceof OllamaOptions ollamaOptions) {
+            if (route.model().equals(ollamaOptions.getModel())) {
+                return prompt;
+            }
+            if ("ollama".equals(route.provider())) {
+                OllamaOptions copy = OllamaOptions.fromOptions(ollamaOptions);
+                copy.setModel(route.model());
+                return new Prompt(prompt.getInstructions(), copy);
+            }
+        }
+
+        ChatOptions.Builder builder = ChatOptions.builder().model(route.model());
+        if (options != null) {
+            builder.temperature(options.getTemperature())
+                    .topP(options.getTopP())
+                    .maxTokens(options.getMaxTokens())
+                    .stopSequences(options.getStopSequences());
+        }
+        return new Prompt(prompt.getInstructions(), builder.build());
+    }
+
+    private String modelOf(Prompt prompt) {
+        ChatOptions options = prompt.getOptions();
+        if (options != null && options.getModel() != null) {
+            return options.getModel();
+        }
+        ChatOptions defaults = providers.get(defaultProvider).getDefaultOptions();
+        return defaults != null && defaults.getModel() != null ? defaults.getModel() : "unknown";
+    }
+
+    private Timer firstTokenTimer(Route route) {
+        return firstTokenTimers.computeIfAbsent(route, r -> Timer.builder("router.llm.first.token")
+                .description("Time to first token per provider route, source of the hedge delay")
+                .tags("provider", r.provider(), "model", r.model())
+                .publishPercentiles(0.95)
+                .register(meterRegistry));
+    }
+
+    private Counter counter(String name, Route route) {
+        return Counter.builder(name)
+                .tags("provider", route.provider(), "model", route.model())
+                .register(meterRegistry);
+    }
+
+    /**
+     * "logical=provider/model,provider/model;logical2=..."; имена моделей могут содержать ':' и '/'
+     */
+    static Map<String, List<Route>> parseRoutes(String spec) {
+        Map<String, List<Route>> result = new HashMap<>();
+        if (spec == null || spec.isBlank()) {
+            return result;
+        }
+        for (String entry : spec.split(";")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int equals = entry.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Invalid LLM route, expected model=provider/model,...: " + entry);
+            }
+            List<Route> candidates = new ArrayList<>();
+            for (String target : entry.substring(equals + 1).split(",")) {
+                int slash = target.indexOf('/');
+                if (slash <= 0) {
+                    throw new IllegalArgumentException("Invalid LLM route target, expected provider/model: " + target);
+                }
+                candidates.add(new Route(target.substring(0, slash).strip(), target.substring(slash + 1).strip()));
+            }
+            result.put(entry.substring(0, equals).strip(), List.copyOf(candidates));
+        }
+        return result;
+    }
+
+    public record Route(String provider, String model) {
+        @Override
+        public String toString() {
+            return provider + "/" + model;
+        }
+    }
+
+    public record Settings(Duration firstTokenTimeout, Duration callTimeout, boolean hedging,
+                           Duration hedgeMinDelay, Duration hedgeDefaultDelay) {
+    }
+
+    private final class RoutingChatModel implements ChatModel {
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            return ProviderRouter.this.call(prompt);
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            return ProviderRouter.this.stream(prompt);
+        }
+
+        @Override
+        public ChatOptions getDefaultOptions() {
+            return providers.get(defaultProvider).getDefaultOptions();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package kz.ai.sarbaz.llm;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+/**
+ * Декоратор ChatModel, пропускающий каждый вызов и стрим через {@link LlmScheduler}
+ * с фиксированным классом приоритета, так что каждый бин ChatClient соответствует одному классу работы.
+ */
+public class ScheduledChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final LlmScheduler scheduler;
+    private final LlmPriority priority;
+
+    public ScheduledChatModel(ChatModel delegate, LlmScheduler scheduler, LlmPriority priority) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+        this.priority = priority;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        // Вызов уходит в пул планировщика, поэтому id чата переносится из потока вызывающего
+        String chatId = ChatAffinity.current();
+        return scheduler.call(priority, () -> ChatAffinity.callWith(chatId, () -> delegate.call(prompt)));
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return scheduler.schedule(priority, () -> delegate.stream(prompt));
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+}
@@ -0,0 +1,179 @@
+package kz.ai.sarbaz.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Метрики вызовов LLM: время до первого токена, задержка между токенами,
+ * скорость генерации, общее время и число токенов из usage-метаданных ответа.
+ * Все метрики помечены тегами model и outcome.
+ */
+@Component
+@RequiredArgsConstructor
+public class LlmMetrics {
+
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_ERROR = "error";
+    public static final String OUTCOME_TIMEOUT = "timeout";
+    public static final String OUTCOME_CANCELLED = "cancelled";
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Начать запись потоковой генерации
+     */
+    public StreamRecording startStream(String model) {
+        return new StreamRecording(model, System.nanoTime());
+    }
+
+    /**
+     * Записать блокирующий вызов
+     */
+    public void recordCall(String model, long startedNanos, ChatResponse response, Throwable error) {
+        long duration = System.nanoTime() - startedNanos;
+        String outcome = outcomeOf(error);
+        timer("llm.generation.duration", "Total LLM generation time", model, outcome)
+                .record(duration, TimeUnit.NANOSECONDS);
+
+        if (response != null) {
+            Usage usage = response.getMetadata().getUsage();
+            long completionTokens = recordTokens(model, outcome, usage, 0);
+            recordTokensPerSecond(model, outcome, completionTokens, duration);
+        }
+    }
+
+    public static String outcomeOf(Throwable error) {
+        if (error == null) {
+            return OUTCOME_SUCCESS;
+        }
+        return error instanceof TimeoutException || error.getCause() instanceof TimeoutException
+                ? OUTCOME_TIMEOUT
+                : OUTCOME_ERROR;
+    }
+
+    private long recordTokens(String model, String outcome, Usage usage, long fallbackCompletionTokens) {
+        long promptTokens = usage != null && usage.getPromptTokens() != null ? usage.getPromptTokens() : 0;
+        long completionTokens = usage != null && usage.getCompletionTokens() != null && usage.getCompletionTokens() > 0
+                ? usage.getCompletionTokens()
+                : fallbackCompletionTokens;
+
+        tokens(model, outcome, "prompt").increment(promptTokens);
+        tokens(model, outcome, "completion").increment(completionTokens);
+        DistributionSummary.builder("llm.prompt.tokens")
+                .description("Prompt tokens per request")
+                .tags("model", model, "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(promptTokens);
+        return completionTokens;
+    }
+
+    private void recordTokensPerSecond(String model, String outcome, long completionTokens, long durationNanos) {
+        if (completionTokens > 0 && durationNanos > 0) {
+            DistributionSummary.builder("llm.tokens.per.second")
+                    .description("Completion tokens generated per second")
+                    .tags("model", model, "outcome", outcome)
+                    .publishPercentileHistogram()
+                    .publishPercentiles(0.5, 0.95)
+                    .register(meterRegistry)
+                    .record(completionTokens * 1e9 / durationNanos);
+        }
+    }
+
+    private Counter tokens(String model, String outcome, String type) {
+        return Counter.builder("llm.tokens")
+                .description("Tokens processed by the LLM")
+                .tags("model", model, "outcome", outcome, "type", type)
+                .register(meterRegistry);
+    }
+
+    private Timer timer(String name, String description, String model, String outcome) {
+        return Timer.builder(name)
+                .description(description)
+                .tags("model", model, "outcome", outcome)
+                .publishPercentileHistogram()
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Запись одного потока. Интервалы между токенами копятся в примитивном массиве
+     * и публикуются в конце, когда известен outcome.
+     */
+    public final class StreamRecording {
+        private final String model;
+        private final long startedNanos;
+        private long firstTokenNanos;
+        private long lastTokenNanos;
+        private long[] gaps = new long[256];
+        private int gapCount;
+        private int chunks;
+        private Usage usage;
+        private boolean finished;
+
+        private StreamRecording(String model, long startedNanos) {
+            this.model = model;
+            this.startedNanos = startedNanos;
+        }
+
+        public void onResponse(ChatResponse response) {
+            long now = System.nanoTime();
+            if (chunks == 0) {
+                firstTokenNanos = now;
+            } else {
+                if (gapCount == gaps.length) {
+                    gaps = Arrays.copyOf(gaps, gaps.length * 2);
+                }
+                gaps[gapCount++] = now - lastTokenNanos;
+            }
+            lastTokenNanos = now;
+            chunks++;
+
+            Usage chunkUsage = response.getMetadata().getUsage();
+            if (chunkUsage != null && chunkUsage.getTotalTokens() != null && chunkUsage.getTotalTokens() > 0) {
+                usage = chunkUsage;
+            }
+        }
+
+        /**
+         * Наносекунды с начала запроса до первого токена, 0 если токенов еще не было
+         */
+        public long timeToFirstTokenNanos() {
+            return chunks == 0 ? 0 : firstTokenNanos - startedNanos;
+        }
+
+        public synchronized void finish(String outcome) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+
+            long end = System.nanoTime();
+            timer("llm.generation.duration", "Total LLM generation time", model, outcome)
+                    .record(end - startedNanos, TimeUnit.NANOSECONDS);
+            if (chunks == 0) {
+                return;
+            }
+
+            timer("llm.time.to.first.token", "Time from request to the first streamed token", model, outcome)
+                    .record(firstTokenNanos - startedNanos, TimeUnit.NANOSECONDS);
+            Timer interToken = timer("llm.inter.token.latency", "Latency between streamed tokens", model, outcome);
+            for (int i = 0; i < gapCount; i++) {
+                interToken.record(gaps[i], TimeUnit.NANOSECONDS);
+            }
+
+            long completionTokens = recordTokens(model, outcome, usage, chunks);
+            recordTokensPerSecond(model, outcome, completionTokens, lastTokenNanos - firstTokenNanos);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package kz.ai.sarbaz.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Actuator endpoint /actuator/llm: сводка по метрикам LLM в разрезе model/outcome,
+ * чтобы не собирать ее вручную из /actuator/metrics.
+ */
+@Component
+@Endpoint(id = "llm")
+@RequiredArgsConstructor
+public class LlmMetricsEndpoint {
+
+    private final MeterRegistry meterRegistry;
+
+    @ReadOperation
+    public Map<String, Map<String, Object>> summary() {
+        Map<String, Map<String, Object>> result = new TreeMap<>();
+        for (Meter meter : meterRegistry.getMeters()) {
+            String name = meter.getId().getName();
+            if (!name.startsWith("llm.")) {
+                continue;
+            }
+
+            String key = meter.getId().getTag("model") + "/" + meter.getId().getTag("outcome");
+            Map<String, Object> stats = result.computeIfAbsent(key, k -> new LinkedHashMap<>());
+            if (meter instanceof Timer timer) {
+                stats.put(name, timerStats(timer));
+            } else if (meter instanceof DistributionSummary summary) {
+                stats.put(name, summaryStats(summary.takeSnapshot(), summary.count()));
+            } else if (meter instanceof Counter counter) {
+                stats.put(name + "." + meter.getId().getTag("type"), (long) counter.count());
+            }
+        }
+        return result;
+    }
+
+    private Map<String, Object> timerStats(Timer timer) {
+        HistogramSnapshot snapshot = timer.takeSnapshot();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("count", timer.count());
+        stats.put("meanMs", round(snapshot.mean(TimeUnit.MILLISECONDS)));
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            stats.put(label(percentile) + "Ms", round(percentile.value(TimeUnit.MILLISECONDS)));
+        }
+        stats.put("maxMs", round(snapshot.max(TimeUnit.MILLISECONDS)));
+        return stats;
+    }
+
+    private Map<String, Object> summaryStats(HistogramSnapshot snapshot, long count) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("count", count);
+        stats.put("mean", round(snapshot.mean()));
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            stats.put(label(percentile), round(percentile.value()));
+        }
+        stats.put("max", round(snapshot.max()));
+        return stats;
+    }
+
+    private static String label(ValueAtPercentile percentile) {
+        return "p" + Math.round(percentile.percentile() * 100);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
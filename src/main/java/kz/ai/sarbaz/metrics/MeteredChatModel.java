@@ -0,0 +1,69 @@
+package kz.ai.sarbaz.metrics;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+/**
+ * ChatModel decorator that records {@link LlmMetrics} for every call and stream,
+ * so all ChatClient users are measured the same way.
+ */
+public class MeteredChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final LlmMetrics llmMetrics;
+
+    public MeteredChatModel(ChatModel delegate, LlmMetrics llmMetrics) {
+        this.delegate = delegate;
+        this.llmMetrics = llmMetrics;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        String model = modelOf(prompt);
+        long started = System.nanoTime();
+        try {
+            ChatResponse response = delegate.call(prompt);
+            llmMetrics.recordCall(model, started, response, null);
+            return response;
+        } catch (RuntimeException e) {
+            llmMetrics.recordCall(model, started, null, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        String model = modelOf(prompt);
+        return Flux.defer(() -> {
+            LlmMetrics.StreamRecording recording = llmMetrics.startStream(model);
+            return delegate.stream(prompt)
+                    .doOnNext(recording::onResponse)
+                    .doOnError(e -> recording.finish(LlmMetrics.outcomeOf(e)))
+                    .doFinally(signal -> {
+                        if (signal == SignalType.ON_COMPLETE) {
+                            recording.finish(LlmMetrics.OUTCOME_SUCCESS);
+                        } else if (signal == SignalType.CANCEL) {
+                            recording.finish(LlmMetrics.OUTCOME_CANCELLED);
+                        }
+                    });
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    private String modelOf(Prompt prompt) {
+        ChatOptions options = prompt.getOptions();
+        if (options != null && options.getModel() != null) {
+            return options.getModel();
+        }
+        ChatOptions defaults = delegate.getDefaultOptions();
+        return defaults != null && defaults.getModel() != null ? defaults.getModel() : "unknown";
+    }
+}
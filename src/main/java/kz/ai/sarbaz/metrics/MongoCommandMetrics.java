@@ -0,0 +1,268 @@
+package kz.ai.sarbaz.metrics;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonReader;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.RawBsonDocumentCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Метрики команд MongoDB: гистограммы задержек по коллекции и операции, число
+ * возвращенных документов, время ожидания соединения из пула и сэмплированный
+ * журнал медленных команд с формой запроса (значения заменены на "?").
+ */
+@Component
+@Slf4j
+public class MongoCommandMetrics implements CommandListener, ConnectionPoolListener {
+
+    private static final Set<String> SKIPPED_COMMANDS = Set.of(
+            "hello", "isMaster", "ismaster", "ping", "buildInfo", "saslStart", "saslContinue", "endSessions");
+    private static final Set<String> SHAPE_FIELDS = Set.of(
+            "filter", "sort", "projection", "pipeline", "query", "updates", "deletes", "update");
+    private static final RawBsonDocumentCodec RAW_CODEC = new RawBsonDocumentCodec();
+
+    private final MeterRegistry meterRegistry;
+    private final long slowThresholdNanos;
+    private final double slowLogSampleRate;
+    private final int slowLogSize;
+    private final Map<Integer, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final ArrayDeque<Map<String, Object>> slowCommands = new ArrayDeque<>();
+
+    public MongoCommandMetrics(MeterRegistry meterRegistry,
+                               @Value("${app.mongo.slow-command-threshold:100ms}") Duration slowThreshold,
+                               @Value("${app.mongo.slow-log.sample-rate:1.0}") double slowLogSampleRate,
+                               @Value("${app.mongo.slow-log.size:100}") int slowLogSize) {
+        this.meterRegistry = meterRegistry;
+        this.slowThresholdNanos = slowThreshold.toNanos();
+        this.slowLogSampleRate = slowLogSampleRate;
+        this.slowLogSize = slowLogSize;
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        if (SKIPPED_COMMANDS.contains(event.getCommandName())) {
+            return;
+        }
+        // Документ команды действителен только во время вызова: сохраняем копию байтов без разбора,
+        // а форму строим только для медленных команд
+        BsonDocument command = event.getCommand();
+        inFlight.put(event.getRequestId(), new InFlight(collectionOf(event.getCommandName(), command),
+                hasShape(command) ? rawCopyOf(command) : null));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        InFlight started = inFlight.remove(event.getRequestId());
+        if (started == null) {
+            return;
+        }
+
+        long elapsed = event.getElapsedTime(TimeUnit.NANOSECONDS);
+        long documents = documentsOf(event.getResponse());
+        commandTimer(started.collection(), event.getCommandName(), "success").record(elapsed, TimeUnit.NANOSECONDS);
+        if (documents >= 0) {
+            DistributionSummary.builder("mongodb.command.documents")
+                    .description("Documents returned or affected by a command")
+                    .tags("collection", started.collection(), "command", event.getCommandName())
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(documents);
+        }
+        if (elapsed >= slowThresholdNanos) {
+            logSlow(event.getCommandName(), started, elapsed, documents, null);
+        }
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        InFlight started = inFlight.remove(event.getRequestId());
+        if (started == null) {
+            return;
+        }
+
+        long elapsed = event.getElapsedTime(TimeUnit.NANOSECONDS);
+        commandTimer(started.collection(), event.getCommandName(), "error").record(elapsed, TimeUnit.NANOSECONDS);
+        if (elapsed >= slowThresholdNanos) {
+            logSlow(event.getCommandName(), started, elapsed, -1, event.getThrowable().getMessage());
+        }
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        poolWaitTimer("success").record(event.getElapsedTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        poolWaitTimer(event.getReason().name().toLowerCase(Locale.ROOT))
+                .record(event.getElapsedTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Последние медленные команды, от новых к старым
+     */
+    public List<Map<String, Object>> recentSlowCommands() {
+        synchronized (slowCommands) {
+            List<Map<String, Object>> result = new ArrayList<>(slowCommands);
+            Collections.reverse(result);
+            return result;
+        }
+    }
+
+    private void logSlow(String command, InFlight started, long elapsedNanos, long documents, String error) {
+        if (ThreadLocalRandom.current().nextDouble() >= slowLogSampleRate) {
+            return;
+        }
+
+        double millis = elapsedNanos / 1_000_000.0;
+        String shape = started.command() != null ? shapeOf(started.command()) : "";
+        log.warn("Slow mongo command {} on {} took {} ms, documents={}, shape={}{}",
+                command, started.collection(), String.format("%.1f", millis), documents, shape,
+                error != null ? ", error=" + error : "");
+
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("timestamp", System.currentTimeMillis());
+        entry.put("command", command);
+        entry.put("collection", started.collection());
+        entry.put("durationMs", Math.round(millis * 100) / 100.0);
+        entry.put("documents", documents);
+        entry.put("shape", shape);
+        if (error != null) {
+            entry.put("error", error);
+        }
+        synchronized (slowCommands) {
+            if (slowCommands.size() == slowLogSize) {
+                slowCommands.removeFirst();
+            }
+            slowCommands.addLast(entry);
+        }
+    }
+
+    private Timer commandTimer(String collection, String command, String status) {
+        return Timer.builder("mongodb.command.latency")
+                .description("MongoDB command latency")
+                .tags("collection", collection, "command", command, "status", status)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private Timer poolWaitTimer(String outcome) {
+        return Timer.builder("mongodb.pool.wait")
+                .description("Time spent waiting for a connection from the pool")
+                .tags("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private static String collectionOf(String commandName, BsonDocument command) {
+        BsonValue target = "getMore".equals(commandName) ? command.get("collection") : command.get(commandName);
+        return target != null && target.isString() ? target.asString().getValue() : "none";
+    }
+
+    /**
+     * Число документов из ответа: размер батча курсора или поле n для записи и count
+     */
+    private static long documentsOf(BsonDocument response) {
+        BsonDocument cursor = response.getDocument("cursor", null);
+        if (cursor != null) {
+            BsonArray batch = cursor.containsKey("firstBatch") ? cursor.getArray("firstBatch") : cursor.getArray("nextBatch", null);
+            return batch != null ? batch.size() : -1;
+        }
+        BsonValue n = response.get("n");
+        return n != null && n.isNumber() ? n.asNumber().longValue() : -1;
+    }
+
+    private static boolean hasShape(BsonDocument command) {
+        for (String field : SHAPE_FIELDS) {
+            if (command.containsKey(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Копия команды байт в байт: бинарный reader переливается в writer без разбора значений
+     */
+    private static RawBsonDocument rawCopyOf(BsonDocument command) {
+        try (BsonReader reader = command.asBsonReader()) {
+            return RAW_CODEC.decode(reader, DecoderContext.builder().build());
+        }
+    }
+
+    private static String shapeOf(BsonDocument command) {
+        StringBuilder shape = new StringBuilder();
+        for (String field : SHAPE_FIELDS) {
+            BsonValue value = command.get(field);
+            if (value != null) {
+                if (!shape.isEmpty()) {
+                    shape.append(", ");
+                }
+                shape.append(field).append(": ");
+                appendShape(shape, value, 0);
+            }
+        }
+        return shape.toString();
+    }
+
+    private static void appendShape(StringBuilder shape, BsonValue value, int depth) {
+        if (depth > 6) {
+            shape.append("…");
+        } else if (value.isDocument()) {
+            shape.append('{');
+            boolean first = true;
+            for (Map.Entry<String, BsonValue> entry : value.asDocument().entrySet()) {
+                if (!first) {
+                    shape.append(", ");
+                }
+                first = false;
+                shape.append(entry.getKey()).append(": ");
+                appendShape(shape, entry.getValue(), depth + 1);
+            }
+            shape.append('}');
+        } else if (value.isArray()) {
+            // Массивы значений сворачиваются, массивы документов (pipeline, updates) - по первому элементу
+            BsonArray array = value.asArray();
+            if (!array.isEmpty() && array.get(0).isDocument()) {
+                shape.append('[');
+                appendShape(shape, array.get(0), depth + 1);
+                shape.append(array.size() > 1 ? ", …]" : "]");
+            } else {
+                shape.append("[?]");
+            }
+        } else {
+            shape.append('?');
+        }
+    }
+
+    private record InFlight(String collection, RawBsonDocument command) {
+    }
+}
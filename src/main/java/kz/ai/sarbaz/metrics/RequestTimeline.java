@@ -0,0 +1,107 @@
+package kz.ai.sarbaz.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Легкая хронология одного стримингового запроса. Каждый этап - ячейка {@code long[]}
+ * с наносекундами от начала запроса, поэтому отметка этапа ничего не выделяет, а вся
+ * хронология - один небольшой объект.
+ */
+public final class RequestTimeline {
+
+    public enum Stage {
+        CHAT_LOOKUP,
+        HISTORY_LOAD,
+        USER_MESSAGE_SAVE,
+        PROMPT_BUILD,
+        OLLAMA_CONNECT,
+        FIRST_TOKEN,
+        LAST_TOKEN,
+        ASSISTANT_SAVE
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final String messageId;
+    private final String model;
+    private final long startedAtMillis;
+    private final long startedNanos;
+    private final long[] marks = new long[STAGES.length];
+    private volatile String chatId;
+    private volatile String outcome;
+
+    public RequestTimeline(String messageId, String model) {
+        this.messageId = messageId;
+        this.model = model;
+        this.startedAtMillis = System.currentTimeMillis();
+        this.startedNanos = System.nanoTime();
+    }
+
+    /**
+     * Отметить конец этапа. Сохраняется только первая отметка этапа.
+     */
+    public void mark(Stage stage) {
+        if (marks[stage.ordinal()] == 0) {
+            marks[stage.ordinal()] = Math.max(1, System.nanoTime() - startedNanos);
+        }
+    }
+
+    public void setChatId(String chatId) {
+        this.chatId = chatId;
+    }
+
+    public void setOutcome(String outcome) {
+        this.outcome = outcome;
+    }
+
+    public String getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Миллисекунды от начала запроса до конца этапа, 0, если этап не был достигнут
+     */
+    public long millisAt(Stage stage) {
+        return marks[stage.ordinal()] / 1_000_000;
+    }
+
+    /**
+     * Миллисекунды с начала запроса
+     */
+    public long elapsedMillis() {
+        return (System.nanoTime() - startedNanos) / 1_000_000;
+    }
+
+    /**
+     * Смещения и длительности этапов в миллисекундах, для события с таймингом и админского эндпоинта
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> stages = new LinkedHashMap<>();
+        long previous = 0;
+        for (Stage stage : STAGES) {
+            long mark = marks[stage.ordinal()];
+            if (mark == 0) {
+                continue;
+            }
+            stages.put(stage.name().toLowerCase(), Map.of(
+                    "atMs", millis(mark),
+                    "durationMs", millis(mark - previous)));
+            previous = mark;
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("messageId", messageId);
+        result.put("chatId", chatId);
+        result.put("model", model);
+        result.put("outcome", outcome);
+        result.put("startedAt", startedAtMillis);
+        result.put("totalMs", millis(previous));
+        result.put("stages", stages);
+        return result;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 10_000.0) / 100.0;
+    }
+}
@@ -0,0 +1,54 @@
+package kz.ai.sarbaz.metrics;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Кольцевой буфер последних таймлайнов запросов. Сохраняется только доля запросов
+ * (app.timing.sample-rate), а также все запросы с отладочным заголовком.
+ */
+@Component
+public class TimelineRecorder {
+
+    private final AtomicReferenceArray<RequestTimeline> buffer;
+    private final AtomicLong position = new AtomicLong();
+    private final double sampleRate;
+
+    public TimelineRecorder(@Value("${app.timing.buffer-size:256}") int bufferSize,
+                            @Value("${app.timing.sample-rate:0.05}") double sampleRate) {
+        this.buffer = new AtomicReferenceArray<>(bufferSize);
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Сохранить таймлайн завершенного запроса, если он попал в выборку
+     */
+    public void record(RequestTimeline timeline, boolean force) {
+        if (force || ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            int slot = (int) (position.getAndIncrement() % buffer.length());
+            buffer.set(slot, timeline);
+        }
+    }
+
+    /**
+     * Последние сохраненные таймлайны, от новых к старым
+     */
+    public List<Map<String, Object>> recent(int limit) {
+        long end = position.get();
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (long i = end - 1; i >= 0 && i >= end - buffer.length() && result.size() < limit; i--) {
+            RequestTimeline timeline = buffer.get((int) (i % buffer.length()));
+            if (timeline != null) {
+                result.add(timeline.toMap());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,13 @@
+package kz.ai.sarbaz.repository;
+
+import kz.ai.sarbaz.entity.BatchItem;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface BatchItemRepository extends MongoRepository<BatchItem, String> {
+    List<BatchItem> findByBatchIdAndStatusNotOrderByIndexAsc(String batchId, BatchItem.Status status);
+    long countByBatchIdAndStatus(String batchId, BatchItem.Status status);
+}
@@ -0,0 +1,9 @@
+package kz.ai.sarbaz.repository;
+
+import kz.ai.sarbaz.entity.BatchJob;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface BatchJobRepository extends MongoRepository<BatchJob, String> {
+}
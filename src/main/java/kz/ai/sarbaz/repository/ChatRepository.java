@@ -4,13 +4,20 @@ import kz.ai.sarbaz.entity.Chat;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface ChatRepository extends MongoRepository<Chat, String> {
     List<Chat> findByActiveTrue();
+    // Для списка чатов сводка диалога не нужна, а она может занимать килобайты
+    @Query(value = "{ 'active': true }", fields = "{ 'summary': 0 }")
     Page<Chat> findByActiveTrueOrderByUpdatedAtDesc(Pageable pageable);
+    @Query(value = "{}", fields = "{ 'summary': 0 }")
     Page<Chat> findAllByOrderByUpdatedAtDesc(Pageable pageable);
+    Stream<Chat> findByUpdatedAtAfter(LocalDateTime updatedAt);
 }
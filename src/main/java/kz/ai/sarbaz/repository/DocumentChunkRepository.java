@@ -0,0 +1,23 @@
+package kz.ai.sarbaz.repository;
+
+import kz.ai.sarbaz.entity.DocumentChunk;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface DocumentChunkRepository extends MongoRepository<DocumentChunk, String> {
+    boolean existsByContentHash(String contentHash);
+
+    // Только ссылки на векторы, без текста фрагментов
+    @Query(value = "{ 'contentHash': { $in: ?0 } }", fields = "{ 'contentHash': 1, 'vectorId': 1 }")
+    List<DocumentChunk> findVectorRefsByContentHashIn(Collection<String> contentHashes);
+
+    @Query(value = "{ 'vectorId': { $gte: ?0 } }", fields = "{ 'contentHash': 1 }")
+    List<DocumentChunk> findHashesByVectorIdGreaterThanEqual(int vectorId);
+
+    void deleteByContentHashIn(Collection<String> contentHashes);
+}
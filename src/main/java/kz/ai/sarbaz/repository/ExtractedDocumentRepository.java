@@ -0,0 +1,9 @@
+package kz.ai.sarbaz.repository;
+
+import kz.ai.sarbaz.entity.ExtractedDocument;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ExtractedDocumentRepository extends MongoRepository<ExtractedDocument, String> {
+}
@@ -6,11 +6,15 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface MessageRepository extends MongoRepository<Message, String> {
     Page<Message> findByChatIdOrderByTimestampAsc(String chatId, Pageable pageable);
     List<Message> findByChatIdOrderBySequenceNumberDesc(String chatId, Pageable pageable);
+    List<Message> findByChatIdAndSequenceNumberBetweenOrderBySequenceNumberAsc(String chatId, int after, int before);
     long countByChatId(String chatId);
+    Stream<Message> findByTimestampAfter(LocalDateTime timestamp);
 }
@@ -0,0 +1,9 @@
+package kz.ai.sarbaz.repository;
+
+import kz.ai.sarbaz.entity.RolePreset;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface RolePresetRepository extends MongoRepository<RolePreset, String> {
+}
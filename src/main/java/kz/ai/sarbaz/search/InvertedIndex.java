@@ -0,0 +1,398 @@
+package kz.ai.sarbaz.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Инкрементальный инвертированный индекс в памяти с ранжированием BM25.
+ * <p>
+ * Документы получают плотные монотонно растущие id, поэтому каждый список вхождений
+ * только дописывается и хранится парами (разность id документа, частота термина) в varint
+ * в одном массиве байт. Повторная индексация документа помечает его старый id удаленным
+ * и дописывает новый; помеченные записи убирает {@link #compact()}.
+ * Словарь терминов отсортирован для поиска по префиксу.
+ */
+public class InvertedIndex {
+
+    private static final int MAGIC = 0x53524348; // "SRCH"
+    private static final int VERSION = 1;
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final Map<String, Integer> docsByKey = new HashMap<>();
+    private final Map<String, Set<String>> keysByGroup = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+
+    private String[] docKeys = new String[1024];
+    private String[] docGroups = new String[1024];
+    private int[] docLengths = new int[1024];
+    private int docCount;
+    private int liveDocs;
+    private long totalLength;
+    private long watermark;
+
+    /**
+     * Добавить или заменить документ. Группа возвращается вместе с попаданиями (например, id чата).
+     */
+    public void put(String key, String group, List<String> tokens) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String token : tokens) {
+            frequencies.merge(token, 1, Integer::sum);
+        }
+
+        lock.writeLock().lock();
+        try {
+            removeLocked(key);
+
+            int doc = docCount++;
+            ensureCapacity(docCount);
+            docKeys[doc] = key;
+            docGroups[doc] = group;
+            docLengths[doc] = tokens.size();
+            docsByKey.put(key, doc);
+            keysByGroup.computeIfAbsent(group, g -> new HashSet<>()).add(key);
+            liveDocs++;
+            totalLength += tokens.size();
+
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                terms.computeIfAbsent(entry.getKey(), t -> new Postings()).append(doc, entry.getValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Удалить все документы группы
+     */
+    public void removeGroup(String group) {
+        lock.writeLock().lock();
+        try {
+            Set<String> keys = keysByGroup.remove(group);
+            if (keys != null) {
+                keys.forEach(this::removeLocked);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Поиск BM25. Термины запроса длиной от {@code minPrefixLength} символов совпадают и с
+     * более длинными терминами, которые с них начинаются, не более {@code maxExpansions} на термин.
+     */
+    public List<Hit> search(List<String> queryTerms, int limit, int minPrefixLength, int maxExpansions) {
+        lock.readLock().lock();
+        try {
+            if (liveDocs == 0 || queryTerms.isEmpty()) {
+                return List.of();
+            }
+
+            float averageLength = totalLength / (float) liveDocs;
+            Map<Integer, float[]> scores = new HashMap<>();
+            for (String term : queryTerms) {
+                for (Postings postings : expand(term, minPrefixLength, maxExpansions)) {
+                    float idf = (float) Math.log(1 + (liveDocs - postings.docFrequency + 0.5) / (postings.docFrequency + 0.5));
+                    PostingsReader reader = postings.reader();
+                    while (reader.next()) {
+                        int doc = reader.doc;
+                        if (deleted.get(doc)) {
+                            continue;
+                        }
+                        float tf = reader.frequency;
+                        float norm = K1 * (1 - B + B * docLengths[doc] / averageLength);
+                        scores.computeIfAbsent(doc, d -> new float[1])[0] += idf * tf * (K1 + 1) / (tf + norm);
+                    }
+                }
+            }
+
+            List<Hit> hits = new ArrayList<>(scores.size());
+            scores.forEach((doc, score) -> hits.add(new Hit(docKeys[doc], docGroups[doc], score[0])));
+            hits.sort((a, b) -> Float.compare(b.score(), a.score()));
+            return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveDocs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Момент (epoch millis), до которого исходные данные точно проиндексированы
+     */
+    public long getWatermark() {
+        return watermark;
+    }
+
+    public void setWatermark(long watermark) {
+        lock.writeLock().lock();
+        try {
+            this.watermark = Math.max(this.watermark, watermark);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Переписать вхождения без удаленных документов и перенумеровать оставшиеся
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            int[] remap = new int[docCount];
+            int next = 0;
+            for (int doc = 0; doc < docCount; doc++) {
+                if (deleted.get(doc)) {
+                    remap[doc] = -1;
+                } else {
+                    remap[doc] = next;
+                    docKeys[next] = docKeys[doc];
+                    docGroups[next] = docGroups[doc];
+                    docLengths[next] = docLengths[doc];
+                    docsByKey.put(docKeys[next], next);
+                    next++;
+                }
+            }
+            Arrays.fill(docKeys, next, docCount, null);
+            Arrays.fill(docGroups, next, docCount, null);
+
+            terms.replaceAll((term, postings) -> postings.remap(remap));
+            terms.values().removeIf(postings -> postings.docFrequency == 0);
+            docCount = next;
+            deleted.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Записать сжатый снимок. Файл пишется рядом с целевым и перемещается на его место.
+     */
+    public void save(Path file) throws IOException {
+        compact();
+
+        lock.readLock().lock();
+        try {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(watermark);
+                out.writeInt(docCount);
+                for (int doc = 0; doc < docCount; doc++) {
+                    out.writeUTF(docKeys[doc]);
+                    out.writeUTF(docGroups[doc]);
+                    out.writeInt(docLengths[doc]);
+                }
+                out.writeInt(terms.size());
+                for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+                    Postings postings = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(postings.docFrequency);
+                    out.writeInt(postings.lastDoc);
+                    out.writeInt(postings.length);
+                    out.write(postings.data, 0, postings.length);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static InvertedIndex load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a search index file: " + file);
+            }
+
+            InvertedIndex index = new InvertedIndex();
+            index.watermark = in.readLong();
+            int docs = in.readInt();
+            index.ensureCapacity(docs);
+            for (int doc = 0; doc < docs; doc++) {
+                index.docKeys[doc] = in.readUTF();
+                index.docGroups[doc] = in.readUTF();
+                index.docLengths[doc] = in.readInt();
+                index.docsByKey.put(index.docKeys[doc], doc);
+                index.keysByGroup.computeIfAbsent(index.docGroups[doc], g -> new HashSet<>()).add(index.docKeys[doc]);
+                index.totalLength += index.docLengths[doc];
+            }
+            index.docCount = docs;
+            index.liveDocs = docs;
+
+            int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++) {
+                String term = in.readUTF();
+                Postings postings = new Postings();
+                postings.docFrequency = in.readInt();
+                postings.lastDoc = in.readInt();
+                postings.length = in.readInt();
+                postings.data = new byte[Math.max(16, postings.length)];
+                in.readFully(postings.data, 0, postings.length);
+                index.terms.put(term, postings);
+            }
+            return index;
+        }
+    }
+
+    private List<Postings> expand(String term, int minPrefixLength, int maxExpansions) {
+        if (term.length() < minPrefixLength) {
+            Postings exact = terms.get(term);
+            return exact == null ? List.of() : List.of(exact);
+        }
+
+        List<Postings> expanded = new ArrayList<>();
+        NavigableMap<String, Postings> tail = terms.tailMap(term, true);
+        for (Map.Entry<String, Postings> entry : tail.entrySet()) {
+            if (!entry.getKey().startsWith(term) || expanded.size() >= maxExpansions) {
+                break;
+            }
+            expanded.add(entry.getValue());
+        }
+        return expanded;
+    }
+
+    private void removeLocked(String key) {
+        Integer doc = docsByKey.remove(key);
+        if (doc != null && !deleted.get(doc)) {
+            deleted.set(doc);
+            liveDocs--;
+            totalLength -= docLengths[doc];
+            Set<String> keys = keysByGroup.get(docGroups[doc]);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByGroup.remove(docGroups[doc]);
+                }
+            }
+        }
+    }
+
+    private void ensureCapacity(int docs) {
+        if (docs > docKeys.length) {
+            int capacity = Math.max(docKeys.length * 2, docs);
+            docKeys = Arrays.copyOf(docKeys, capacity);
+            docGroups = Arrays.copyOf(docGroups, capacity);
+            docLengths = Arrays.copyOf(docLengths, capacity);
+        }
+    }
+
+    /**
+     * Попадание поиска: ключ документа, его группа и оценка BM25
+     */
+    public record Hit(String key, String group, float score) {
+    }
+
+    /**
+     * Список вхождений, который только дописывается: пары varint(разность id документа), varint(частота термина)
+     */
+    private static final class Postings {
+        private byte[] data = new byte[16];
+        private int length;
+        private int lastDoc = -1;
+        private int docFrequency;
+
+        void append(int doc, int frequency) {
+            ensure(10);
+            writeVarInt(lastDoc < 0 ? doc : doc - lastDoc);
+            writeVarInt(frequency);
+            lastDoc = doc;
+            docFrequency++;
+        }
+
+        Postings remap(int[] remap) {
+            Postings compacted = new Postings();
+            PostingsReader reader = reader();
+            while (reader.next()) {
+                int doc = remap[reader.doc];
+                if (doc >= 0) {
+                    compacted.append(doc, reader.frequency);
+                }
+            }
+            return compacted;
+        }
+
+        PostingsReader reader() {
+            return new PostingsReader(data, length);
+        }
+
+        private void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+            }
+        }
+    }
+
+    private static final class PostingsReader {
+        private final byte[] data;
+        private final int length;
+        private int position;
+        private boolean started;
+        int doc;
+        int frequency;
+
+        PostingsReader(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+        boolean next() {
+            if (position >= length) {
+                return false;
+            }
+            int delta = readVarInt();
+            doc = started ? doc + delta : delta;
+            started = true;
+            frequency = readVarInt();
+            return true;
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package kz.ai.sarbaz.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Токенизатор смешанного текста на русском, казахском и английском.
+ * <p>
+ * Текст нормализуется по NFKC и приводится к нижнему регистру, "ё" заменяется на "е", а токены -
+ * максимальные последовательности букв и цифр, поэтому казахские буквы (ә, ғ, қ, ң, ө, ұ, ү, һ, і)
+ * остаются внутри слов, а не разрывают их. Словоформы сопоставляются при запросе раскрытием
+ * префикса, а не стеммингом: так работают и русские окончания, и цепочки казахских аффиксов.
+ */
+public final class TextTokenizer {
+
+    static final int MAX_TOKEN_LENGTH = 40;
+
+    private TextTokenizer() {
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+
+        String normalized = normalize(text);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                addToken(tokens, normalized, start, i);
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Нормализация и для индексируемого текста, и для фрагментов, чтобы смещения совпадали
+     */
+    public static String normalize(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFKC)
+                .toLowerCase(Locale.ROOT)
+                .replace('ё', 'е');
+    }
+
+    private static void addToken(List<String> tokens, String text, int start, int end) {
+        int length = end - start;
+        if (length < 2 && !Character.isDigit(text.charAt(start))) {
+            return;
+        }
+        tokens.add(text.substring(start, Math.min(end, start + MAX_TOKEN_LENGTH)));
+    }
+}
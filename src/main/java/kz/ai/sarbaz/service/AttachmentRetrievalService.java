@@ -0,0 +1,251 @@
+package kz.ai.sarbaz.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import kz.ai.sarbaz.entity.DocumentChunk;
+import kz.ai.sarbaz.repository.DocumentChunkRepository;
+import kz.ai.sarbaz.vector.HnswIndex;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Поиск релевантных фрагментов вложений (RAG). Документы режутся на фрагменты,
+ * эмбеддинги считаются локальной моделью Ollama и кладутся во внутрипроцессный
+ * HNSW-индекс, который периодически сбрасывается в memory-mapped файл.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class AttachmentRetrievalService {
+
+    private final EmbeddingModel embeddingModel;
+    private final DocumentChunkRepository documentChunkRepository;
+
+    @Qualifier("documentExtractionExecutor")
+    private final ThreadPoolTaskExecutor documentExtractionExecutor;
+
+    @Value("${app.rag.index-path:./data/attachments.hnsw}")
+    private String indexPath;
+
+    @Value("${app.rag.chunk-size:300}")
+    private int chunkSize;
+
+    @Value("${app.rag.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${app.rag.hnsw.ef-construction:100}")
+    private int efConstruction;
+
+    @Value("${app.rag.hnsw.ef-search:64}")
+    private int efSearch;
+
+    // Документы длиннее этого порога не вставляются в промпт целиком, а идут через поиск фрагментов
+    @Value("${app.rag.inline-max-chars:6000}")
+    private int inlineMaxChars;
+
+    // До этого числа кандидатов точный перебор быстрее обхода графа
+    @Value("${app.rag.exact-search-threshold:4096}")
+    private int exactSearchThreshold;
+
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private volatile HnswIndex index;
+    private volatile boolean dirty;
+
+    @PostConstruct
+    void loadIndex() {
+        Path path = Paths.get(indexPath);
+        if (Files.exists(path)) {
+            try {
+                index = HnswIndex.load(path, efConstruction);
+                log.info("Loaded attachment index with {} vectors from {}", index.size(), path);
+            } catch (IOException e) {
+                log.error("Attachment index {} is unreadable, documents will be re-indexed: {}", path, e.getMessage());
+            }
+        }
+
+        // Фрагменты, чьи векторы не успели попасть в файл, индексируются заново
+        int persisted = index == null ? 0 : index.size();
+        Set<String> stale = documentChunkRepository.findHashesByVectorIdGreaterThanEqual(persisted).stream()
+                .map(DocumentChunk::getContentHash)
+                .collect(Collectors.toSet());
+        if (!stale.isEmpty()) {
+            log.warn("Dropping chunks of {} documents missing from the attachment index", stale.size());
+            documentChunkRepository.deleteByContentHashIn(stale);
+        }
+    }
+
+    /**
+     * Слишком ли велик документ, чтобы вставлять его в промпт целиком
+     */
+    public boolean requiresRetrieval(String text) {
+        return text.length() > inlineMaxChars;
+    }
+
+    public int getInlineMaxChars() {
+        return inlineMaxChars;
+    }
+
+    /**
+     * Разбить документ на фрагменты и проиндексировать их в фоне, если это еще не сделано
+     */
+    public CompletableFuture<Boolean> indexAsync(String contentHash, String text) {
+        CompletableFuture<Boolean> future = inFlight.computeIfAbsent(contentHash, hash -> {
+            try {
+                return CompletableFuture.supplyAsync(() -> index(hash, text), documentExtractionExecutor);
+            } catch (TaskRejectedException e) {
+                log.warn("Indexing queue is full, postponing document {}", hash);
+                return CompletableFuture.completedFuture(false);
+            }
+        });
+        future.whenComplete((indexed, e) -> inFlight.remove(contentHash, future));
+        return future;
+    }
+
+    /**
+     * Дождаться индексации документа не дольше timeout
+     */
+    public boolean awaitIndexed(String contentHash, String text, Duration timeout) {
+        if (documentChunkRepository.existsByContentHash(contentHash)) {
+            return true;
+        }
+        try {
+            return indexAsync(contentHash, text).get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            log.warn("Document {} was not indexed in time: {}", contentHash, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Найти top-k фрагментов указанных документов, наиболее близких к запросу
+     */
+    public List<DocumentChunk> retrieve(Collection<String> contentHashes, String query, int topK) {
+        HnswIndex current = index;
+        if (current == null || contentHashes.isEmpty() || query == null || query.isBlank()) {
+            return List.of();
+        }
+
+        List<DocumentChunk> refs = documentChunkRepository.findVectorRefsByContentHashIn(contentHashes);
+        if (refs.isEmpty()) {
+            return List.of();
+        }
+
+        float[] queryVector = embeddingModel.embed(query);
+        List<HnswIndex.Hit> hits;
+        if (refs.size() <= exactSearchThreshold) {
+            int[] nodes = refs.stream().mapToInt(DocumentChunk::getVectorId).toArray();
+            hits = current.exactSearch(queryVector, topK, nodes);
+        } else {
+            Set<Integer> allowed = refs.stream().map(DocumentChunk::getVectorId).collect(Collectors.toSet());
+            hits = current.search(queryVector, topK, efSearch, allowed::contains);
+        }
+
+        Map<Integer, String> chunkIdsByVector = refs.stream()
+                .collect(Collectors.toMap(DocumentChunk::getVectorId, DocumentChunk::getId, (a, b) -> a));
+        List<String> ids = hits.stream().map(hit -> chunkIdsByVector.get(hit.node())).toList();
+        Map<String, DocumentChunk> chunks = new HashMap<>();
+        documentChunkRepository.findAllById(ids).forEach(chunk -> chunks.put(chunk.getId(), chunk));
+
+        List<DocumentChunk> ordered = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            DocumentChunk chunk = chunks.get(id);
+            if (chunk != null) {
+                ordered.add(chunk);
+            }
+        }
+        return ordered;
+    }
+
+    @Scheduled(fixedDelayString = "${app.rag.flush-interval:30s}")
+    public void flush() {
+        HnswIndex current = index;
+        if (!dirty || current == null) {
+            return;
+        }
+        dirty = false;
+        try {
+            current.save(Paths.get(indexPath));
+        } catch (IOException e) {
+            dirty = true;
+            log.error("Failed to persist attachment index: {}", e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        flush();
+    }
+
+    private boolean index(String contentHash, String text) {
+        if (documentChunkRepository.existsByContentHash(contentHash)) {
+            return true;
+        }
+
+        long started = System.nanoTime();
+        List<String> pieces = new TokenTextSplitter(chunkSize, 200, 5, 10_000, true)
+                .apply(List.of(new Document(text))).stream()
+                .map(Document::getText)
+                .toList();
+        if (pieces.isEmpty()) {
+            return false;
+        }
+
+        try {
+            List<float[]> embeddings = embeddingModel.embed(pieces);
+
+            List<DocumentChunk> chunks = new ArrayList<>(pieces.size());
+            synchronized (writeLock) {
+                if (index == null) {
+                    index = new HnswIndex(embeddings.get(0).length, hnswM, efConstruction);
+                }
+                for (int i = 0; i < pieces.size(); i++) {
+                    chunks.add(DocumentChunk.builder()
+                            .id(contentHash + ":" + i)
+                            .contentHash(contentHash)
+                            .chunkIndex(i)
+                            .text(pieces.get(i))
+                            .vectorId(index.add(embeddings.get(i)))
+                            .build());
+                }
+                dirty = true;
+            }
+            documentChunkRepository.saveAll(chunks);
+
+            log.debug("Indexed {} chunks of {} in {} ms", chunks.size(), contentHash,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            return true;
+        } catch (Exception e) {
+            log.error("Error indexing document {}: {}", contentHash, e.getMessage(), e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package kz.ai.sarbaz.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kz.ai.sarbaz.api.dto.BatchItemResultDTO;
+import kz.ai.sarbaz.api.dto.BatchPromptRequest;
+import kz.ai.sarbaz.api.dto.BatchStatusDTO;
+import kz.ai.sarbaz.entity.BatchItem;
+import kz.ai.sarbaz.entity.BatchJob;
+import kz.ai.sarbaz.entity.Chat;
+import kz.ai.sarbaz.entity.Message;
+import kz.ai.sarbaz.repository.BatchItemRepository;
+import kz.ai.sarbaz.repository.BatchJobRepository;
+import kz.ai.sarbaz.storage.MessageStore;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Пакетная обработка промптов. Элементы пакета сохраняются до запуска, выполняются
+ * фоновым клиентом LLM с приоритетом BATCH и ограниченным параллелизмом на модель,
+ * результаты записываются пачками (bulk) и только затем отдаются клиенту. Поэтому
+ * после сбоя или разрыва соединения пакет можно продолжить по batchId: повторно
+ * выполняются только элементы без сохраненного результата.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class BatchPromptService {
+
+    private static final int TITLE_LENGTH = 60;
+
+    @Qualifier("batchChatClient")
+    private final ChatClient batchChatClient;
+    private final BatchJobRepository batchJobRepository;
+    private final BatchItemRepository batchItemRepository;
+    private final MongoTemplate mongoTemplate;
+    private final MessageStore messageStore;
+    private final ChatSearchService chatSearchService;
+    private final RoleRegistry roleRegistry;
+    private final ObjectMapper objectMapper;
+    private final UsageAnalyticsService usageAnalyticsService;
+
+    @Value("${app.batch.max-items:10000}")
+    private int maxItems;
+
+    @Value("${app.batch.parallelism:2}")
+    private int defaultParallelism;
+
+    // Переопределения по моделям: "llama3.2:3b=4,mistral=1"
+    @Value("${app.batch.model-parallelism:}")
+    private String modelParallelism;
+
+    @Value("${app.batch.item-timeout:5m}")
+    private Duration itemTimeout;
+
+    @Value("${app.batch.flush-size:50}")
+    private int flushSize;
+
+    @Value("${app.batch.flush-interval:1s}")
+    private Duration flushInterval;
+
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Прочитать элементы пакета из JSONL: по одному объекту {"id","prompt","model","role"} в строке
+     */
+    public List<BatchPromptRequest.Item> readJsonLines(InputStream input) throws IOException {
+        List<BatchPromptRequest.Item> items = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            if (items.size() == maxItems) {
+                throw new IllegalArgumentException("В пакете больше " + maxItems + " промптов");
+            }
+            try {
+                items.add(objectMapper.readValue(line, BatchPromptRequest.Item.class));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Некорректная строка " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Сохранить новый пакет. Выполнение начинается при подписке на {@link #run(String)}.
+     */
+    public BatchJob create(BatchPromptRequest request) {
+        List<BatchPromptRequest.Item> requestItems = request.getItems();
+        if (requestItems == null || requestItems.isEmpty()) {
+            throw new IllegalArgumentException("Пакет не содержит промптов");
+        }
+        if (requestItems.size() > maxItems) {
+            throw new IllegalArgumentException("В пакете больше " + maxItems + " промптов");
+        }
+
+        BatchJob job = BatchJob.builder()
+                .id(UUID.randomUUID().toString())
+                .model(request.getModel())
+                .role(request.getRole())
+                .persist(request.isPersist())
+                .total(requestItems.size())
+                .createdAt(LocalDateTime.now())
+                .build();
+
+        List<BatchItem> items = new ArrayList<>(requestItems.size());
+        for (int i = 0; i < requestItems.size(); i++) {
+            BatchPromptRequest.Item item = requestItems.get(i);
+            String model = item.getModel() != null ? item.getModel() : request.getModel();
+            if (item.getPrompt() == null || item.getPrompt().isBlank()) {
+                throw new IllegalArgumentException("Пустой промпт в элементе " + i);
+            }
+            if (model == null || model.isBlank()) {
+                throw new IllegalArgumentException("Не указана модель для элемента " + i);
+            }
+            items.add(BatchItem.builder()
+                    .id(job.getId() + ":" + i)
+                    .batchId(job.getId())
+                    .index(i)
+                    .externalId(item.getId())
+                    .model(model)
+                    .role(item.getRole() != null ? item.getRole() : request.getRole())
+                    .prompt(item.getPrompt())
+                    .status(BatchItem.Status.PENDING)
+                    .build());
+        }
+
+        batchJobRepository.save(job);
+        mongoTemplate.insertAll(items);
+        log.info("Created batch {} with {} prompts", job.getId(), items.size());
+        return job;
+    }
+
+    /**
+     * Выполнить еще не завершенные элементы пакета. Результаты приходят по мере готовности
+     * и уже сохраненными; отмена подписки останавливает пакет, его можно продолжить позже.
+     */
+    public Flux<BatchItemResultDTO> run(String batchId) {
+        BatchJob job = batchJobRepository.findById(batchId)
+                .orElseThrow(() -> new IllegalArgumentException("Пакет не найден: " + batchId));
+        return Flux.defer(() -> {
+            if (!running.add(batchId)) {
+                return Flux.error(new IllegalStateException("Пакет уже выполняется: " + batchId));
+            }
+
+            List<BatchItem> remaining = batchItemRepository.findByBatchIdAndStatusNotOrderByIndexAsc(
+                    batchId, BatchItem.Status.DONE);
+            log.info("Running batch {}: {} of {} prompts left", batchId, remaining.size(), job.getTotal());
+
+            Map<String, Integer> parallelism = parseParallelism();
+            return Flux.fromIterable(remaining)
+                    .groupBy(BatchItem::getModel)
+                    .flatMap(byModel -> byModel.flatMap(this::execute,
+                            parallelism.getOrDefault(byModel.key(), defaultParallelism)))
+                    .bufferTimeout(flushSize, flushInterval)
+                    .concatMap(completed -> Mono.fromRunnable(() -> persist(job, completed))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .thenMany(Flux.fromIterable(completed)))
+                    .map(BatchPromptService::toResult)
+                    .doFinally(signal -> running.remove(batchId));
+        });
+    }
+
+    /**
+     * Состояние пакета по сохраненным результатам
+     */
+    public BatchStatusDTO status(String batchId) {
+        BatchJob job = batchJobRepository.findById(batchId)
+                .orElseThrow(() -> new IllegalArgumentException("Пакет не найден: " + batchId));
+        long done = batchItemRepository.countByBatchIdAndStatus(batchId, BatchItem.Status.DONE);
+        long failed = batchItemRepository.countByBatchIdAndStatus(batchId, BatchItem.Status.FAILED);
+
+        return BatchStatusDTO.builder()
+                .batchId(batchId)
+                .model(job.getModel())
+                .persist(Boolean.TRUE.equals(job.getPersist()))
+                .running(running.contains(batchId))
+                .total(job.getTotal())
+                .done(done)
+                .failed(failed)
+                .pending(job.getTotal() - done - failed)
+                .createdAt(job.getCreatedAt())
+                .build();
+    }
+
+    private Mono<BatchItem> execute(BatchItem item) {
+        long started = System.nanoTime();
+        return Mono.fromCallable(() -> {
+                    ChatClient.ChatClientRequestSpec request = batchChatClient.prompt()
+                            .options(OllamaOptions.builder().model(item.getModel()).build())
+                            .user(item.getPrompt());
+                    if (item.getRole() != null && !item.getRole().isBlank()) {
+                        request = request.system(roleRegistry.systemPrompt(item.getRole()));
+                    }
+                    return request.call().chatResponse();
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .timeout(itemTimeout)
+                .map(response -> {
+                    item.setStatus(BatchItem.Status.DONE);
+                    item.setCompletion(response.getResult().getOutput().getText());
+                    item.setUsage(response.getMetadata().getUsage());
+                    item.setError(null);
+                    return item;
+                })
+                .onErrorResume(e -> {
+                    log.warn("Batch {} item {} failed: {}", item.getBatchId(), item.getIndex(), e.getMessage());
+                    item.setStatus(BatchItem.Status.FAILED);
+                    item.setError(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+                    return Mono.just(item);
+                })
+                .doOnNext(completed -> {
+                    completed.setDurationMs((System.nanoTime() - started) / 1_000_000);
+                    completed.setCompletedAt(LocalDateTime.now());
+                });
+    }
+
+    /**
+     * Сохранить пачку результатов: чаты и сообщения (если пакет сохраняется в чаты)
+     * и статусы элементов, каждое - одной bulk-операцией; затем учесть ходы в аналитике
+     */
+    private void persist(BatchJob job, List<BatchItem> completed) {
+        if (Boolean.TRUE.equals(job.getPersist())) {
+            persistChats(completed);
+        }
+
+        BulkOperations items = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BatchItem.class);
+        for (BatchItem item : completed) {
+            items.updateOne(Query.query(Criteria.where("_id").is(item.getId())), new Update()
+                    .set("status", item.getStatus())
+                    .set("completion", item.getCompletion())
+                    .set("error", item.getError())
+                    .set("chatId", item.getChatId())
+                    .set("durationMs", item.getDurationMs())
+                    .set("completedAt", item.getCompletedAt()));
+        }
+        items.execute();
+
+        for (BatchItem item : completed) {
+            boolean failed = item.getStatus() != BatchItem.Status.DONE;
+            // Без стриминга первый токен приходит вместе со всем ответом
+            long latencyMillis = item.getDurationMs() != null ? item.getDurationMs() : 0;
+            usageAnalyticsService.recordTurn(new UsageAnalyticsService.Turn(item.getChatId(), item.getModel(),
+                    item.getUsage(), latencyMillis, failed ? 0 : latencyMillis, item.getChatId() != null ? 2 : 0, failed));
+        }
+    }
+
+    private void persistChats(List<BatchItem> completed) {
+        List<Chat> chats = new ArrayList<>();
+        List<Message> messages = new ArrayList<>();
+        for (BatchItem item : completed) {
+            if (item.getStatus() != BatchItem.Status.DONE || item.getChatId() != null) {
+                continue;
+            }
+
+            LocalDateTime now = item.getCompletedAt();
+            Chat chat = Chat.builder()
+                    .id(UUID.randomUUID().toString())
+                    .title(title(item.getPrompt()))
+                    .createdAt(now)
+                    .updatedAt(now)
+                    .active(true)
+                    .modelName(item.getModel())
+                    .messageCount(2)
+                    .lastMessagePreview(ChatService.preview(item.getCompletion()))
+                    .lastMessageType(Message.MessageType.ASSISTANT)
+                    .build();
+            chats.add(chat);
+            messages.add(message(chat.getId(), Message.MessageType.USER, item.getPrompt(), now, 1));
+            messages.add(message(chat.getId(), Message.MessageType.ASSISTANT, item.getCompletion(), now, 2));
+            item.setChatId(chat.getId());
+        }
+        if (chats.isEmpty()) {
+            return;
+        }
+
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Chat.class).insert(chats).execute();
+        messageStore.saveAll(messages);
+        chats.forEach(chatSearchService::indexChat);
+        messages.forEach(chatSearchService::indexMessage);
+    }
+
+    private Map<String, Integer> parseParallelism() {
+        Map<String, Integer> result = new HashMap<>();
+        for (String entry : modelParallelism.split(",")) {
+            int separator = entry.lastIndexOf('=');
+            if (separator > 0) {
+                result.put(entry.substring(0, separator).strip(), Integer.parseInt(entry.substring(separator + 1).strip()));
+            }
+        }
+        return result;
+    }
+
+    private static Message message(String chatId, Message.MessageType type, String content,
+                                   LocalDateTime timestamp, int sequenceNumber) {
+        return Message.builder()
+                .id(UUID.randomUUID().toString())
+                .chatId(chatId)
+                .type(type)
+                .content(content)
+                .timestamp(timestamp)
+                .sequenceNumber(sequenceNumber)
+                .attachments(new ArrayList<>())
+                .build();
+    }
+
+    private static String title(String prompt) {
+        String title = prompt.strip().replaceAll("\\s+", " ");
+        return title.length() > TITLE_LENGTH ? title.substring(0, TITLE_LENGTH).strip() + "…" : title;
+    }
+
+    private static BatchItemResultDTO toResult(BatchItem item) {
+        return BatchItemResultDTO.builder()
+                .batchId(item.getBatchId())
+                .index(item.getIndex())
+                .id(item.getExternalId())
+                .model(item.getModel())
+                .status(item.getStatus().name())
+                .completion(item.getCompletion())
+                .error(item.getError())
+                .chatId(item.getChatId())
+                .durationMs(item.getDurationMs())
+                .build();
+    }
+}
@@ -0,0 +1,169 @@
+package kz.ai.sarbaz.service;
+
+import kz.ai.sarbaz.entity.Chat;
+import kz.ai.sarbaz.entity.Message;
+import kz.ai.sarbaz.llm.ChatAffinity;
+import kz.ai.sarbaz.metrics.LlmMetrics;
+import kz.ai.sarbaz.metrics.RequestTimeline;
+import kz.ai.sarbaz.streaming.LiveGenerationRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Потоковая генерация ответа, общая для SSE и WebSocket.
+ * Сохраняет сообщение пользователя, собирает промпт, стримит ответ модели событиями
+ * "message" (или одним "error") и сохраняет ответ по завершении. Поток публикуется
+ * в LiveGenerationRegistry, так что другие вкладки чата видят ту же генерацию.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ChatGenerationService {
+
+    public static final String EVENT_MESSAGE = "message";
+    public static final String EVENT_ERROR = "error";
+
+    // Maximum number of previous messages for context
+    private static final int MAX_HISTORY_MESSAGES = 10;
+
+    @Qualifier("ollamaChatClient")
+    private final ChatClient ollamaChatClient;
+    private final ChatService chatService;
+    private final PromptAssembler promptAssembler;
+    private final RoleRegistry roleRegistry;
+    private final LiveGenerationRegistry liveGenerationRegistry;
+    private final UsageAnalyticsService usageAnalyticsService;
+
+    /**
+     * Начать генерацию. Блокирующая часть (чат, история, сохранение сообщения, сборка промпта)
+     * выполняется сразу, обращение к модели - при подписке на events.
+     */
+    public StreamingGeneration streamPrompt(String messageId, String chatId, String model, String role,
+                                            String prompt, List<MultipartFile> attachments,
+                                            RequestTimeline timeline) {
+        // Get or create chat
+        Chat chat = chatService.getOrCreateChat(chatId, model);
+        final String finalChatId = chat.getId();
+        timeline.setChatId(finalChatId);
+        timeline.mark(RequestTimeline.Stage.CHAT_LOOKUP);
+
+        // Pre-rendered system prompt of the role, followed by the summary of earlier turns
+        SystemMessage systemMessage = new SystemMessage(promptAssembler.withSummary(
+                roleRegistry.systemPrompt(role), chat));
+
+        // Create message list for the prompt
+        List<org.springframework.ai.chat.messages.Message> messages = new ArrayList<>();
+        messages.add(systemMessage);
+
+        // Add recent history if chat already exists; earlier turns come in as the summary
+        List<Message> history = chatService.chatExists(chat.getId())
+                ? chatService.getPromptHistory(chat, MAX_HISTORY_MESSAGES)
+                : List.of();
+        timeline.mark(RequestTimeline.Stage.HISTORY_LOAD);
+
+        // Convert history to LLM messages
+        messages.addAll(promptAssembler.toHistoryMessages(history));
+
+        // Set options for model
+        OllamaOptions options = OllamaOptions.builder()
+                .model(model)
+                .build();
+
+        // Save user message; document attachments are queued for background text extraction
+        Message savedUserMessage = chatService.saveUserMessage(finalChatId, prompt, attachments);
+        timeline.mark(RequestTimeline.Stage.USER_MESSAGE_SAVE);
+
+        // Create user message with images as media and extracted document text
+        messages.add(promptAssembler.toCurrentUserMessage(savedUserMessage, history));
+
+        // Create the prompt with options: system message, history and the current message, as in /chats/prompt
+        Prompt promptWithOptions = new Prompt(messages, options);
+        timeline.mark(RequestTimeline.Stage.PROMPT_BUILD);
+
+        // Create a StringBuilder to accumulate the response; Ollama reports token usage on the last chunk
+        StringBuilder responseBuilder = new StringBuilder();
+        AtomicReference<Usage> usage = new AtomicReference<>();
+
+        // Stream the response
+        Flux<ServerSentEvent<String>> events = ollamaChatClient.prompt(promptWithOptions)
+                .stream().chatResponse()
+                // Same chat, same Ollama host: the previous turn's prompt is still in its KV cache
+                .contextWrite(ChatAffinity.context(finalChatId))
+                .doOnSubscribe(subscription -> timeline.mark(RequestTimeline.Stage.OLLAMA_CONNECT))
+                .map(response -> {
+                    timeline.mark(RequestTimeline.Stage.FIRST_TOKEN);
+                    String content = response.getResult().getOutput().getText();
+                    responseBuilder.append(content);
+                    Usage chunkUsage = response.getMetadata().getUsage();
+                    if (chunkUsage != null && chunkUsage.getTotalTokens() != null && chunkUsage.getTotalTokens() > 0) {
+                        usage.set(chunkUsage);
+                    }
+
+                    return ServerSentEvent.<String>builder()
+                            .id(messageId)
+                            .event(EVENT_MESSAGE)
+                            .data(content)
+                            .build();
+                })
+                .timeout(Duration.ofMinutes(5))
+                .doOnComplete(() -> {
+                    timeline.mark(RequestTimeline.Stage.LAST_TOKEN);
+
+                    // When streaming is complete, save the full message
+                    String fullResponse = responseBuilder.toString();
+                    chatService.saveAssistantMessage(finalChatId, fullResponse, usage.get());
+                    timeline.mark(RequestTimeline.Stage.ASSISTANT_SAVE);
+                    usageAnalyticsService.recordTurn(new UsageAnalyticsService.Turn(finalChatId, model, usage.get(),
+                            timeline.millisAt(RequestTimeline.Stage.LAST_TOKEN),
+                            timeline.millisAt(RequestTimeline.Stage.FIRST_TOKEN), 2, false));
+                    timeline.setOutcome(LlmMetrics.OUTCOME_SUCCESS);
+                    log.info("Streaming completed for message: {}", messageId);
+                })
+                .doOnError(e -> {
+                    log.error("Error during streaming response: {}", e.getMessage(), e);
+                    timeline.setOutcome(LlmMetrics.outcomeOf(e));
+
+                    // In case of error, save what we have so far
+                    boolean partial = responseBuilder.length() > 0;
+                    if (partial) {
+                        chatService.saveAssistantMessage(finalChatId, responseBuilder.toString(), usage.get());
+                    }
+                    usageAnalyticsService.recordTurn(new UsageAnalyticsService.Turn(finalChatId, model, usage.get(),
+                            timeline.elapsedMillis(), timeline.millisAt(RequestTimeline.Stage.FIRST_TOKEN),
+                            partial ? 2 : 1, true));
+                })
+                .onErrorResume(e -> Flux.just(errorEvent(messageId, e)));
+
+        // Other tabs of this chat can follow the same upstream stream via /chats/{chatId}/live
+        return new StreamingGeneration(finalChatId, messageId, liveGenerationRegistry.publish(finalChatId, events));
+    }
+
+    public static ServerSentEvent<String> errorEvent(String messageId, Throwable e) {
+        return ServerSentEvent.<String>builder()
+                .id(messageId)
+                .event(EVENT_ERROR)
+                .data("Error: " + e.getMessage())
+                .build();
+    }
+
+    /**
+     * Запущенная генерация: чат, id ответа и поток его событий
+     */
+    public record StreamingGeneration(String chatId, String messageId, Flux<ServerSentEvent<String>> events) {
+    }
+}
@@ -0,0 +1,330 @@
+package kz.ai.sarbaz.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kz.ai.sarbaz.entity.Chat;
+import kz.ai.sarbaz.entity.ColdMessageSegment;
+import kz.ai.sarbaz.entity.Message;
+import kz.ai.sarbaz.repository.ChatRepository;
+import kz.ai.sarbaz.storage.ContentCodec;
+import kz.ai.sarbaz.storage.MessageStore;
+import com.mongodb.client.result.UpdateResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Политика хранения: сообщения чатов, архивированных дольше app.retention.cold-after,
+ * переносятся из горячего хранилища сообщений в сжатые сегменты коллекции cold_messages.
+ * <p>
+ * Чат помечается полем coldAt. При повторном открытии (запрос в чат или чтение истории)
+ * сообщения возвращаются обратно, а отсчет archivedAt начинается заново, чтобы чат не
+ * уехал в холодное хранилище при следующем проходе. Перенос и возврат одного чата
+ * выполняются под одной блокировкой. Запись сообщения идет без нее, поэтому перенос берет
+ * только чаты, не менявшиеся дольше срока, и отменяется, если updatedAt сдвинулся за время
+ * копирования; из горячего хранилища удаляются только скопированные сообщения, а возврат
+ * дописывает недостающие, не трогая горячие. Запись в чат, который уже стал холодным,
+ * сначала возвращает его сообщения (ChatService). Если задан app.retention.purge-after,
+ * холодные чаты старше этого срока удаляются целиком вместе с файлами вложений.
+ */
+@Service
+@Slf4j
+public class ChatRetentionService {
+
+    private static final int CHAT_BATCH_SIZE = 50;
+    private static final int LOCK_STRIPES = 64;
+    private static final TypeReference<List<Message>> MESSAGE_LIST = new TypeReference<>() {};
+
+    private final MongoTemplate mongoTemplate;
+    private final ChatRepository chatRepository;
+    private final MessageStore messageStore;
+    private final ChatSearchService chatSearchService;
+    private final FileCleanupService fileCleanupService;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Duration coldAfter;
+    private final Duration purgeAfter;
+    private final int segmentSize;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public ChatRetentionService(MongoTemplate mongoTemplate, ChatRepository chatRepository, MessageStore messageStore,
+                                ChatSearchService chatSearchService, FileCleanupService fileCleanupService,
+                                ObjectMapper objectMapper,
+                                @Value("${app.retention.enabled:true}") boolean enabled,
+                                @Value("${app.retention.cold-after:30d}") Duration coldAfter,
+                                @Value("${app.retention.purge-after:0}") Duration purgeAfter,
+                                @Value("${app.retention.segment-size:500}") int segmentSize) {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("app.retention.segment-size must be positive, got " + segmentSize);
+        }
+        this.mongoTemplate = mongoTemplate;
+        this.chatRepository = chatRepository;
+        this.messageStore = messageStore;
+        this.chatSearchService = chatSearchService;
+        this.fileCleanupService = fileCleanupService;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.coldAfter = coldAfter;
+        this.purgeAfter = purgeAfter;
+        this.segmentSize = segmentSize;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Очередной проход политики: перенос давно архивированных чатов и, если включено, удаление старых
+     */
+    @Scheduled(fixedDelayString = "${app.retention.interval:1h}", initialDelayString = "${app.retention.interval:1h}")
+    public void apply() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime cutoff = LocalDateTime.now().minus(coldAfter);
+        int moved = 0;
+        String lastChatId = null;
+        List<Chat> candidates;
+        do {
+            // Чаты, архивированные до появления archivedAt, отсчитываются от updatedAt; чат,
+            // в который недавно писали, не переносится, даже если архивирован давно.
+            // Проход идет по id, поэтому пропущенный чат не выбирается повторно
+            Criteria archivedLongAgo = Criteria.where("active").is(false)
+                    .and("coldAt").exists(false)
+                    .and("updatedAt").lt(cutoff)
+                    .orOperator(
+                            Criteria.where("archivedAt").lt(cutoff),
+                            Criteria.where("archivedAt").exists(false).and("updatedAt").lt(cutoff));
+            if (lastChatId != null) {
+                archivedLongAgo.and("_id").gt(lastChatId);
+            }
+            Query query = Query.query(archivedLongAgo)
+                    .with(Sort.by("_id"))
+                    .limit(CHAT_BATCH_SIZE);
+            query.fields().include("_id");
+            candidates = mongoTemplate.find(query, Chat.class);
+            for (Chat chat : candidates) {
+                lastChatId = chat.getId();
+                try {
+                    if (moveToCold(chat.getId(), cutoff)) {
+                        moved++;
+                    }
+                } catch (RuntimeException e) {
+                    log.error("Failed to move chat {} to cold storage: {}", chat.getId(), e.getMessage(), e);
+                    return;
+                }
+            }
+        } while (candidates.size() == CHAT_BATCH_SIZE);
+        if (moved > 0) {
+            log.info("Moved {} archived chats to cold storage", moved);
+        }
+
+        if (!purgeAfter.isZero()) {
+            purgeOlderThan(LocalDateTime.now().minus(purgeAfter));
+        }
+    }
+
+    /**
+     * Вернуть сообщения холодного чата в горячее хранилище
+     *
+     * @return актуальный чат
+     */
+    public Chat rehydrate(Chat chat) {
+        if (chat.getColdAt() == null) {
+            return chat;
+        }
+        synchronized (lockFor(chat.getId())) {
+            Chat current = chatRepository.findById(chat.getId()).orElse(null);
+            if (current == null || current.getColdAt() == null) {
+                return current != null ? current : chat;
+            }
+
+            List<Message> messages = readCold(current.getId());
+            // В горячем хранилище могут остаться копии после прерванного переноса и сообщения,
+            // записанные во время него: они сохраняются, из сегментов дописываются недостающие
+            Set<String> hot = messageStore.findAll(current.getId()).stream()
+                    .map(Message::getId)
+                    .collect(Collectors.toSet());
+            messageStore.saveAll(messages.stream()
+                    .filter(message -> !hot.contains(message.getId()))
+                    .toList());
+            LocalDateTime now = LocalDateTime.now();
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(current.getId())),
+                    new Update().unset("coldAt").set("archivedAt", now), Chat.class);
+            removeSegments(current.getId());
+            log.info("Rehydrated chat {} with {} messages", current.getId(), messages.size());
+
+            current.setColdAt(null);
+            current.setArchivedAt(now);
+            return current;
+        }
+    }
+
+    /**
+     * Вернуть сообщения, если чат холодный; для путей, которые не читали чат
+     *
+     * @return true, если сообщения были возвращены
+     */
+    public boolean rehydrateIfCold(String chatId) {
+        Query query = Query.query(Criteria.where("_id").is(chatId).and("coldAt").exists(true));
+        query.fields().include("_id").include("coldAt");
+        Chat chat = mongoTemplate.findOne(query, Chat.class);
+        if (chat == null) {
+            return false;
+        }
+        rehydrate(chat);
+        return true;
+    }
+
+    /**
+     * Сообщения холодного чата без возврата в горячее хранилище, для экспорта
+     */
+    public List<Message> readCold(String chatId) {
+        Query query = Query.query(Criteria.where("chatId").is(chatId)).with(Sort.by("segment"));
+        List<Message> messages = new ArrayList<>();
+        for (ColdMessageSegment segment : mongoTemplate.find(query, ColdMessageSegment.class)) {
+            messages.addAll(decode(segment));
+        }
+        return messages;
+    }
+
+    /**
+     * Все холодные сообщения по сегментам. Поток нужно закрыть.
+     */
+    public Stream<Message> streamCold() {
+        Query query = new Query().with(Sort.by("chatId", "segment"));
+        return mongoTemplate.stream(query, ColdMessageSegment.class)
+                .flatMap(segment -> decode(segment).stream());
+    }
+
+    /**
+     * Ссылки на файлы вложений холодных сообщений чата
+     */
+    public List<String> coldAttachmentRefs(String chatId) {
+        List<String> fileRefs = new ArrayList<>();
+        for (Message message : readCold(chatId)) {
+            if (message.getAttachments() != null) {
+                message.getAttachments().stream()
+                        .map(Message.MediaAttachment::getDataRef)
+                        .filter(Objects::nonNull)
+                        .forEach(fileRefs::add);
+            }
+        }
+        return fileRefs;
+    }
+
+    /**
+     * Удалить холодные сегменты чата. Файлы вложений нужно поставить в очередь заранее,
+     * через {@link #coldAttachmentRefs}
+     */
+    public void dropCold(String chatId) {
+        removeSegments(chatId);
+    }
+
+    private boolean moveToCold(String chatId, LocalDateTime cutoff) {
+        synchronized (lockFor(chatId)) {
+            List<Message> messages = messageStore.findAll(chatId);
+            removeSegments(chatId);
+            writeSegments(chatId, messages);
+
+            // Чат могли открыть заново или дописать, пока сообщения копировались: каждая запись
+            // сдвигает updatedAt. Запись, начатая после установки coldAt, сама вернет сообщения
+            Query stillArchived = Query.query(Criteria.where("_id").is(chatId)
+                    .and("active").is(false)
+                    .and("coldAt").exists(false)
+                    .and("updatedAt").lt(cutoff));
+            UpdateResult result = mongoTemplate.updateFirst(stillArchived,
+                    new Update().set("coldAt", LocalDateTime.now()), Chat.class);
+            if (result.getMatchedCount() == 0) {
+                removeSegments(chatId);
+                return false;
+            }
+            // Только скопированное: сообщение, сохраненное после чтения, остается в горячем хранилище
+            messageStore.deleteMessages(chatId, messages);
+            return true;
+        }
+    }
+
+    private void purgeOlderThan(LocalDateTime cutoff) {
+        Query query = Query.query(Criteria.where("coldAt").exists(true).and("archivedAt").lt(cutoff));
+        query.fields().include("_id");
+        int purged = 0;
+        for (Chat chat : mongoTemplate.find(query, Chat.class)) {
+            synchronized (lockFor(chat.getId())) {
+                // Файлы ставятся в очередь до удаления, иначе сбой между шагами оставил бы их навсегда.
+                // Горячие остатки прерванного переноса удаляются вместе с сегментами
+                List<String> fileRefs = new ArrayList<>(messageStore.findAttachmentRefs(chat.getId()));
+                fileRefs.addAll(coldAttachmentRefs(chat.getId()));
+                fileCleanupService.enqueue(chat.getId(), fileRefs);
+                chatRepository.deleteById(chat.getId());
+                chatSearchService.removeChat(chat.getId());
+                messageStore.deleteChat(chat.getId());
+                dropCold(chat.getId());
+                purged++;
+            }
+        }
+        if (purged > 0) {
+            log.info("Purged {} cold chats archived before {}", purged, cutoff);
+        }
+    }
+
+    private void writeSegments(String chatId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ColdMessageSegment.class);
+        for (int from = 0, segment = 0; from < messages.size(); from += segmentSize, segment++) {
+            List<Message> part = messages.subList(from, Math.min(messages.size(), from + segmentSize));
+            operations.insert(ColdMessageSegment.builder()
+                    .id(chatId + ":" + segment)
+                    .chatId(chatId)
+                    .segment(segment)
+                    .count(part.size())
+                    .data(encode(part))
+                    .createdAt(now)
+                    .build());
+        }
+        operations.execute();
+    }
+
+    private void removeSegments(String chatId) {
+        mongoTemplate.remove(Query.query(Criteria.where("chatId").is(chatId)), ColdMessageSegment.class);
+    }
+
+    private byte[] encode(List<Message> messages) {
+        try {
+            return ContentCodec.compress(objectMapper.writeValueAsString(messages));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Не удалось сериализовать сообщения для холодного хранения", e);
+        }
+    }
+
+    private List<Message> decode(ColdMessageSegment segment) {
+        try {
+            return objectMapper.readValue(ContentCodec.decompress(segment.getData()), MESSAGE_LIST);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Поврежден холодный сегмент " + segment.getId(), e);
+        }
+    }
+
+    private Object lockFor(String chatId) {
+        return locks[Math.floorMod(chatId.hashCode(), LOCK_STRIPES)];
+    }
+}
@@ -0,0 +1,227 @@
+package kz.ai.sarbaz.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import kz.ai.sarbaz.api.dto.ChatSearchResultDTO;
+import kz.ai.sarbaz.entity.Chat;
+import kz.ai.sarbaz.entity.Message;
+import kz.ai.sarbaz.repository.ChatRepository;
+import kz.ai.sarbaz.search.InvertedIndex;
+import kz.ai.sarbaz.search.TextTokenizer;
+import kz.ai.sarbaz.storage.MessageStore;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Полнотекстовый поиск по названиям чатов и сообщениям.
+ * Индекс обновляется при каждом сохранении в ChatService, периодически сохраняется
+ * на диск и после рестарта догружает только изменения после последнего снимка.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ChatSearchService {
+
+    private static final String TITLE_PREFIX = "title:";
+
+    private final ChatRepository chatRepository;
+    private final MessageStore messageStore;
+
+    @Value("${app.search.index-path:./data/search.idx}")
+    private String indexPath;
+
+    @Value("${app.search.min-prefix-length:3}")
+    private int minPrefixLength;
+
+    @Value("${app.search.max-prefix-expansions:64}")
+    private int maxPrefixExpansions;
+
+    @Value("${app.search.snippet-length:160}")
+    private int snippetLength;
+
+    private volatile InvertedIndex index = new InvertedIndex();
+    private volatile boolean dirty;
+
+    @PostConstruct
+    void loadIndex() {
+        Path path = Paths.get(indexPath);
+        if (Files.exists(path)) {
+            try {
+                index = InvertedIndex.load(path);
+                log.info("Loaded search index with {} documents from {}", index.size(), path);
+            } catch (IOException e) {
+                log.error("Search index {} is unreadable, rebuilding: {}", path, e.getMessage());
+                index = new InvertedIndex();
+            }
+        }
+
+        // Догружаем изменения, сделанные после снимка (с запасом на рассинхрон часов)
+        LocalDateTime since = toLocalDateTime(index.getWatermark()).minusMinutes(1);
+        long started = System.currentTimeMillis();
+        int indexed = 0;
+        try (Stream<Chat> chats = chatRepository.findByUpdatedAtAfter(since)) {
+            for (Chat chat : (Iterable<Chat>) chats::iterator) {
+                indexChat(chat);
+                indexed++;
+            }
+        }
+        try (Stream<Message> messages = messageStore.streamSince(since)) {
+            for (Message message : (Iterable<Message>) messages::iterator) {
+                indexMessage(message);
+                indexed++;
+            }
+        }
+        log.info("Search index caught up with {} documents in {} ms", indexed, System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Проиндексировать название чата
+     */
+    public void indexChat(Chat chat) {
+        index.put(TITLE_PREFIX + chat.getId(), chat.getId(), TextTokenizer.tokenize(chat.getTitle()));
+        advanceWatermark(chat.getUpdatedAt());
+    }
+
+    /**
+     * Проиндексировать сообщение
+     */
+    public void indexMessage(Message message) {
+        index.put(message.getId(), message.getChatId(), TextTokenizer.tokenize(message.getContent()));
+        advanceWatermark(message.getTimestamp());
+    }
+
+    /**
+     * Удалить из индекса чат и все его сообщения
+     */
+    public void removeChat(String chatId) {
+        index.removeGroup(chatId);
+        dirty = true;
+    }
+
+    /**
+     * Найти чаты по запросу. Результаты ранжированы по BM25, по одному лучшему совпадению на чат.
+     */
+    public List<ChatSearchResultDTO> search(String query, int limit, boolean activeOnly) {
+        List<String> terms = TextTokenizer.tokenize(query);
+        if (terms.isEmpty()) {
+            return List.of();
+        }
+
+        // Берем с запасом: несколько совпадений могут относиться к одному чату
+        Map<String, InvertedIndex.Hit> bestByChat = new LinkedHashMap<>();
+        for (InvertedIndex.Hit hit : index.search(terms, limit * 5, minPrefixLength, maxPrefixExpansions)) {
+            bestByChat.putIfAbsent(hit.group(), hit);
+        }
+
+        Map<String, Chat> chats = new HashMap<>();
+        chatRepository.findAllById(bestByChat.keySet()).forEach(chat -> chats.put(chat.getId(), chat));
+
+        List<String> messageIds = bestByChat.values().stream()
+                .map(InvertedIndex.Hit::key)
+                .filter(key -> !key.startsWith(TITLE_PREFIX))
+                .toList();
+        Map<String, Message> messages = new HashMap<>();
+        messageStore.findByIds(messageIds).forEach(message -> messages.put(message.getId(), message));
+
+        List<ChatSearchResultDTO> results = new ArrayList<>();
+        for (InvertedIndex.Hit hit : bestByChat.values()) {
+            Chat chat = chats.get(hit.group());
+            if (chat == null) {
+                // Чат удален, пока индекс был выключен
+                index.removeGroup(hit.group());
+                continue;
+            }
+            if (activeOnly && !Boolean.TRUE.equals(chat.getActive())) {
+                continue;
+            }
+
+            Message message = messages.get(hit.key());
+            results.add(ChatSearchResultDTO.builder()
+                    .chatId(chat.getId())
+                    .title(chat.getTitle())
+                    .messageId(message != null ? message.getId() : null)
+                    .snippet(message != null ? snippet(message.getContent(), terms) : chat.getTitle())
+                    .score(hit.score())
+                    .updatedAt(chat.getUpdatedAt())
+                    .build());
+            if (results.size() >= limit) {
+                break;
+            }
+        }
+        return results;
+    }
+
+    @Scheduled(fixedDelayString = "${app.search.flush-interval:60s}")
+    public void flush() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        try {
+            index.save(Paths.get(indexPath));
+        } catch (IOException e) {
+            dirty = true;
+            log.error("Failed to persist search index: {}", e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        flush();
+    }
+
+    /**
+     * Фрагмент текста вокруг первого найденного термина запроса
+     */
+    private String snippet(String content, List<String> terms) {
+        if (content == null) {
+            return "";
+        }
+
+        String normalized = TextTokenizer.normalize(content);
+        String source = normalized.length() == content.length() ? content : normalized;
+        int position = -1;
+        for (String term : terms) {
+            int found = normalized.indexOf(term);
+            if (found >= 0 && (position < 0 || found < position)) {
+                position = found;
+            }
+        }
+
+        if (source.length() <= snippetLength) {
+            return source;
+        }
+        int start = Math.max(0, Math.max(position, 0) - snippetLength / 3);
+        int end = Math.min(source.length(), start + snippetLength);
+        start = Math.max(0, end - snippetLength);
+        return (start > 0 ? "…" : "") + source.substring(start, end).strip() + (end < source.length() ? "…" : "");
+    }
+
+    private void advanceWatermark(LocalDateTime timestamp) {
+        dirty = true;
+        if (timestamp != null) {
+            index.setWatermark(timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+}
@@ -7,12 +7,20 @@ import kz.ai.sarbaz.entity.Chat;
 import kz.ai.sarbaz.entity.Message;
 import kz.ai.sarbaz.entity.Message.MessageType;
 import kz.ai.sarbaz.repository.ChatRepository;
-import kz.ai.sarbaz.repository.MessageRepository;
+import kz.ai.sarbaz.storage.MessageStore;
+import com.mongodb.client.result.UpdateResult;
 import lombok.RequiredArgsConstructor;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -26,9 +34,31 @@ import java.util.stream.Collectors;
 @Service
 @RequiredArgsConstructor
 public class ChatService {
+
+    /**
+     * Название нового чата, пока его не сгенерирует ChatTitleService или не задаст пользователь
+     */
+    public static final String DEFAULT_TITLE = "Новый чат";
+
+    /**
+     * Длина превью последнего сообщения в списке чатов
+     */
+    public static final int PREVIEW_LENGTH = 120;
+
     private final ChatRepository chatRepository;
-    private final MessageRepository messageRepository;
+    private final MongoTemplate mongoTemplate;
+    private final MessageStore messageStore;
     private final FileStorageService fileStorageService;
+    private final FileCleanupService fileCleanupService;
+    private final DocumentExtractionService documentExtractionService;
+    private final AttachmentRetrievalService attachmentRetrievalService;
+    private final ChatSearchService chatSearchService;
+    private final ChatTitleService chatTitleService;
+    private final ConversationSummaryService conversationSummaryService;
+    private final ChatRetentionService chatRetentionService;
+
+    @Value("${app.history.block-size:4}")
+    private int historyBlockSize;
 
     /**
      * Получить или создать чат по ID
@@ -39,10 +69,10 @@ public class ChatService {
             return createNewChat(modelName);
         }
 
-        // Пытаемся найти существующий чат
+        // Пытаемся найти существующий чат; сообщения холодного чата возвращаются в горячее хранилище
         Optional<Chat> existingChat = chatRepository.findById(chatId);
 
-        return existingChat.orElseGet(() -> createNewChat(modelName));
+        return existingChat.map(chatRetentionService::rehydrate).orElseGet(() -> createNewChat(modelName));
     }
 
     /**
@@ -51,7 +81,7 @@ public class ChatService {
     public Chat createNewChat(String modelName) {
         Chat newChat = Chat.builder()
                 .id(UUID.randomUUID().toString())
-                .title("Новый чат")
+                .title(DEFAULT_TITLE)
                 .createdAt(LocalDateTime.now())
                 .updatedAt(LocalDateTime.now())
                 .active(true)
@@ -59,7 +89,9 @@ public class ChatService {
                 .messageCount(0)
                 .build();
 
-        return chatRepository.save(newChat);
+        Chat savedChat = chatRepository.save(newChat);
+        chatSearchService.indexChat(savedChat);
+        return savedChat;
     }
 
     /**
@@ -67,12 +99,7 @@ public class ChatService {
      */
     public Message saveUserMessage(String chatId, String content, List<MultipartFile> attachments) {
         // Обновляем информацию о чате
-        Optional<Chat> chatOpt = chatRepository.findById(chatId);
-        Chat chat = chatOpt.orElseThrow(() -> new RuntimeException("Чат не найден"));
-
-        chat.setUpdatedAt(LocalDateTime.now());
-        chat.setMessageCount(chat.getMessageCount() + 1);
-        chatRepository.save(chat);
+        Chat chat = appendToChat(chatId, MessageType.USER, content, null);
 
         // Создаем сообщение
         Message message = Message.builder()
@@ -91,33 +118,49 @@ public class ChatService {
 
             for (MultipartFile file : attachments) {
                 String fileRef = fileStorageService.storeFile(file);
+                String contentHash = fileStorageService.computeContentHash(file);
 
                 Message.MediaAttachment attachment = Message.MediaAttachment.builder()
                         .filename(file.getOriginalFilename())
                         .contentType(file.getContentType())
                         .dataRef(fileRef)
+                        .contentHash(contentHash)
                         .build();
 
                 mediaAttachments.add(attachment);
+
+                // Текст документа извлекается в фоне и кешируется по хешу содержимого
+                // Крупные документы затем режутся на фрагменты и попадают в векторный индекс
+                if (DocumentExtractionService.isExtractable(file.getContentType())) {
+                    documentExtractionService.extractAsync(contentHash, fileRef,
+                                    file.getOriginalFilename(), file.getContentType())
+                            .thenAccept(text -> text
+                                    .filter(attachmentRetrievalService::requiresRetrieval)
+                                    .ifPresent(t -> attachmentRetrievalService.indexAsync(contentHash, t)));
+                }
             }
 
             message.setAttachments(mediaAttachments);
         }
 
-        return messageRepository.save(message);
+        Message savedMessage = messageStore.save(message);
+        chatSearchService.indexMessage(savedMessage);
+        return savedMessage;
     }
 
     /**
      * Сохранить ответ ассистента
      */
     public Message saveAssistantMessage(String chatId, String content) {
-        // Обновляем информацию о чате
-        Optional<Chat> chatOpt = chatRepository.findById(chatId);
-        Chat chat = chatOpt.orElseThrow(() -> new RuntimeException("Чат не найден"));
+        return saveAssistantMessage(chatId, content, null);
+    }
 
-        chat.setUpdatedAt(LocalDateTime.now());
-        chat.setMessageCount(chat.getMessageCount() + 1);
-        chatRepository.save(chat);
+    /**
+     * Сохранить ответ ассистента и добавить токены запроса к счетчикам чата
+     */
+    public Message saveAssistantMessage(String chatId, String content, Usage usage) {
+        // Обновляем информацию о чате
+        Chat chat = appendToChat(chatId, MessageType.ASSISTANT, content, usage);
 
         // Создаем сообщение
         Message message = Message.builder()
@@ -130,7 +173,57 @@ public class ChatService {
                 .attachments(new ArrayList<>())
                 .build();
 
-        return messageRepository.save(message);
+        Message savedMessage = messageStore.save(message);
+        chatSearchService.indexMessage(savedMessage);
+
+        // Название по первому обмену сообщениями и сводка длинного диалога генерируются в фоне
+        chatTitleService.requestTitle(chat);
+        conversationSummaryService.requestCompaction(chat);
+        return savedMessage;
+    }
+
+    /**
+     * Атомарно учесть новое сообщение в чате: номер, время, превью, тип и токены одним findAndModify.
+     * Параллельные ходы не теряют обновления друг друга и получают разные sequenceNumber.
+     * Сдвиг updatedAt не дает ChatRetentionService перенести чат, пока сообщение записывается.
+     */
+    private Chat appendToChat(String chatId, MessageType type, String content, Usage usage) {
+        Update update = new Update()
+                .inc("messageCount", 1)
+                .set("updatedAt", LocalDateTime.now())
+                .set("lastMessagePreview", preview(content))
+                .set("lastMessageType", type);
+        if (usage != null) {
+            if (usage.getPromptTokens() != null) {
+                update.inc("promptTokens", usage.getPromptTokens().longValue());
+            }
+            if (usage.getCompletionTokens() != null) {
+                update.inc("completionTokens", usage.getCompletionTokens().longValue());
+            }
+        }
+
+        Chat chat = mongoTemplate.findAndModify(Query.query(Criteria.where("_id").is(chatId)), update,
+                FindAndModifyOptions.options().returnNew(true), Chat.class);
+        if (chat == null) {
+            throw new RuntimeException("Чат не найден");
+        }
+        // Чат успели перенести в холодное хранилище после его чтения: сообщения возвращаются
+        // до записи нового, иначе оно осталось бы в горячем хранилище без истории
+        if (chat.getColdAt() != null) {
+            chatRetentionService.rehydrate(chat);
+        }
+        return chat;
+    }
+
+    /**
+     * Начало сообщения одной строкой для списка чатов
+     */
+    static String preview(String content) {
+        if (content == null) {
+            return "";
+        }
+        String text = content.strip().replaceAll("\\s+", " ");
+        return text.length() > PREVIEW_LENGTH ? text.substring(0, PREVIEW_LENGTH).strip() + "…" : text;
     }
 
     /**
@@ -138,10 +231,14 @@ public class ChatService {
      */
     public PageResponse<MessageDTO> getChatMessages(String chatId, int page, int size) {
         Pageable pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.ASC, "timestamp"));
-        Page<Message> messagePage = messageRepository.findByChatIdOrderByTimestampAsc(chatId, pageable);
+        Page<Message> messagePage = messageStore.findPage(chatId, pageable);
+        // Пустая история может означать, что сообщения чата в холодном хранилище
+        if (messagePage.getTotalElements() == 0 && chatRetentionService.rehydrateIfCold(chatId)) {
+            messagePage = messageStore.findPage(chatId, pageable);
+        }
 
         List<MessageDTO> messageDTOs = messagePage.getContent().stream()
-                .map(this::convertToMessageDTO)
+                .map(ChatService::convertToMessageDTO)
                 .collect(Collectors.toList());
 
         return PageResponse.<MessageDTO>builder()
@@ -156,10 +253,33 @@ public class ChatService {
     }
 
     /**
-     * Получить последние N сообщений из чата для контекста
+     * История для промпта: сообщения чата после его сводки, не больше limit, в хронологическом порядке.
+     * Начало окна сдвигается блоками по historyBlockSize сообщений, а не на каждом ходе: пока оно
+     * стоит на месте, промпт следующего хода начинается ровно с промпта предыдущего, и Ollama
+     * берет эту часть из KV-кеша вместо повторного разбора.
+     */
+    public List<Message> getPromptHistory(Chat chat, int limit) {
+        int last = chat.getMessageCount() == null ? 0 : chat.getMessageCount();
+        int block = Math.max(1, Math.min(historyBlockSize, limit));
+        int overflow = last - limit;
+        int start = overflow <= 0 ? 0 : (overflow + block - 1) / block * block;
+        if (chat.getSummarizedUpTo() != null) {
+            start = Math.max(start, chat.getSummarizedUpTo());
+        }
+        if (start >= last) {
+            return List.of();
+        }
+
+        List<Message> window = messageStore.findRange(chat.getId(), start + 1, last);
+        // Сообщения без sequenceNumber (старые данные) в диапазон не попадают
+        return window.isEmpty() && chat.getSummarizedUpTo() == null ? getLastMessages(chat.getId(), limit) : window;
+    }
+
+    /**
+     * Получить последние N сообщений из чата для контекста, в хронологическом порядке
      */
     public List<Message> getLastMessages(String chatId, int limit) {
-        return messageRepository.findByChatIdOrderBySequenceNumberDesc(chatId, PageRequest.of(0, limit));
+        return messageStore.findLast(chatId, limit);
     }
 
     /**
@@ -176,7 +296,7 @@ public class ChatService {
         }
 
         List<ChatDTO> chatDTOs = chatPage.getContent().stream()
-                .map(this::convertToChatDTO)
+                .map(ChatService::convertToChatDTO)
                 .collect(Collectors.toList());
 
         return PageResponse.<ChatDTO>builder()
@@ -194,13 +314,15 @@ public class ChatService {
      * Обновить название чата
      */
     public ChatDTO updateChatTitle(String chatId, String title) {
-        Optional<Chat> chatOpt = chatRepository.findById(chatId);
-        Chat chat = chatOpt.orElseThrow(() -> new RuntimeException("Чат не найден"));
-
-        chat.setTitle(title);
-        chat.setUpdatedAt(LocalDateTime.now());
+        // Только нужные поля: сохранение всего документа затерло бы счетчики параллельного хода
+        Chat savedChat = mongoTemplate.findAndModify(Query.query(Criteria.where("_id").is(chatId)),
+                new Update().set("title", title).set("updatedAt", LocalDateTime.now()),
+                FindAndModifyOptions.options().returnNew(true), Chat.class);
+        if (savedChat == null) {
+            throw new RuntimeException("Чат не найден");
+        }
 
-        Chat savedChat = chatRepository.save(chat);
+        chatSearchService.indexChat(savedChat);
         return convertToChatDTO(savedChat);
     }
 
@@ -208,13 +330,12 @@ public class ChatService {
      * Архивировать чат
      */
     public void archiveChat(String chatId) {
-        Optional<Chat> chatOpt = chatRepository.findById(chatId);
-        Chat chat = chatOpt.orElseThrow(() -> new RuntimeException("Чат не найден"));
-
-        chat.setActive(false);
-        chat.setUpdatedAt(LocalDateTime.now());
-
-        chatRepository.save(chat);
+        LocalDateTime now = LocalDateTime.now();
+        UpdateResult result = mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(chatId)),
+                new Update().set("active", false).set("updatedAt", now).set("archivedAt", now), Chat.class);
+        if (result.getMatchedCount() == 0) {
+            throw new RuntimeException("Чат не найден");
+        }
     }
 
     /**
@@ -225,27 +346,24 @@ public class ChatService {
     }
 
     /**
-     * Удалить чат
+     * Удалить чат. Сообщения удаляются одним запросом, без чтения в память;
+     * файлы вложений удаляет FileCleanupService в фоне.
      */
     public void deleteChat(String chatId) {
-        chatRepository.deleteById(chatId);
-        // Удаляем все сообщения чата
-        List<Message> messages = messageRepository.findByChatIdOrderByTimestampAsc(chatId, Pageable.unpaged()).getContent();
-
-        // Удаляем все файлы, связанные с сообщениями
-        for (Message message : messages) {
-            if (message.getAttachments() != null) {
-                for (Message.MediaAttachment attachment : message.getAttachments()) {
-                    fileStorageService.deleteFile(attachment.getDataRef());
-                }
-            }
-        }
+        // Файлы ставятся в очередь до удаления сообщений: если удаление прервется, файлы
+        // все равно будут удалены, а не останутся без ссылок на них. Читается только dataRef
+        List<String> fileRefs = new ArrayList<>(messageStore.findAttachmentRefs(chatId));
+        fileRefs.addAll(chatRetentionService.coldAttachmentRefs(chatId));
+        fileCleanupService.enqueue(chatId, fileRefs);
 
-        messageRepository.deleteAll(messages);
+        chatRepository.deleteById(chatId);
+        chatSearchService.removeChat(chatId);
+        messageStore.deleteChat(chatId);
+        chatRetentionService.dropCold(chatId);
     }
 
     // Конвертеры сущностей в DTO
-    private MessageDTO convertToMessageDTO(Message message) {
+    static MessageDTO convertToMessageDTO(Message message) {
         List<MessageDTO.AttachmentDTO> attachmentDTOs = new ArrayList<>();
 
         if (message.getAttachments() != null) {
@@ -267,7 +385,7 @@ public class ChatService {
                 .build();
     }
 
-    private ChatDTO convertToChatDTO(Chat chat) {
+    static ChatDTO convertToChatDTO(Chat chat) {
         return ChatDTO.builder()
                 .id(chat.getId())
                 .title(chat.getTitle())
@@ -276,6 +394,10 @@ public class ChatService {
                 .active(chat.getActive())
                 .modelName(chat.getModelName())
                 .messageCount(chat.getMessageCount())
+                .lastMessagePreview(chat.getLastMessagePreview())
+                .lastMessageType(chat.getLastMessageType())
+                .promptTokens(chat.getPromptTokens())
+                .completionTokens(chat.getCompletionTokens())
                 .build();
     }
 }
\ No newline at end of file
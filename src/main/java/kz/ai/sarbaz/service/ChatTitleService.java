@@ -0,0 +1,122 @@
+package kz.ai.sarbaz.service;
+
+import kz.ai.sarbaz.entity.Chat;
+import kz.ai.sarbaz.entity.Message;
+import kz.ai.sarbaz.storage.MessageStore;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Автоматические названия чатов. После первого ответа модели название генерируется
+ * фоновым клиентом LLM (приоритет BACKGROUND), поэтому не отнимает слоты у пользователей.
+ * Название записывается, только если пользователь не успел переименовать чат сам.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ChatTitleService {
+
+    private static final int MAX_EXCERPT_LENGTH = 1000;
+    private static final int MAX_TITLE_LENGTH = 80;
+
+    @Qualifier("backgroundChatClient")
+    private final ChatClient backgroundChatClient;
+    private final MessageStore messageStore;
+    private final MongoTemplate mongoTemplate;
+    private final ChatSearchService chatSearchService;
+
+    @Value("${app.titling.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.titling.max-pending:100}")
+    private int maxPending;
+
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Поставить в очередь генерацию названия для чата с названием по умолчанию
+     */
+    public void requestTitle(Chat chat) {
+        if (!enabled || !ChatService.DEFAULT_TITLE.equals(chat.getTitle())) {
+            return;
+        }
+        // Под нагрузкой фоновая очередь может расти; лишние чаты получат название после следующего ответа
+        if (pending.size() >= maxPending || !pending.add(chat.getId())) {
+            return;
+        }
+
+        Mono.fromCallable(() -> generateTitle(chat))
+                .subscribeOn(Schedulers.boundedElastic())
+                .doFinally(signal -> pending.remove(chat.getId()))
+                .subscribe(
+                        title -> applyTitle(chat.getId(), title),
+                        e -> log.warn("Failed to generate title for chat {}: {}", chat.getId(), e.getMessage()));
+    }
+
+    private String generateTitle(Chat chat) {
+        List<Message> firstMessages = messageStore.findRange(chat.getId(), 1, 2);
+
+        StringBuilder dialog = new StringBuilder();
+        for (Message message : firstMessages) {
+            String content = message.getContent() != null ? message.getContent() : "";
+            dialog.append(message.getType() == Message.MessageType.USER ? "Пользователь: " : "Ассистент: ")
+                    .append(content, 0, Math.min(content.length(), MAX_EXCERPT_LENGTH))
+                    .append('\n');
+        }
+
+        String title = backgroundChatClient.prompt()
+                .options(OllamaOptions.builder().model(chat.getModelName()).build())
+                .system("Придумай короткое название (до 6 слов) для диалога. "
+                        + "Ответь только названием на языке диалога, без кавычек и точки в конце.")
+                .user(dialog.toString())
+                .call().content();
+        return sanitize(title);
+    }
+
+    private void applyTitle(String chatId, String title) {
+        if (title.isEmpty()) {
+            return;
+        }
+
+        Query query = Query.query(Criteria.where("_id").is(chatId).and("title").is(ChatService.DEFAULT_TITLE));
+        Update update = new Update().set("title", title).set("updatedAt", LocalDateTime.now());
+        Chat updated = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Chat.class);
+        if (updated != null) {
+            chatSearchService.indexChat(updated);
+            log.debug("Chat {} titled \"{}\"", chatId, title);
+        }
+    }
+
+    /**
+     * Первая непустая строка ответа без кавычек, markdown-разметки и финальной точки
+     */
+    static String sanitize(String raw) {
+        if (raw == null) {
+            return "";
+        }
+        String title = raw.lines()
+                .map(String::strip)
+                .filter(line -> !line.isEmpty())
+                .findFirst()
+                .orElse("")
+                .replaceAll("^[#*\\s\"'«“]+|[*\"'»”.\\s]+$", "");
+        return title.length() > MAX_TITLE_LENGTH ? title.substring(0, MAX_TITLE_LENGTH).strip() + "…" : title;
+    }
+}
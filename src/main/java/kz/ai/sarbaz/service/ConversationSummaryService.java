@@ -0,0 +1,114 @@
+package kz.ai.sarbaz.service;
+
+import kz.ai.sarbaz.entity.Chat;
+import kz.ai.sarbaz.entity.Message;
+import kz.ai.sarbaz.storage.MessageStore;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Скользящая сводка длинных диалогов. Когда за пределами сводки накапливается больше
+ * app.summary.trigger-messages сообщений, фоновый клиент LLM дописывает в сводку все,
+ * кроме последних app.summary.keep-recent. Промпт затем состоит из сводки и недавних
+ * сообщений, поэтому его размер не растет вместе с чатом.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class ConversationSummaryService {
+
+    private static final int MAX_MESSAGE_LENGTH = 2000;
+
+    @Qualifier("backgroundChatClient")
+    private final ChatClient backgroundChatClient;
+    private final MessageStore messageStore;
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${app.summary.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.summary.trigger-messages:8}")
+    private int triggerMessages;
+
+    @Value("${app.summary.keep-recent:4}")
+    private int keepRecent;
+
+    @Value("${app.summary.max-words:250}")
+    private int maxWords;
+
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Запустить сжатие истории, если несжатая часть чата превысила порог
+     */
+    public void requestCompaction(Chat chat) {
+        int summarizedUpTo = chat.getSummarizedUpTo() != null ? chat.getSummarizedUpTo() : 0;
+        int upTo = chat.getMessageCount() - keepRecent;
+        if (!enabled || chat.getMessageCount() - summarizedUpTo <= triggerMessages || upTo <= summarizedUpTo) {
+            return;
+        }
+        if (!pending.add(chat.getId())) {
+            return;
+        }
+
+        Mono.fromCallable(() -> compact(chat.getId(), chat.getModelName(), chat.getSummary(), summarizedUpTo, upTo))
+                .subscribeOn(Schedulers.boundedElastic())
+                .doFinally(signal -> pending.remove(chat.getId()))
+                .subscribe(
+                        updated -> log.debug("Chat {} summarized up to message {}", chat.getId(), upTo),
+                        e -> log.warn("Failed to summarize chat {}: {}", chat.getId(), e.getMessage()));
+    }
+
+    private boolean compact(String chatId, String model, String previousSummary, int summarizedUpTo, int upTo) {
+        List<Message> messages = messageStore.findRange(chatId, summarizedUpTo + 1, upTo);
+        if (messages.isEmpty()) {
+            return false;
+        }
+
+        StringBuilder dialog = new StringBuilder();
+        if (previousSummary != null && !previousSummary.isBlank()) {
+            dialog.append("Сводка предыдущей части диалога:\n").append(previousSummary).append("\n\n");
+        }
+        dialog.append("Новые сообщения:\n");
+        for (Message message : messages) {
+            String content = message.getContent() != null ? message.getContent() : "";
+            dialog.append(message.getType() == Message.MessageType.USER ? "Пользователь: " : "Ассистент: ")
+                    .append(content, 0, Math.min(content.length(), MAX_MESSAGE_LENGTH))
+                    .append('\n');
+        }
+
+        String summary = backgroundChatClient.prompt()
+                .options(OllamaOptions.builder().model(model).build())
+                .system("Обнови сводку диалога с учетом новых сообщений. Сохрани факты, решения, имена, "
+                        + "договоренности и открытые вопросы. Не более " + maxWords + " слов, на языке диалога, "
+                        + "без вступлений.")
+                .user(dialog.toString())
+                .call().content();
+        if (summary == null || summary.isBlank()) {
+            return false;
+        }
+
+        // Записываем, только если сводку никто не обновил параллельно
+        Criteria unchanged = summarizedUpTo == 0
+                ? new Criteria().orOperator(Criteria.where("summarizedUpTo").exists(false), Criteria.where("summarizedUpTo").is(0))
+                : Criteria.where("summarizedUpTo").is(summarizedUpTo);
+        Query query = Query.query(Criteria.where("_id").is(chatId)).addCriteria(unchanged);
+        Update update = new Update().set("summary", summary.strip()).set("summarizedUpTo", upTo);
+        return mongoTemplate.updateFirst(query, update, Chat.class).getModifiedCount() > 0;
+    }
+}
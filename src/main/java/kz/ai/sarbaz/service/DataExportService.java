@@ -8,15 +8,17 @@ import kz.ai.sarbaz.api.dto.MessageDTO;
 import kz.ai.sarbaz.entity.Chat;
 import kz.ai.sarbaz.entity.Message;
 import kz.ai.sarbaz.repository.ChatRepository;
-import kz.ai.sarbaz.repository.MessageRepository;
+import kz.ai.sarbaz.storage.MessageStore;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -25,14 +27,16 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class DataExportService {
 
     private final ChatRepository chatRepository;
-    private final MessageRepository messageRepository;
+    private final MessageStore messageStore;
     private final ObjectMapper objectMapper;
+    private final ChatRetentionService chatRetentionService;
     
     /**
      * Экспортирует все чаты в JSON-файл
@@ -48,7 +52,9 @@ public class DataExportService {
         Files.createDirectories(exportPath.getParent());
         
         // Записываем данные в файл
-        objectMapper.writerWithDefaultPrettyPrinter().writeValue(exportPath.toFile(), allChats);
+        try (OutputStream out = Files.newOutputStream(exportPath)) {
+            writeJson(allChats, out);
+        }
         
         return exportPath.toString();
     }
@@ -57,7 +63,7 @@ public class DataExportService {
      * Экспортирует все сообщения в JSON-файл
      */
     public String exportMessagesToJson() throws IOException {
-        List<Message> allMessages = messageRepository.findAll();
+        List<Message> allMessages = allMessages();
         
         // Создаем имя файла с текущей датой и временем
         String fileName = "messages_export_" + getCurrentTimestamp() + ".json";
@@ -67,7 +73,9 @@ public class DataExportService {
         Files.createDirectories(exportPath.getParent());
         
         // Записываем данные в файл
-        objectMapper.writerWithDefaultPrettyPrinter().writeValue(exportPath.toFile(), allMessages);
+        try (OutputStream out = Files.newOutputStream(exportPath)) {
+            writeJson(allMessages, out);
+        }
         
         return exportPath.toString();
     }
@@ -76,7 +84,7 @@ public class DataExportService {
      * Экспортирует все сообщения в CSV-файл с указанными полями
      */
     public String exportMessagesToCSV() throws IOException {
-        List<Message> allMessages = messageRepository.findAll();
+        List<Message> allMessages = allMessages();
         
         // Создаем имя файла с текущей датой и временем
         String fileName = "messages_export_" + getCurrentTimestamp() + ".csv";
@@ -85,24 +93,10 @@ public class DataExportService {
         // Создаем директорию, если она не существует
         Files.createDirectories(exportPath.getParent());
         
-        // Создаем схему CSV для необходимых полей
-        List<MessageExportDTO> exportData = allMessages.stream()
-                .map(message -> new MessageExportDTO(
-                        message.getId(),
-                        message.getChatId(),
-                        message.getType().toString(),
-                        message.getContent(),
-                        message.getTimestamp().toString(),
-                        message.getSequenceNumber()
-                ))
-                .collect(Collectors.toList());
-        
-        // Создаем CsvMapper и схему
-        CsvMapper csvMapper = new CsvMapper();
-        CsvSchema schema = csvMapper.schemaFor(MessageExportDTO.class).withHeader();
-        
         // Записываем данные в файл
-        csvMapper.writer(schema).writeValue(exportPath.toFile(), exportData);
+        try (OutputStream out = Files.newOutputStream(exportPath)) {
+            writeMessagesCsv(allMessages, out);
+        }
         
         return exportPath.toString();
     }
@@ -111,7 +105,7 @@ public class DataExportService {
      * Экспортирует сообщения конкретного чата в JSON-файл
      */
     public String exportChatMessagesToJson(String chatId) throws IOException {
-        Page<Message> messages = messageRepository.findByChatIdOrderByTimestampAsc(chatId, Pageable.unpaged());
+        List<Message> messages = chatMessages(chatId);
         
         // Создаем имя файла с текущей датой и временем
         String fileName = "chat_" + chatId + "_export_" + getCurrentTimestamp() + ".json";
@@ -121,7 +115,9 @@ public class DataExportService {
         Files.createDirectories(exportPath.getParent());
         
         // Записываем данные в файл
-        objectMapper.writerWithDefaultPrettyPrinter().writeValue(exportPath.toFile(), messages.getContent());
+        try (OutputStream out = Files.newOutputStream(exportPath)) {
+            writeJson(messages, out);
+        }
         
         return exportPath.toString();
     }
@@ -136,22 +132,10 @@ public class DataExportService {
         
         for (Chat chat : allChats) {
             // Получаем сообщения чата в порядке возрастания времени
-            List<Message> chatMessages = messageRepository.findByChatIdOrderByTimestampAsc(
-                    chat.getId(), Pageable.unpaged()).getContent();
+            List<Message> chatMessages = chatMessages(chat.getId());
             
             // Создаем пары prompt/completion
-            for (int i = 0; i < chatMessages.size() - 1; i++) {
-                if (chatMessages.get(i).getType() == Message.MessageType.USER && 
-                    chatMessages.get(i+1).getType() == Message.MessageType.ASSISTANT) {
-                    
-                    FineTuningPair pair = new FineTuningPair(
-                            chatMessages.get(i).getContent(),
-                            chatMessages.get(i+1).getContent()
-                    );
-                    
-                    pairs.add(pair);
-                }
-            }
+            addFineTuningPairs(chatMessages, pairs);
         }
         
         // Создаем имя файла с текущей датой и временем
@@ -162,16 +146,91 @@ public class DataExportService {
         Files.createDirectories(exportPath.getParent());
         
         // Записываем данные в файл в формате JSONL
-        List<String> lines = new ArrayList<>();
-        for (FineTuningPair pair : pairs) {
-            lines.add(objectMapper.writeValueAsString(pair));
+        try (OutputStream out = Files.newOutputStream(exportPath)) {
+            writeJsonLines(pairs, out);
         }
         
-        Files.write(exportPath, lines);
-        
         return exportPath.toString();
     }
     
+    /**
+     * Все сообщения из хранилища сообщений, независимо от его схемы, и из холодного хранилища
+     */
+    private List<Message> allMessages() {
+        try (Stream<Message> messages = messageStore.streamAll();
+             Stream<Message> cold = chatRetentionService.streamCold()) {
+            return Stream.concat(messages, cold).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Сообщения чата; холодный чат читается без возврата в горячее хранилище
+     */
+    private List<Message> chatMessages(String chatId) {
+        List<Message> messages = messageStore.findAll(chatId);
+        return messages.isEmpty() ? chatRetentionService.readCold(chatId) : messages;
+    }
+
+    /**
+     * Записывает данные в поток в виде форматированного JSON
+     */
+    void writeJson(Object data, OutputStream out) throws IOException {
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(out, data);
+    }
+
+    /**
+     * Записывает сообщения в поток в формате CSV с заголовком
+     */
+    void writeMessagesCsv(List<Message> messages, OutputStream out) throws IOException {
+        // Создаем схему CSV для необходимых полей
+        List<MessageExportDTO> exportData = messages.stream()
+                .map(message -> new MessageExportDTO(
+                        message.getId(),
+                        message.getChatId(),
+                        message.getType().toString(),
+                        message.getContent(),
+                        message.getTimestamp().toString(),
+                        message.getSequenceNumber()
+                ))
+                .collect(Collectors.toList());
+
+        // Создаем CsvMapper и схему
+        CsvMapper csvMapper = new CsvMapper();
+        CsvSchema schema = csvMapper.schemaFor(MessageExportDTO.class).withHeader();
+
+        csvMapper.writer(schema).writeValue(out, exportData);
+    }
+
+    /**
+     * Добавляет пары prompt/completion из сообщений одного чата (по возрастанию времени)
+     */
+    void addFineTuningPairs(List<Message> chatMessages, List<FineTuningPair> pairs) {
+        for (int i = 0; i < chatMessages.size() - 1; i++) {
+            if (chatMessages.get(i).getType() == Message.MessageType.USER &&
+                chatMessages.get(i+1).getType() == Message.MessageType.ASSISTANT) {
+
+                FineTuningPair pair = new FineTuningPair(
+                        chatMessages.get(i).getContent(),
+                        chatMessages.get(i+1).getContent()
+                );
+
+                pairs.add(pair);
+            }
+        }
+    }
+
+    /**
+     * Записывает объекты в поток в формате JSONL, по одному на строку
+     */
+    void writeJsonLines(List<?> items, OutputStream out) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        for (Object item : items) {
+            writer.write(objectMapper.writeValueAsString(item));
+            writer.newLine();
+        }
+        writer.flush();
+    }
+
     private String getCurrentTimestamp() {
         return LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
     }
@@ -200,7 +259,7 @@ public class DataExportService {
     /**
      * DTO для формата fine-tuning
      */
-    private static class FineTuningPair {
+    static class FineTuningPair {
         public String prompt;
         public String completion;
         
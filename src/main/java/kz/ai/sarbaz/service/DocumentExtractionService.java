@@ -0,0 +1,216 @@
+package kz.ai.sarbaz.service;
+
+import kz.ai.sarbaz.entity.ExtractedDocument;
+import kz.ai.sarbaz.entity.ExtractedDocument.ExtractionStatus;
+import kz.ai.sarbaz.repository.ExtractedDocumentRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.exception.TikaException;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentReader;
+import org.springframework.ai.reader.markdown.MarkdownDocumentReader;
+import org.springframework.ai.reader.markdown.config.MarkdownDocumentReaderConfig;
+import org.springframework.ai.reader.tika.TikaDocumentReader;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Фоновое извлечение текста из вложений (PDF, DOCX, MD и т.д.).
+ * Результат сохраняется один раз на хеш содержимого и переиспользуется
+ * во всех последующих запросах и чатах. Файл, который не удалось разобрать, больше не
+ * разбирается; после временного сбоя (хранилище, ввод-вывод) извлечение повторяется
+ * не раньше app.extraction.retry-after.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class DocumentExtractionService {
+
+    private final ExtractedDocumentRepository extractedDocumentRepository;
+    private final FileStorageService fileStorageService;
+
+    @Qualifier("documentExtractionExecutor")
+    private final ThreadPoolTaskExecutor documentExtractionExecutor;
+
+    @Value("${app.extraction.max-chars:200000}")
+    private int maxChars;
+
+    @Value("${app.extraction.retry-after:10m}")
+    private Duration retryAfter;
+
+    // Задачи в процессе, чтобы один и тот же файл не разбирался параллельно
+    private final Map<String, CompletableFuture<Optional<String>>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Нужно ли извлекать текст из файла данного типа. Изображения уходят в модель как media.
+     */
+    public static boolean isExtractable(String contentType) {
+        return contentType == null || !contentType.startsWith("image/");
+    }
+
+    /**
+     * Запустить извлечение в фоне, если текст для этого хеша еще не сохранен
+     */
+    public CompletableFuture<Optional<String>> extractAsync(String contentHash, String fileRef,
+                                                            String filename, String contentType) {
+        CompletableFuture<Optional<String>> running = inFlight.get(contentHash);
+        if (running != null) {
+            return running;
+        }
+
+        Optional<ExtractedDocument> existing = extractedDocumentRepository.findById(contentHash);
+        if (existing.isPresent() && !isRetryDue(existing.get())) {
+            return CompletableFuture.completedFuture(textOf(existing.get()));
+        }
+
+        CompletableFuture<Optional<String>> future = inFlight.computeIfAbsent(contentHash, hash -> {
+            try {
+                return CompletableFuture.supplyAsync(
+                        () -> extract(hash, fileRef, filename, contentType), documentExtractionExecutor);
+            } catch (TaskRejectedException e) {
+                log.warn("Extraction queue is full, postponing document {}", hash);
+                return CompletableFuture.completedFuture(Optional.empty());
+            }
+        });
+        future.whenComplete((text, e) -> inFlight.remove(contentHash, future));
+        return future;
+    }
+
+    /**
+     * Получить уже извлеченный текст без ожидания
+     */
+    public Optional<String> findText(String contentHash) {
+        if (contentHash == null) {
+            return Optional.empty();
+        }
+        return extractedDocumentRepository.findById(contentHash).flatMap(this::textOf);
+    }
+
+    /**
+     * Получить текст, при необходимости дождавшись фонового извлечения не дольше timeout
+     */
+    public Optional<String> awaitText(String contentHash, String fileRef, String filename,
+                                      String contentType, Duration timeout) {
+        try {
+            return extractAsync(contentHash, fileRef, filename, contentType)
+                    .get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Extraction of {} did not finish in {}", filename, timeout);
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } catch (Exception e) {
+            log.error("Extraction of {} failed: {}", filename, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private Optional<String> extract(String contentHash, String fileRef, String filename, String contentType) {
+        long started = System.nanoTime();
+        ExtractedDocument.ExtractedDocumentBuilder result = ExtractedDocument.builder()
+                .contentHash(contentHash)
+                .filename(filename)
+                .contentType(contentType)
+                .extractedAt(LocalDateTime.now());
+
+        try {
+            String text = readText(fileStorageService.loadAsResource(fileRef), filename, contentType);
+            boolean truncated = text.length() > maxChars;
+            if (truncated) {
+                text = text.substring(0, maxChars);
+            }
+
+            extractedDocumentRepository.save(result
+                    .status(ExtractionStatus.READY)
+                    .text(text)
+                    .textLength(text.length())
+                    .truncated(truncated)
+                    .build());
+
+            log.debug("Extracted {} chars from {} in {} ms", text.length(), filename,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            return Optional.of(text);
+        } catch (Exception e) {
+            boolean unreadable = isParseError(e);
+            log.error("Error extracting text from {}{}: {}", filename,
+                    unreadable ? "" : ", retrying after " + retryAfter, e.getMessage(), e);
+            // Битый файл не разбираем на каждом запросе, а сбой чтения повторяем позже
+            extractedDocumentRepository.save(result
+                    .status(ExtractionStatus.FAILED)
+                    .error(e.getMessage())
+                    .retryAfter(unreadable ? null : LocalDateTime.now().plus(retryAfter))
+                    .build());
+            return Optional.empty();
+        }
+    }
+
+    private String readText(Resource resource, String filename, String contentType) throws IOException {
+        if (isPlainText(contentType)) {
+            return resource.getContentAsString(StandardCharsets.UTF_8);
+        }
+
+        DocumentReader reader = isMarkdown(filename, contentType)
+                ? new MarkdownDocumentReader(resource, MarkdownDocumentReaderConfig.builder()
+                        .withIncludeCodeBlock(true)
+                        .withIncludeBlockquote(true)
+                        .build())
+                : new TikaDocumentReader(resource);
+
+        return reader.get().stream()
+                .map(Document::getText)
+                .filter(text -> text != null && !text.isBlank())
+                .collect(Collectors.joining("\n\n"));
+    }
+
+    private Optional<String> textOf(ExtractedDocument document) {
+        return document.getStatus() == ExtractionStatus.READY
+                ? Optional.ofNullable(document.getText())
+                : Optional.empty();
+    }
+
+    private static boolean isRetryDue(ExtractedDocument document) {
+        return document.getStatus() == ExtractionStatus.FAILED
+                && document.getRetryAfter() != null
+                && !LocalDateTime.now().isBefore(document.getRetryAfter());
+    }
+
+    /**
+     * Ошибка формата файла, а не его чтения: Tika оборачивает ее в RuntimeException
+     */
+    private static boolean isParseError(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TikaException || cause instanceof SAXException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPlainText(String contentType) {
+        return contentType != null && contentType.startsWith("text/plain");
+    }
+
+    private static boolean isMarkdown(String filename, String contentType) {
+        return "text/markdown".equals(contentType)
+                || "text/x-markdown".equals(contentType)
+                || (filename != null && filename.toLowerCase().endsWith(".md"));
+    }
+}
@@ -0,0 +1,110 @@
+package kz.ai.sarbaz.service;
+
+import kz.ai.sarbaz.entity.FileCleanupTask;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Фоновое удаление файлов вложений.
+ * <p>
+ * Удаление чата только ставит ссылки на его файлы в очередь (коллекция file_cleanup) и
+ * не ждет диска. Очередь разбирается по расписанию пачками; неудачная попытка
+ * откладывается с удвоением паузы, после maxAttempts задача снимается с ошибкой в логе.
+ */
+@Service
+@Slf4j
+public class FileCleanupService {
+
+    private static final int BATCH_SIZE = 100;
+
+    private final MongoTemplate mongoTemplate;
+    private final FileStorageService fileStorageService;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+
+    public FileCleanupService(MongoTemplate mongoTemplate, FileStorageService fileStorageService,
+                              @Value("${app.files.cleanup.max-attempts:10}") int maxAttempts,
+                              @Value("${app.files.cleanup.initial-backoff:30s}") Duration initialBackoff,
+                              @Value("${app.files.cleanup.max-backoff:1h}") Duration maxBackoff) {
+        this.mongoTemplate = mongoTemplate;
+        this.fileStorageService = fileStorageService;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Поставить файлы в очередь на удаление одной пачкой записей
+     */
+    public void enqueue(String chatId, Collection<String> fileRefs) {
+        if (fileRefs.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FileCleanupTask.class);
+        for (String fileRef : fileRefs) {
+            operations.upsert(Query.query(Criteria.where("_id").is(fileRef)), new Update()
+                    .setOnInsert("chatId", chatId)
+                    .setOnInsert("attempts", 0)
+                    .setOnInsert("nextAttemptAt", now)
+                    .setOnInsert("createdAt", now));
+        }
+        operations.execute();
+    }
+
+    /**
+     * Удалить файлы, чья очередь подошла
+     */
+    @Scheduled(fixedDelayString = "${app.files.cleanup.interval:10s}")
+    public void processDue() {
+        List<FileCleanupTask> due;
+        do {
+            Query query = Query.query(Criteria.where("nextAttemptAt").lte(LocalDateTime.now()))
+                    .with(Sort.by("nextAttemptAt"))
+                    .limit(BATCH_SIZE);
+            due = mongoTemplate.find(query, FileCleanupTask.class);
+            due.forEach(this::process);
+        } while (due.size() == BATCH_SIZE);
+    }
+
+    private void process(FileCleanupTask task) {
+        Query byId = Query.query(Criteria.where("_id").is(task.getId()));
+        try {
+            fileStorageService.deleteFile(task.getId());
+            mongoTemplate.remove(byId, FileCleanupTask.class);
+        } catch (RuntimeException e) {
+            int attempts = task.getAttempts() + 1;
+            String reason = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+            if (attempts >= maxAttempts) {
+                log.error("Giving up deleting file {} of chat {} after {} attempts: {}",
+                        task.getId(), task.getChatId(), attempts, reason);
+                mongoTemplate.remove(byId, FileCleanupTask.class);
+                return;
+            }
+            log.warn("Failed to delete file {} (attempt {}), will retry: {}", task.getId(), attempts, reason);
+            mongoTemplate.updateFirst(byId, new Update()
+                    .set("attempts", attempts)
+                    .set("nextAttemptAt", LocalDateTime.now().plus(backoff(attempts)))
+                    .set("lastError", reason), FileCleanupTask.class);
+        }
+    }
+
+    private Duration backoff(int attempts) {
+        Duration delay = initialBackoff.multipliedBy(1L << Math.min(attempts - 1, 20));
+        return delay.compareTo(maxBackoff) > 0 ? maxBackoff : delay;
+    }
+}
@@ -1,15 +1,21 @@
 package kz.ai.sarbaz.service;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.UUID;
 
 @Service
@@ -75,6 +81,34 @@ public class FileStorageService {
         }
     }
     
+    /**
+     * Возвращает файл по ссылке как ресурс, без чтения в память
+     */
+    public Resource loadAsResource(String fileRef) {
+        Path filePath = getStorageLocation().resolve(fileRef).normalize();
+        if (!Files.exists(filePath)) {
+            throw new RuntimeException("Файл не найден: " + fileRef);
+        }
+        return new FileSystemResource(filePath);
+    }
+
+    /**
+     * Вычисляет SHA-256 содержимого файла
+     */
+    public String computeContentHash(MultipartFile file) {
+        try (InputStream in = file.getInputStream()) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException ex) {
+            throw new RuntimeException("Не удалось вычислить хеш файла", ex);
+        }
+    }
+    
     /**
      * Удаляет файл по ссылке
      */
@@ -0,0 +1,182 @@
+package kz.ai.sarbaz.service;
+
+import kz.ai.sarbaz.config.MessageStoreConfig;
+import kz.ai.sarbaz.entity.Chat;
+import kz.ai.sarbaz.entity.Message;
+import kz.ai.sarbaz.storage.BucketedMessageStore;
+import kz.ai.sarbaz.storage.DocumentMessageStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Онлайн-перенос сообщений из коллекции messages в бакеты.
+ * <p>
+ * Работает только в режиме app.messages.store=dual: новые сообщения уже пишутся в обе схемы,
+ * а миграция в фоне проходит чаты по порядку id и дописывает в бакеты то, чего в них нет.
+ * Дозапись условная (по count бакета), а живая запись в бакет пропускает сообщения, которые
+ * в нем уже есть, поэтому сообщение, записанное параллельно с переносом, не теряется и не
+ * попадает в бакет дважды. После каждого чата число сообщений в бакетах сверяется с
+ * документами. Прерванную миграцию можно продолжить с последнего обработанного чата.
+ */
+@Service
+@Slf4j
+public class MessageMigrationService {
+
+    private static final int CHAT_PAGE_SIZE = 100;
+    private static final int MAX_REPORTED_MISMATCHES = 1000;
+
+    private final MongoTemplate mongoTemplate;
+    private final DocumentMessageStore documentMessageStore;
+    private final BucketedMessageStore bucketedMessageStore;
+    private final String storeMode;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean stopRequested;
+    private final AtomicLong migratedChats = new AtomicLong();
+    private final AtomicLong copiedMessages = new AtomicLong();
+    private final List<String> mismatchedChats = new ArrayList<>();
+    private volatile String lastChatId;
+    private volatile LocalDateTime startedAt;
+    private volatile LocalDateTime finishedAt;
+    private volatile String error;
+
+    public MessageMigrationService(MongoTemplate mongoTemplate, DocumentMessageStore documentMessageStore,
+                                   BucketedMessageStore bucketedMessageStore,
+                                   @Value("${app.messages.store:documents}") String storeMode) {
+        this.mongoTemplate = mongoTemplate;
+        this.documentMessageStore = documentMessageStore;
+        this.bucketedMessageStore = bucketedMessageStore;
+        this.storeMode = storeMode.strip();
+    }
+
+    /**
+     * Запустить миграцию в фоне; resumeAfter - id чата, после которого продолжить
+     */
+    public Map<String, Object> start(String resumeAfter) {
+        if (!MessageStoreConfig.DUAL.equals(storeMode)) {
+            throw new IllegalStateException("Миграция возможна только при app.messages.store=dual, сейчас " + storeMode);
+        }
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("Миграция уже запущена");
+        }
+
+        stopRequested = false;
+        migratedChats.set(0);
+        copiedMessages.set(0);
+        synchronized (mismatchedChats) {
+            mismatchedChats.clear();
+        }
+        lastChatId = resumeAfter;
+        startedAt = LocalDateTime.now();
+        finishedAt = null;
+        error = null;
+
+        Mono.fromRunnable(() -> run(resumeAfter))
+                .subscribeOn(Schedulers.boundedElastic())
+                .doFinally(signal -> {
+                    finishedAt = LocalDateTime.now();
+                    running.set(false);
+                })
+                .subscribe(null, e -> {
+                    error = e.getMessage();
+                    log.error("Message migration failed after chat {}: {}", lastChatId, e.getMessage(), e);
+                });
+        return status();
+    }
+
+    /**
+     * Остановить после текущего чата; продолжить можно с lastChatId
+     */
+    public Map<String, Object> stop() {
+        stopRequested = true;
+        return status();
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        status.put("store", storeMode);
+        status.put("bucketSize", bucketedMessageStore.getBucketSize());
+        status.put("migratedChats", migratedChats.get());
+        status.put("copiedMessages", copiedMessages.get());
+        status.put("lastChatId", lastChatId);
+        synchronized (mismatchedChats) {
+            status.put("mismatchedChats", List.copyOf(mismatchedChats));
+        }
+        status.put("startedAt", startedAt);
+        status.put("finishedAt", finishedAt);
+        status.put("error", error);
+        return status;
+    }
+
+    private void run(String resumeAfter) {
+        log.info("Message migration to buckets started after chat {}", resumeAfter);
+        String after = resumeAfter;
+        while (!stopRequested) {
+            Criteria criteria = after == null ? new Criteria() : Criteria.where("_id").gt(after);
+            Query query = Query.query(criteria).with(Sort.by("_id")).limit(CHAT_PAGE_SIZE);
+            query.fields().include("_id");
+            List<Chat> chats = mongoTemplate.find(query, Chat.class);
+            if (chats.isEmpty()) {
+                break;
+            }
+            for (Chat chat : chats) {
+                if (stopRequested) {
+                    break;
+                }
+                migrateChat(chat.getId());
+                lastChatId = chat.getId();
+                after = chat.getId();
+            }
+        }
+        log.info("Message migration {}: {} chats, {} messages copied, {} mismatched",
+                stopRequested ? "stopped" : "finished", migratedChats.get(), copiedMessages.get(), mismatchedChats.size());
+    }
+
+    private void migrateChat(String chatId) {
+        List<Message> messages = documentMessageStore.findAll(chatId);
+
+        // Старые сообщения без sequenceNumber получают номер по порядку времени
+        Map<Integer, List<Message>> byBucket = new TreeMap<>();
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            if (message.getSequenceNumber() == null) {
+                message.setSequenceNumber(i + 1);
+            }
+            byBucket.computeIfAbsent(bucketedMessageStore.bucketOf(message.getSequenceNumber()), b -> new ArrayList<>())
+                    .add(message);
+        }
+
+        for (Map.Entry<Integer, List<Message>> bucket : byBucket.entrySet()) {
+            copiedMessages.addAndGet(bucketedMessageStore.backfill(chatId, bucket.getKey(), bucket.getValue()));
+        }
+
+        // Сообщения, пришедшие во время переноса, могут добавить в бакеты больше, но не меньше
+        if (bucketedMessageStore.count(chatId) < messages.size()) {
+            log.warn("Chat {} has {} messages but only {} in buckets", chatId, messages.size(),
+                    bucketedMessageStore.count(chatId));
+            synchronized (mismatchedChats) {
+                if (mismatchedChats.size() < MAX_REPORTED_MISMATCHES) {
+                    mismatchedChats.add(chatId);
+                }
+            }
+        }
+        migratedChats.incrementAndGet();
+    }
+}
@@ -0,0 +1,176 @@
+package kz.ai.sarbaz.service;
+
+import kz.ai.sarbaz.entity.Chat;
+import kz.ai.sarbaz.entity.DocumentChunk;
+import kz.ai.sarbaz.entity.Message;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.model.Media;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Сборка сообщений для LLM из сохраненных сообщений чата.
+ * Небольшие документы подставляются извлеченным текстом из кеша, крупные - только
+ * релевантными текущему вопросу фрагментами из векторного индекса. Изображения - как media.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class PromptAssembler {
+
+    private static final String LARGE_DOCUMENT_MARKER = "[large document, relevant excerpts are attached to the latest question]";
+
+    private final DocumentExtractionService documentExtractionService;
+    private final AttachmentRetrievalService attachmentRetrievalService;
+    private final FileStorageService fileStorageService;
+
+    @Value("${app.extraction.await-timeout:20s}")
+    private Duration extractionAwaitTimeout;
+
+    @Value("${app.rag.top-k:5}")
+    private int topK;
+
+    /**
+     * Системный промпт со сводкой ранней части диалога, если она есть
+     */
+    public String withSummary(String systemPrompt, Chat chat) {
+        if (chat.getSummary() == null || chat.getSummary().isBlank()) {
+            return systemPrompt;
+        }
+        return systemPrompt + "\n\nSummary of the earlier conversation:\n" + chat.getSummary();
+    }
+
+    /**
+     * Преобразовать историю чата в сообщения для LLM. Для документов из прошлых
+     * сообщений используется только уже извлеченный текст, без ожидания.
+     */
+    public List<org.springframework.ai.chat.messages.Message> toHistoryMessages(List<Message> history) {
+        List<org.springframework.ai.chat.messages.Message> messages = new ArrayList<>(history.size());
+        for (Message message : history) {
+            if (message.getType() == Message.MessageType.USER) {
+                messages.add(new UserMessage(withDocuments(message, false, null)));
+            } else if (message.getType() == Message.MessageType.ASSISTANT) {
+                messages.add(new AssistantMessage(message.getContent()));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Текущее сообщение пользователя: изображения передаются как media, для документов
+     * ожидается фоновое извлечение текста, запущенное при сохранении сообщения.
+     * Крупные документы этого сообщения и истории представлены фрагментами, релевантными вопросу.
+     */
+    public UserMessage toCurrentUserMessage(Message message, List<Message> history) {
+        List<Media> media = new ArrayList<>();
+        if (message.getAttachments() != null) {
+            for (Message.MediaAttachment attachment : message.getAttachments()) {
+                if (!DocumentExtractionService.isExtractable(attachment.getContentType())) {
+                    media.add(Media.builder()
+                            .data(fileStorageService.loadFile(attachment.getDataRef()))
+                            .mimeType(MimeType.valueOf(attachment.getContentType()))
+                            .build());
+                }
+            }
+        }
+
+        // Крупные документы из истории: текст уже в кеше, нужны только фрагменты
+        Map<String, String> largeDocuments = new LinkedHashMap<>();
+        for (Message previous : history) {
+            if (previous.getType() != Message.MessageType.USER || previous.getAttachments() == null) {
+                continue;
+            }
+            for (Message.MediaAttachment attachment : previous.getAttachments()) {
+                if (isDocument(attachment)) {
+                    documentExtractionService.findText(attachment.getContentHash())
+                            .filter(attachmentRetrievalService::requiresRetrieval)
+                            .ifPresent(text -> {
+                                if (attachmentRetrievalService.awaitIndexed(attachment.getContentHash(), text,
+                                        extractionAwaitTimeout)) {
+                                    largeDocuments.putIfAbsent(attachment.getContentHash(), attachment.getFilename());
+                                }
+                            });
+                }
+            }
+        }
+
+        String text = withDocuments(message, true, largeDocuments);
+        if (!largeDocuments.isEmpty()) {
+            text = text + excerpts(largeDocuments, message.getContent());
+        }
+        return new UserMessage(text, media);
+    }
+
+    private String withDocuments(Message message, boolean await, Map<String, String> largeDocuments) {
+        if (message.getAttachments() == null || message.getAttachments().isEmpty()) {
+            return message.getContent();
+        }
+
+        StringBuilder text = new StringBuilder(message.getContent());
+        for (Message.MediaAttachment attachment : message.getAttachments()) {
+            if (!isDocument(attachment)) {
+                continue;
+            }
+
+            Optional<String> extracted = await
+                    ? documentExtractionService.awaitText(attachment.getContentHash(), attachment.getDataRef(),
+                            attachment.getFilename(), attachment.getContentType(), extractionAwaitTimeout)
+                    : documentExtractionService.findText(attachment.getContentHash());
+
+            text.append("\n\n--- Attachment: ").append(attachment.getFilename()).append(" ---\n");
+            if (extracted.isEmpty()) {
+                text.append("[text of this attachment is not available]");
+            } else if (!attachmentRetrievalService.requiresRetrieval(extracted.get())) {
+                text.append(extracted.get());
+            } else if (largeDocuments != null && attachmentRetrievalService.awaitIndexed(
+                    attachment.getContentHash(), extracted.get(), extractionAwaitTimeout)) {
+                largeDocuments.putIfAbsent(attachment.getContentHash(), attachment.getFilename());
+                // Та же пометка, что и в истории: на следующем ходе сообщение совпадет с этим до отрывков
+                text.append(LARGE_DOCUMENT_MARKER);
+            } else if (largeDocuments != null) {
+                // Индекс недоступен - отдаем начало документа, чтобы не терять его совсем
+                text.append(extracted.get(), 0, attachmentRetrievalService.getInlineMaxChars()).append("\n[...truncated]");
+            } else {
+                text.append(LARGE_DOCUMENT_MARKER);
+            }
+        }
+        return text.toString();
+    }
+
+    private String excerpts(Map<String, String> documents, String query) {
+        List<DocumentChunk> chunks;
+        try {
+            chunks = attachmentRetrievalService.retrieve(documents.keySet(), query, topK);
+        } catch (Exception e) {
+            log.error("Attachment retrieval failed: {}", e.getMessage(), e);
+            return "";
+        }
+        if (chunks.isEmpty()) {
+            return "";
+        }
+
+        StringBuilder text = new StringBuilder("\n\n--- Relevant excerpts from attachments ---");
+        for (DocumentChunk chunk : chunks) {
+            text.append("\n\n[").append(documents.get(chunk.getContentHash()))
+                    .append(", part ").append(chunk.getChunkIndex() + 1).append("]\n")
+                    .append(chunk.getText());
+        }
+        return text.toString();
+    }
+
+    private static boolean isDocument(Message.MediaAttachment attachment) {
+        return DocumentExtractionService.isExtractable(attachment.getContentType())
+                && attachment.getContentHash() != null;
+    }
+}
@@ -0,0 +1,242 @@
+package kz.ai.sarbaz.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kz.ai.sarbaz.entity.RolePreset;
+import kz.ai.sarbaz.repository.RolePresetRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Реестр ролей (персон) для системного промпта, общий для всех контроллеров.
+ * <p>
+ * Шаблоны разбираются один раз при загрузке, системные промпты именованных ролей
+ * рендерятся тогда же, поэтому запрос получает готовую строку. Роль, которой нет в реестре,
+ * подставляется в шаблон по умолчанию; результат кешируется. Одинаковый префикс промпта
+ * от запроса к запросу позволяет Ollama переиспользовать кеш промпта между ходами.
+ * <p>
+ * Роли читаются из JSON-файла (app.roles.file) и коллекции roles; роль из MongoDB
+ * перекрывает одноименную из файла. Источники перечитываются периодически и после
+ * изменения через API, снимок заменяется целиком.
+ */
+@Service
+@Slf4j
+public class RoleRegistry {
+
+    private static final Set<String> ROLE_VARIABLES = Set.of("name", "description");
+    private static final Set<String> DEFAULT_VARIABLES = Set.of("role");
+    private static final int MAX_AD_HOC_ROLES = 1024;
+
+    private final RolePresetRepository rolePresetRepository;
+    private final ObjectMapper objectMapper;
+    private final Path rolesFile;
+    private final CompiledTemplate defaultTemplate;
+
+    private volatile Snapshot snapshot;
+    private final Map<String, String> adHocPrompts = new ConcurrentHashMap<>();
+
+    public RoleRegistry(RolePresetRepository rolePresetRepository, ObjectMapper objectMapper,
+                        @Value("${app.roles.file:}") String rolesFile,
+                        @Value("${app.roles.default-template:You are a friendly chat bot that answers question in the role of a {role}.}")
+                        String defaultTemplate) {
+        this.rolePresetRepository = rolePresetRepository;
+        this.objectMapper = objectMapper;
+        this.rolesFile = rolesFile.isBlank() ? null : Path.of(rolesFile);
+        this.defaultTemplate = CompiledTemplate.compile(defaultTemplate, DEFAULT_VARIABLES);
+        this.snapshot = new Snapshot(Map.of(), List.of(), List.of(), List.of(), null);
+    }
+
+    /**
+     * Готовый системный промпт для роли: именованной из реестра или произвольной по шаблону по умолчанию
+     */
+    public String systemPrompt(String role) {
+        String name = role == null ? "" : role.strip();
+        CompiledRole compiled = snapshot.roles().get(key(name));
+        if (compiled != null) {
+            return compiled.systemPrompt();
+        }
+
+        String prompt = adHocPrompts.get(name);
+        if (prompt == null) {
+            prompt = defaultTemplate.render(Map.of("role", name));
+            if (adHocPrompts.size() >= MAX_AD_HOC_ROLES) {
+                adHocPrompts.clear();
+            }
+            adHocPrompts.put(name, prompt);
+        }
+        return prompt;
+    }
+
+    /**
+     * Именованные роли текущего снимка
+     */
+    public Collection<RolePreset> roles() {
+        return snapshot.presets();
+    }
+
+    /**
+     * Сохранить роль в MongoDB и сразу перестроить реестр
+     */
+    public RolePreset save(RolePreset preset) {
+        if (preset.getName() == null || preset.getName().isBlank()) {
+            throw new IllegalArgumentException("Role name is required");
+        }
+        if (preset.getTemplate() == null || preset.getTemplate().isBlank()) {
+            throw new IllegalArgumentException("Role template is required");
+        }
+        // Невалидный шаблон отклоняем до сохранения, а не при следующей перезагрузке
+        CompiledTemplate.compile(preset.getTemplate(), ROLE_VARIABLES);
+
+        preset.setName(preset.getName().strip());
+        preset.setUpdatedAt(LocalDateTime.now());
+        RolePreset saved = rolePresetRepository.save(preset);
+        reload(true);
+        return saved;
+    }
+
+    public void delete(String name) {
+        rolePresetRepository.deleteById(name);
+        reload(true);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        reload(true);
+    }
+
+    /**
+     * Перечитать источники и заменить снимок, если роли изменились
+     */
+    @Scheduled(fixedDelayString = "${app.roles.reload-interval:30s}",
+            initialDelayString = "${app.roles.reload-interval:30s}")
+    public void refresh() {
+        reload(false);
+    }
+
+    private synchronized void reload(boolean force) {
+        Snapshot previous = snapshot;
+        List<RolePreset> fromFile = List.of();
+        Long fileModified = null;
+        if (rolesFile != null) {
+            try {
+                fileModified = Files.getLastModifiedTime(rolesFile).toMillis();
+                fromFile = Objects.equals(fileModified, previous.fileModified())
+                        ? previous.fromFile()
+                        : objectMapper.readValue(rolesFile.toFile(), new TypeReference<List<RolePreset>>() {});
+            } catch (Exception e) {
+                log.warn("Failed to read roles file {}, keeping the previous roles: {}", rolesFile, e.getMessage());
+                fromFile = previous.fromFile();
+                fileModified = previous.fileModified();
+            }
+        }
+        List<RolePreset> fromMongo;
+        try {
+            fromMongo = rolePresetRepository.findAll();
+        } catch (Exception e) {
+            log.warn("Failed to load roles from MongoDB, keeping the previous ones: {}", e.getMessage());
+            fromMongo = previous.fromMongo();
+        }
+
+        if (!force && fromFile.equals(previous.fromFile()) && fromMongo.equals(previous.fromMongo())) {
+            return;
+        }
+
+        Map<String, RolePreset> presets = new LinkedHashMap<>();
+        fromFile.forEach(preset -> presets.put(key(preset.getName()), preset));
+        fromMongo.forEach(preset -> presets.put(key(preset.getName()), preset));
+
+        Map<String, CompiledRole> roles = new LinkedHashMap<>();
+        List<RolePreset> valid = new ArrayList<>();
+        for (RolePreset preset : presets.values()) {
+            try {
+                String description = preset.getDescription() == null ? "" : preset.getDescription();
+                String prompt = CompiledTemplate.compile(preset.getTemplate(), ROLE_VARIABLES)
+                        .render(Map.of("name", preset.getName(), "description", description));
+                roles.put(key(preset.getName()), new CompiledRole(preset, prompt));
+                valid.add(preset);
+            } catch (Exception e) {
+                log.warn("Skipping role {}: {}", preset.getName(), e.getMessage());
+            }
+        }
+        snapshot = new Snapshot(Map.copyOf(roles), List.copyOf(valid), List.copyOf(fromFile), List.copyOf(fromMongo), fileModified);
+        log.info("Loaded {} roles", roles.size());
+    }
+
+    private static String key(String name) {
+        return name == null ? "" : name.strip().toLowerCase(Locale.ROOT);
+    }
+
+    private record CompiledRole(RolePreset preset, String systemPrompt) {
+    }
+
+    private record Snapshot(Map<String, CompiledRole> roles, List<RolePreset> presets,
+                            List<RolePreset> fromFile, List<RolePreset> fromMongo, Long fileModified) {
+    }
+
+    /**
+     * Шаблон с подстановками {variable}, разобранный на литералы и переменные один раз.
+     * Неизвестная переменная - ошибка при разборе, а не пустое место в промпте.
+     */
+    static final class CompiledTemplate {
+        private final String[] literals;
+        private final String[] variables;
+
+        private CompiledTemplate(String[] literals, String[] variables) {
+            this.literals = literals;
+            this.variables = variables;
+        }
+
+        static CompiledTemplate compile(String template, Set<String> allowed) {
+            if (template == null) {
+                throw new IllegalArgumentException("Template is required");
+            }
+            List<String> literals = new ArrayList<>();
+            List<String> variables = new ArrayList<>();
+            int position = 0;
+            while (true) {
+                int open = template.indexOf('{', position);
+                if (open < 0) {
+                    break;
+                }
+                int close = template.indexOf('}', open);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unclosed '{' in template at " + open);
+                }
+                String variable = template.substring(open + 1, close).strip();
+                if (!allowed.contains(variable)) {
+                    throw new IllegalArgumentException("Unknown template variable {" + variable + "}, allowed: " + allowed);
+                }
+                literals.add(template.substring(position, open));
+                variables.add(variable);
+                position = close + 1;
+            }
+            literals.add(template.substring(position));
+            return new CompiledTemplate(literals.toArray(String[]::new), variables.toArray(String[]::new));
+        }
+
+        String render(Map<String, String> values) {
+            StringBuilder result = new StringBuilder(literals[0]);
+            for (int i = 0; i < variables.length; i++) {
+                result.append(values.getOrDefault(variables[i], "")).append(literals[i + 1]);
+            }
+            return result.toString();
+        }
+    }
+}
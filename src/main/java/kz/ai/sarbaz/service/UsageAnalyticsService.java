@@ -0,0 +1,178 @@
+package kz.ai.sarbaz.service;
+
+import kz.ai.sarbaz.api.dto.UsageStatsDTO;
+import kz.ai.sarbaz.entity.UsageBucket;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Аналитика использования LLM без сканирования сообщений.
+ * <p>
+ * Каждый ход диалога увеличивает счетчики двух дневных агрегатов - модели и чата - одной
+ * bulk-операцией из двух upsert с $inc, поэтому запись не читает документ и не конфликтует
+ * с параллельными ходами. Отчет за период читает по документу на день (и модель), то есть
+ * стоит O(дней), а не O(сообщений).
+ */
+@Service
+@Slf4j
+public class UsageAnalyticsService {
+
+    private final MongoTemplate mongoTemplate;
+    private final ZoneId zone;
+
+    public UsageAnalyticsService(MongoTemplate mongoTemplate,
+                                 @Value("${app.analytics.zone:UTC}") String zone) {
+        this.mongoTemplate = mongoTemplate;
+        this.zone = ZoneId.of(zone);
+    }
+
+    /**
+     * Учесть ход диалога. Ошибка записи аналитики не должна ломать ответ, поэтому только логируется
+     */
+    public void recordTurn(Turn turn) {
+        try {
+            String day = LocalDate.now(zone).toString();
+            BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UsageBucket.class);
+            operations.upsert(byId(modelBucketId(turn.model(), day)), increments(turn)
+                    .setOnInsert("scope", UsageBucket.Scope.MODEL)
+                    .setOnInsert("day", day)
+                    .setOnInsert("model", turn.model()));
+            // Ход без чата (пакет без сохранения в чаты) учитывается только в модели
+            if (turn.chatId() != null) {
+                operations.upsert(byId(chatBucketId(turn.chatId(), day)), increments(turn)
+                        .setOnInsert("scope", UsageBucket.Scope.CHAT)
+                        .setOnInsert("day", day)
+                        .setOnInsert("model", turn.model())
+                        .setOnInsert("chatId", turn.chatId()));
+            }
+            operations.execute();
+        } catch (Exception e) {
+            log.warn("Failed to record usage of chat {}: {}", turn.chatId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Дневные агрегаты моделей за период включительно, по дням; без модели - все модели
+     */
+    public List<UsageStatsDTO> getModelUsage(LocalDate from, LocalDate to, String model) {
+        Criteria criteria = Criteria.where("scope").is(UsageBucket.Scope.MODEL)
+                .and("day").gte(from.toString()).lte(to.toString());
+        if (model != null && !model.isBlank()) {
+            criteria.and("model").is(model);
+        }
+        Query query = Query.query(criteria).with(Sort.by("day", "model"));
+        return mongoTemplate.find(query, UsageBucket.class).stream()
+                .map(UsageAnalyticsService::toStats)
+                .toList();
+    }
+
+    /**
+     * Итоги по моделям за период: сумма дневных агрегатов
+     */
+    public List<UsageStatsDTO> getModelTotals(LocalDate from, LocalDate to) {
+        Query query = Query.query(Criteria.where("scope").is(UsageBucket.Scope.MODEL)
+                .and("day").gte(from.toString()).lte(to.toString()));
+        Map<String, UsageBucket> totals = new LinkedHashMap<>();
+        for (UsageBucket bucket : mongoTemplate.find(query, UsageBucket.class)) {
+            UsageBucket total = totals.computeIfAbsent(bucket.getModel(), model -> UsageBucket.builder()
+                    .model(model)
+                    .build());
+            total.setTurns(total.getTurns() + bucket.getTurns());
+            total.setFailedTurns(total.getFailedTurns() + bucket.getFailedTurns());
+            total.setMessages(total.getMessages() + bucket.getMessages());
+            total.setPromptTokens(total.getPromptTokens() + bucket.getPromptTokens());
+            total.setCompletionTokens(total.getCompletionTokens() + bucket.getCompletionTokens());
+            total.setLatencyMillis(total.getLatencyMillis() + bucket.getLatencyMillis());
+            total.setFirstTokenMillis(total.getFirstTokenMillis() + bucket.getFirstTokenMillis());
+            total.setMaxLatencyMillis(Math.max(total.getMaxLatencyMillis(), bucket.getMaxLatencyMillis()));
+        }
+        return totals.values().stream()
+                .map(UsageAnalyticsService::toStats)
+                .toList();
+    }
+
+    /**
+     * Дневные агрегаты одного чата за период
+     */
+    public List<UsageStatsDTO> getChatUsage(String chatId, LocalDate from, LocalDate to) {
+        Query query = Query.query(Criteria.where("chatId").is(chatId)
+                        .and("day").gte(from.toString()).lte(to.toString()))
+                .with(Sort.by("day"));
+        return mongoTemplate.find(query, UsageBucket.class).stream()
+                .map(UsageAnalyticsService::toStats)
+                .toList();
+    }
+
+    /**
+     * Текущий день в зоне аналитики, граница периода по умолчанию
+     */
+    public LocalDate today() {
+        return LocalDate.now(zone);
+    }
+
+    private static Update increments(Turn turn) {
+        Usage usage = turn.usage();
+        long promptTokens = usage != null && usage.getPromptTokens() != null ? usage.getPromptTokens() : 0;
+        long completionTokens = usage != null && usage.getCompletionTokens() != null ? usage.getCompletionTokens() : 0;
+        return new Update()
+                .inc("turns", 1)
+                .inc("failedTurns", turn.failed() ? 1 : 0)
+                .inc("messages", turn.messages())
+                .inc("promptTokens", promptTokens)
+                .inc("completionTokens", completionTokens)
+                .inc("latencyMillis", turn.latencyMillis())
+                .inc("firstTokenMillis", turn.firstTokenMillis())
+                .max("maxLatencyMillis", turn.latencyMillis());
+    }
+
+    private static Query byId(String id) {
+        return Query.query(Criteria.where("_id").is(id));
+    }
+
+    static String modelBucketId(String model, String day) {
+        return "model|" + model + "|" + day;
+    }
+
+    static String chatBucketId(String chatId, String day) {
+        return "chat|" + chatId + "|" + day;
+    }
+
+    private static UsageStatsDTO toStats(UsageBucket bucket) {
+        return UsageStatsDTO.builder()
+                .day(bucket.getDay())
+                .model(bucket.getModel())
+                .chatId(bucket.getChatId())
+                .turns(bucket.getTurns())
+                .failedTurns(bucket.getFailedTurns())
+                .messages(bucket.getMessages())
+                .promptTokens(bucket.getPromptTokens())
+                .completionTokens(bucket.getCompletionTokens())
+                .totalTokens(bucket.getPromptTokens() + bucket.getCompletionTokens())
+                .avgLatencyMs(bucket.getTurns() > 0 ? (double) bucket.getLatencyMillis() / bucket.getTurns() : null)
+                .avgFirstTokenMs(bucket.getTurns() > 0 ? (double) bucket.getFirstTokenMillis() / bucket.getTurns() : null)
+                .maxLatencyMs(bucket.getMaxLatencyMillis())
+                .build();
+    }
+
+    /**
+     * Один ход диалога: usage из метаданных ответа (может отсутствовать), задержки в миллисекундах,
+     * число сохраненных сообщений (вопрос и ответ, если он был). chatId может отсутствовать
+     */
+    public record Turn(String chatId, String model, Usage usage, long latencyMillis, long firstTokenMillis,
+                       int messages, boolean failed) {
+    }
+}
@@ -0,0 +1,389 @@
+package kz.ai.sarbaz.storage;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.result.UpdateResult;
+import kz.ai.sarbaz.entity.Message;
+import kz.ai.sarbaz.entity.MessageBucket;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArrayOperators;
+import org.springframework.data.mongodb.core.aggregation.BooleanOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Сообщения чата, упакованные в бакеты фиксированного размера в коллекции
+ * {@code message_buckets}.
+ * <p>
+ * Бакет {@code n} чата хранит номера {@code n * size + 1 .. (n + 1) * size} и имеет id
+ * {@code chatId:n}, поэтому добавление - один upsert по id с {@code $push}, без поиска текущего
+ * бакета. Окно промпта или страница истории занимают один-два бакета и читаются одним запросом
+ * к одному-двум документам и записям индекса вместо одного на сообщение. Параллельные добавления
+ * могут лечь в бакет не по порядку, чтение сортирует по номеру. Добавление идемпотентно по id
+ * сообщения, поэтому живая запись и дозапись миграцией одного и того же сообщения оставляют
+ * одну копию.
+ */
+public class BucketedMessageStore implements MessageStore {
+
+    private static final int MAX_BACKFILL_ATTEMPTS = 5;
+    private static final int DUPLICATE_KEY = 11000;
+    private static final Comparator<Message> BY_SEQUENCE = Comparator.comparing(Message::getSequenceNumber);
+
+    private final MongoTemplate mongoTemplate;
+    private final int bucketSize;
+    private final MessageCompressor compressor;
+
+    public BucketedMessageStore(MongoTemplate mongoTemplate, int bucketSize, MessageCompressor compressor) {
+        if (bucketSize < 1) {
+            throw new IllegalArgumentException("Bucket size must be positive, got " + bucketSize);
+        }
+        this.mongoTemplate = mongoTemplate;
+        this.bucketSize = bucketSize;
+        this.compressor = compressor;
+    }
+
+    @Override
+    public Message save(Message message) {
+        appendMissing(message.getChatId(), bucketOf(message), List.of(message));
+        return message;
+    }
+
+    @Override
+    public void saveAll(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Map<String, List<Message>> byBucket = new LinkedHashMap<>();
+        for (Message message : messages) {
+            byBucket.computeIfAbsent(bucketId(message.getChatId(), bucketOf(message)), id -> new ArrayList<>())
+                    .add(message);
+        }
+
+        List<List<Message>> groups = new ArrayList<>(byBucket.values());
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MessageBucket.class);
+        for (List<Message> group : groups) {
+            Message first = group.get(0);
+            int bucket = bucketOf(first);
+            operations.upsert(withoutAny(first.getChatId(), bucket, group), append(first.getChatId(), bucket, group));
+        }
+        try {
+            operations.execute();
+        } catch (BulkOperationException e) {
+            // Бакеты, где часть сообщений уже есть, разбираются по одному
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() != DUPLICATE_KEY) {
+                    throw e;
+                }
+                List<Message> group = groups.get(error.getIndex());
+                appendMissing(group.get(0).getChatId(), bucketOf(group.get(0)), group);
+            }
+        }
+    }
+
+    /**
+     * Дописать сообщения, которых в бакете еще нет, чтобы живая запись, совпавшая с дозаписью
+     * того же сообщения миграцией, не добавила его дважды.
+     * <p>
+     * Upsert находит бакет, только если в нем нет ни одного из сообщений. Если часть уже есть или
+     * бакет создан параллельно, вставка падает на id бакета. Первая такая ошибка повторяется как
+     * есть, это покрывает параллельное создание; после второй одиночное сообщение уже записано,
+     * а несколько дописываются по одному.
+     */
+    private void appendMissing(String chatId, int bucket, List<Message> messages) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                mongoTemplate.upsert(withoutAny(chatId, bucket, messages), append(chatId, bucket, messages),
+                        MessageBucket.class);
+                return;
+            } catch (DuplicateKeyException e) {
+                // Бакет создан параллельно или часть сообщений в нем уже есть
+            }
+        }
+        if (messages.size() > 1) {
+            for (Message message : messages) {
+                appendMissing(chatId, bucket, List.of(message));
+            }
+        }
+    }
+
+    /**
+     * Дописать в бакет сообщения, которых в нем нет, для миграции.
+     * Безопасно при параллельных добавлениях: обновление применяется, только если count бакета
+     * не изменился с момента вычисления недостающих сообщений, иначе повторяется.
+     *
+     * @return сколько сообщений добавлено
+     */
+    public int backfill(String chatId, int bucket, List<Message> messages) {
+        for (int attempt = 0; attempt < MAX_BACKFILL_ATTEMPTS; attempt++) {
+            Query query = byId(chatId, bucket);
+            query.fields().include("count").include("messages._id");
+            MessageBucket existing = mongoTemplate.findOne(query, MessageBucket.class);
+
+            Set<String> present = new HashSet<>();
+            if (existing != null && existing.getMessages() != null) {
+                existing.getMessages().forEach(message -> present.add(message.getId()));
+            }
+            List<Message> missing = messages.stream()
+                    .filter(message -> !present.contains(message.getId()))
+                    .toList();
+            if (missing.isEmpty()) {
+                return 0;
+            }
+
+            if (existing == null) {
+                try {
+                    mongoTemplate.insert(MessageBucket.builder()
+                            .id(bucketId(chatId, bucket))
+                            .chatId(chatId)
+                            .bucket(bucket)
+                            .count(missing.size())
+                            .updatedAt(latest(missing))
+                            .messages(new ArrayList<>(compressor.forStorage(missing)))
+                            .build());
+                    return missing.size();
+                } catch (DuplicateKeyException e) {
+                    // Бакет успела создать живая запись
+                    continue;
+                }
+            }
+
+            Query unchanged = Query.query(Criteria.where("_id").is(bucketId(chatId, bucket))
+                    .and("count").is(existing.getCount()));
+            Update update = new Update()
+                    .inc("count", missing.size())
+                    .max("updatedAt", latest(missing));
+            update.push("messages").each(compressor.forStorage(missing).toArray());
+            UpdateResult result = mongoTemplate.updateFirst(unchanged, update, MessageBucket.class);
+            if (result.getMatchedCount() > 0) {
+                return missing.size();
+            }
+        }
+        throw new IllegalStateException("Bucket " + bucketId(chatId, bucket) + " keeps changing, backfill gave up");
+    }
+
+    @Override
+    public List<Message> findRange(String chatId, int first, int last) {
+        if (last < first || last < 1) {
+            return List.of();
+        }
+        Query query = Query.query(Criteria.where("chatId").is(chatId)
+                        .and("bucket").gte(bucketOf(Math.max(first, 1))).lte(bucketOf(last)))
+                .with(Sort.by("bucket"));
+        return messagesOf(mongoTemplate.find(query, MessageBucket.class)).stream()
+                .filter(message -> message.getSequenceNumber() >= first && message.getSequenceNumber() <= last)
+                .toList();
+    }
+
+    @Override
+    public List<Message> findLast(String chatId, int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        // Бакеты с конца, пока в них не наберется limit сообщений
+        List<MessageBucket> buckets = new ArrayList<>();
+        int collected = 0;
+        Query query = Query.query(Criteria.where("chatId").is(chatId)).with(Sort.by(Sort.Direction.DESC, "bucket"));
+        try (Stream<MessageBucket> stream = mongoTemplate.stream(query, MessageBucket.class)) {
+            for (MessageBucket bucket : (Iterable<MessageBucket>) stream::iterator) {
+                buckets.add(bucket);
+                collected += bucket.getMessages() == null ? 0 : bucket.getMessages().size();
+                if (collected >= limit) {
+                    break;
+                }
+            }
+        }
+        List<Message> messages = messagesOf(buckets);
+        return messages.subList(Math.max(0, messages.size() - limit), messages.size());
+    }
+
+    @Override
+    public Page<Message> findPage(String chatId, Pageable pageable) {
+        if (pageable.isUnpaged()) {
+            List<Message> messages = findAll(chatId);
+            return new PageImpl<>(messages, pageable, messages.size());
+        }
+
+        // Сначала размеры бакетов, затем только бакеты, покрывающие страницу
+        Query headers = Query.query(Criteria.where("chatId").is(chatId)).with(Sort.by("bucket"));
+        headers.fields().include("bucket").include("count");
+        long offset = pageable.getOffset();
+        long end = offset + pageable.getPageSize();
+        long total = 0;
+        long firstPosition = -1;
+        List<String> covering = new ArrayList<>();
+        for (MessageBucket header : mongoTemplate.find(headers, MessageBucket.class)) {
+            int count = header.getCount() == null ? 0 : header.getCount();
+            if (total + count > offset && total < end) {
+                covering.add(header.getId());
+                if (firstPosition < 0) {
+                    firstPosition = total;
+                }
+            }
+            total += count;
+        }
+        if (covering.isEmpty()) {
+            return new PageImpl<>(List.of(), pageable, total);
+        }
+
+        Query query = Query.query(Criteria.where("_id").in(covering));
+        List<Message> messages = messagesOf(mongoTemplate.find(query, MessageBucket.class));
+        int from = (int) Math.min(messages.size(), offset - firstPosition);
+        int to = (int) Math.min(messages.size(), end - firstPosition);
+        return new PageImpl<>(new ArrayList<>(messages.subList(from, to)), pageable, total);
+    }
+
+    @Override
+    public List<Message> findAll(String chatId) {
+        Query query = Query.query(Criteria.where("chatId").is(chatId)).with(Sort.by("bucket"));
+        return messagesOf(mongoTemplate.find(query, MessageBucket.class));
+    }
+
+    @Override
+    public List<Message> findByIds(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Set<String> wanted = new HashSet<>(ids);
+        Query query = Query.query(Criteria.where("messages._id").in(wanted));
+        return mongoTemplate.find(query, MessageBucket.class).stream()
+                .flatMap(bucket -> bucket.getMessages().stream())
+                .filter(message -> wanted.contains(message.getId()))
+                .toList();
+    }
+
+    @Override
+    public Stream<Message> streamSince(LocalDateTime timestamp) {
+        Query query = Query.query(Criteria.where("updatedAt").gt(timestamp));
+        return mongoTemplate.stream(query, MessageBucket.class)
+                .flatMap(bucket -> messagesOf(List.of(bucket)).stream())
+                .filter(message -> message.getTimestamp() != null && message.getTimestamp().isAfter(timestamp));
+    }
+
+    @Override
+    public Stream<Message> streamAll() {
+        return mongoTemplate.stream(new Query(), MessageBucket.class)
+                .flatMap(bucket -> messagesOf(List.of(bucket)).stream());
+    }
+
+    @Override
+    public long count(String chatId) {
+        Query query = Query.query(Criteria.where("chatId").is(chatId));
+        query.fields().include("count");
+        return mongoTemplate.find(query, MessageBucket.class).stream()
+                .mapToLong(bucket -> bucket.getCount() == null ? 0 : bucket.getCount())
+                .sum();
+    }
+
+    @Override
+    public List<String> findAttachmentRefs(String chatId) {
+        Query query = Query.query(Criteria.where("chatId").is(chatId).and("messages.attachments.dataRef").exists(true));
+        query.fields().include("messages.attachments.dataRef");
+        List<String> refs = new ArrayList<>();
+        try (Stream<MessageBucket> buckets = mongoTemplate.stream(query, MessageBucket.class)) {
+            buckets.forEach(bucket -> bucket.getMessages().forEach(message -> DocumentMessageStore.addRefs(message, refs)));
+        }
+        return refs;
+    }
+
+    @Override
+    public void deleteChat(String chatId) {
+        mongoTemplate.remove(Query.query(Criteria.where("chatId").is(chatId)), MessageBucket.class);
+    }
+
+    /**
+     * Сообщения вырезаются из бакетов чата одним обновлением, count пересчитывается по тому,
+     * что осталось, поэтому сообщения, которых в бакетах не было, его не сбивают. Опустевшие
+     * бакеты удаляются.
+     */
+    @Override
+    public void deleteMessages(String chatId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<String> ids = messages.stream().map(Message::getId).toList();
+        AggregationUpdate update = AggregationUpdate.update()
+                .set("messages").toValue(ArrayOperators.Filter.filter("messages").as("message")
+                        .by(BooleanOperators.Not.not(ArrayOperators.In.arrayOf(ids).containsValue("$$message._id"))))
+                .set("count").toValue(ArrayOperators.Size.lengthOfArray("messages"));
+        mongoTemplate.updateMulti(Query.query(Criteria.where("chatId").is(chatId).and("messages._id").in(ids)),
+                update, MessageBucket.class);
+        mongoTemplate.remove(Query.query(Criteria.where("chatId").is(chatId).and("count").lte(0)), MessageBucket.class);
+    }
+
+    public int getBucketSize() {
+        return bucketSize;
+    }
+
+    public int bucketOf(int sequenceNumber) {
+        return (sequenceNumber - 1) / bucketSize;
+    }
+
+    private int bucketOf(Message message) {
+        if (message.getChatId() == null || message.getSequenceNumber() == null) {
+            throw new IllegalArgumentException("Bucketed messages need a chatId and a sequenceNumber: " + message.getId());
+        }
+        return bucketOf(message.getSequenceNumber());
+    }
+
+    private Update append(String chatId, int bucket, List<Message> messages) {
+        Update update = new Update()
+                .setOnInsert("chatId", chatId)
+                .setOnInsert("bucket", bucket)
+                .inc("count", messages.size())
+                .max("updatedAt", latest(messages));
+        update.push("messages").each(compressor.forStorage(messages).toArray());
+        return update;
+    }
+
+    private static LocalDateTime latest(List<Message> messages) {
+        return messages.stream()
+                .map(Message::getTimestamp)
+                .filter(Objects::nonNull)
+                .max(Comparator.naturalOrder())
+                .orElseGet(LocalDateTime::now);
+    }
+
+    private static List<Message> messagesOf(List<MessageBucket> buckets) {
+        List<Message> messages = new ArrayList<>();
+        for (MessageBucket bucket : buckets) {
+            if (bucket.getMessages() != null) {
+                messages.addAll(bucket.getMessages());
+            }
+        }
+        messages.sort(BY_SEQUENCE);
+        return messages;
+    }
+
+    private static Query withoutAny(String chatId, int bucket, List<Message> messages) {
+        return Query.query(Criteria.where("_id").is(bucketId(chatId, bucket))
+                .and("messages._id").nin(messages.stream().map(Message::getId).toList()));
+    }
+
+    private static Query byId(String chatId, int bucket) {
+        return Query.query(Criteria.where("_id").is(bucketId(chatId, bucket)));
+    }
+
+    static String bucketId(String chatId, int bucket) {
+        return chatId + ":" + bucket;
+    }
+}
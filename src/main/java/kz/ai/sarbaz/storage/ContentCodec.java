@@ -0,0 +1,133 @@
+package kz.ai.sarbaz.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate-кодек для хранения текста сообщений.
+ * <p>
+ * Формат: байт с id словаря, четыре байта с длиной исходного текста в UTF-8, затем raw deflate
+ * поток, начатый с этого словаря. Ответы короткие относительно окна deflate в 32 КБ, поэтому
+ * словарь из фрагментов, повторяющихся между сообщениями (блоки кода, частые фразы на русском и
+ * английском), позволяет даже первому вхождению в сообщении стать обратной ссылкой. Данные
+ * хранят id своего словаря, поэтому новый словарь получает новый id, а старые должны читаться
+ * всегда.
+ * <p>
+ * Deflater и Inflater держат нативное состояние zlib и дорого создаются, поэтому каждый поток
+ * переиспользует по одному экземпляру.
+ */
+public final class ContentCodec {
+
+    public static final int NO_DICTIONARY = 0;
+    public static final int CURRENT_DICTIONARY = 1;
+
+    private static final int HEADER_LENGTH = 5;
+    // deflate не сжимает сильнее чем примерно в 1032 раза
+    private static final int MAX_RATIO = 1032;
+    private static final byte[][] DICTIONARIES = {
+            new byte[0],
+            load("/compression/message-dictionary-1.txt")
+    };
+
+    private static final ThreadLocal<Deflater> DEFLATERS =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private ContentCodec() {
+    }
+
+    public static byte[] compress(String text) {
+        return compress(text, CURRENT_DICTIONARY, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public static byte[] compress(String text, int dictionary, int level) {
+        checkDictionary(dictionary);
+        byte[] input = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        if (DICTIONARIES[dictionary].length > 0) {
+            deflater.setDictionary(DICTIONARIES[dictionary]);
+        }
+        deflater.setInput(input);
+        deflater.finish();
+
+        byte[] output = new byte[HEADER_LENGTH + input.length / 2 + 64];
+        int length = HEADER_LENGTH;
+        while (!deflater.finished()) {
+            if (length == output.length) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        output[0] = (byte) dictionary;
+        output[1] = (byte) (input.length >>> 24);
+        output[2] = (byte) (input.length >>> 16);
+        output[3] = (byte) (input.length >>> 8);
+        output[4] = (byte) input.length;
+        return Arrays.copyOf(output, length);
+    }
+
+    public static String decompress(byte[] data) {
+        if (data.length < HEADER_LENGTH) {
+            throw new IllegalArgumentException("Compressed content is truncated");
+        }
+        int dictionary = data[0];
+        checkDictionary(dictionary);
+        int length = originalLength(data);
+        if (length < 0 || (long) length > (long) (data.length - HEADER_LENGTH) * MAX_RATIO + 64) {
+            throw new IllegalArgumentException("Corrupt compressed content: implausible length " + length);
+        }
+
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        if (DICTIONARIES[dictionary].length > 0) {
+            inflater.setDictionary(DICTIONARIES[dictionary]);
+        }
+        inflater.setInput(data, HEADER_LENGTH, data.length - HEADER_LENGTH);
+        byte[] output = new byte[length];
+        try {
+            int inflated = 0;
+            while (inflated < length) {
+                int n = inflater.inflate(output, inflated, length - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Compressed content is shorter than its header says");
+                }
+                inflated += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed content: " + e.getMessage(), e);
+        }
+        return new String(output, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Размер исходного текста в UTF-8
+     */
+    public static int originalLength(byte[] data) {
+        return (data[1] & 0xff) << 24 | (data[2] & 0xff) << 16 | (data[3] & 0xff) << 8 | (data[4] & 0xff);
+    }
+
+    private static void checkDictionary(int dictionary) {
+        if (dictionary < 0 || dictionary >= DICTIONARIES.length) {
+            throw new IllegalArgumentException("Unknown compression dictionary " + dictionary);
+        }
+    }
+
+    private static byte[] load(String resource) {
+        try (InputStream in = ContentCodec.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Compression dictionary " + resource + " is missing");
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package kz.ai.sarbaz.storage;
+
+import kz.ai.sarbaz.entity.Message;
+import kz.ai.sarbaz.repository.MessageRepository;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Документ на сообщение в коллекции {@code messages}, исходная раскладка
+ */
+public class DocumentMessageStore implements MessageStore {
+
+    private final MessageRepository messageRepository;
+    private final MongoTemplate mongoTemplate;
+    private final MessageCompressor compressor;
+
+    public DocumentMessageStore(MessageRepository messageRepository, MongoTemplate mongoTemplate,
+                                MessageCompressor compressor) {
+        this.messageRepository = messageRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.compressor = compressor;
+    }
+
+    @Override
+    public Message save(Message message) {
+        messageRepository.save(compressor.forStorage(message));
+        return message;
+    }
+
+    @Override
+    public void saveAll(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Message.class).insert(compressor.forStorage(messages)).execute();
+    }
+
+    @Override
+    public List<Message> findRange(String chatId, int first, int last) {
+        // between не включает границы
+        return messageRepository.findByChatIdAndSequenceNumberBetweenOrderBySequenceNumberAsc(chatId, first - 1, last + 1);
+    }
+
+    @Override
+    public List<Message> findLast(String chatId, int limit) {
+        List<Message> messages = new ArrayList<>(
+                messageRepository.findByChatIdOrderBySequenceNumberDesc(chatId, PageRequest.of(0, limit)));
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    @Override
+    public Page<Message> findPage(String chatId, Pageable pageable) {
+        return messageRepository.findByChatIdOrderByTimestampAsc(chatId, pageable);
+    }
+
+    @Override
+    public List<Message> findAll(String chatId) {
+        return messageRepository.findByChatIdOrderByTimestampAsc(chatId, Pageable.unpaged()).getContent();
+    }
+
+    @Override
+    public List<Message> findByIds(Collection<String> ids) {
+        List<Message> messages = new ArrayList<>();
+        messageRepository.findAllById(ids).forEach(messages::add);
+        return messages;
+    }
+
+    @Override
+    public Stream<Message> streamSince(LocalDateTime timestamp) {
+        return messageRepository.findByTimestampAfter(timestamp);
+    }
+
+    @Override
+    public Stream<Message> streamAll() {
+        return mongoTemplate.stream(new Query(), Message.class);
+    }
+
+    @Override
+    public long count(String chatId) {
+        return messageRepository.countByChatId(chatId);
+    }
+
+    @Override
+    public List<String> findAttachmentRefs(String chatId) {
+        Query query = Query.query(Criteria.where("chatId").is(chatId).and("attachments.dataRef").exists(true));
+        query.fields().include("attachments.dataRef");
+        List<String> refs = new ArrayList<>();
+        try (Stream<Message> messages = mongoTemplate.stream(query, Message.class)) {
+            messages.forEach(message -> addRefs(message, refs));
+        }
+        return refs;
+    }
+
+    @Override
+    public void deleteChat(String chatId) {
+        mongoTemplate.remove(Query.query(Criteria.where("chatId").is(chatId)), Message.class);
+    }
+
+    @Override
+    public void deleteMessages(String chatId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        mongoTemplate.remove(Query.query(Criteria.where("chatId").is(chatId)
+                .and("_id").in(messages.stream().map(Message::getId).toList())), Message.class);
+    }
+
+    static void addRefs(Message message, List<String> refs) {
+        if (message.getAttachments() == null) {
+            return;
+        }
+        for (Message.MediaAttachment attachment : message.getAttachments()) {
+            if (attachment.getDataRef() != null) {
+                refs.add(attachment.getDataRef());
+            }
+        }
+    }
+}
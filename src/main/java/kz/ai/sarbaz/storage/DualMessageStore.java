@@ -0,0 +1,112 @@
+package kz.ai.sarbaz.storage;
+
+import kz.ai.sarbaz.entity.Message;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Обе раскладки сразу, для перехода с документов на бакеты без простоя.
+ * <p>
+ * Запись идет сначала в документы, которые остаются источником истины, затем в бакеты; ошибка
+ * записи в бакет только логируется, потому что миграция дописывает все, чего в бакетах нет.
+ * Чтение идет из одной стороны: из документов, пока миграция не проверена, затем из бакетов
+ * как теневое чтение перед переключением {@code app.messages.store} на {@code bucketed}.
+ */
+@Slf4j
+public class DualMessageStore implements MessageStore {
+
+    private final DocumentMessageStore documents;
+    private final BucketedMessageStore buckets;
+    private final MessageStore reads;
+
+    public DualMessageStore(DocumentMessageStore documents, BucketedMessageStore buckets, boolean readBuckets) {
+        this.documents = documents;
+        this.buckets = buckets;
+        this.reads = readBuckets ? buckets : documents;
+    }
+
+    @Override
+    public Message save(Message message) {
+        Message saved = documents.save(message);
+        try {
+            buckets.save(saved);
+        } catch (Exception e) {
+            log.warn("Failed to append message {} to its bucket, left to the migration: {}", saved.getId(), e.getMessage());
+        }
+        return saved;
+    }
+
+    @Override
+    public void saveAll(List<Message> messages) {
+        documents.saveAll(messages);
+        try {
+            buckets.saveAll(messages);
+        } catch (Exception e) {
+            log.warn("Failed to append {} messages to their buckets, left to the migration: {}", messages.size(), e.getMessage());
+        }
+    }
+
+    @Override
+    public List<Message> findRange(String chatId, int first, int last) {
+        return reads.findRange(chatId, first, last);
+    }
+
+    @Override
+    public List<Message> findLast(String chatId, int limit) {
+        return reads.findLast(chatId, limit);
+    }
+
+    @Override
+    public Page<Message> findPage(String chatId, Pageable pageable) {
+        return reads.findPage(chatId, pageable);
+    }
+
+    @Override
+    public List<Message> findAll(String chatId) {
+        return reads.findAll(chatId);
+    }
+
+    @Override
+    public List<Message> findByIds(Collection<String> ids) {
+        return reads.findByIds(ids);
+    }
+
+    @Override
+    public Stream<Message> streamSince(LocalDateTime timestamp) {
+        return reads.streamSince(timestamp);
+    }
+
+    @Override
+    public Stream<Message> streamAll() {
+        return reads.streamAll();
+    }
+
+    @Override
+    public long count(String chatId) {
+        return reads.count(chatId);
+    }
+
+    @Override
+    public List<String> findAttachmentRefs(String chatId) {
+        // Миграция могла еще не дойти до этого чата, полный набор есть только в документах
+        return documents.findAttachmentRefs(chatId);
+    }
+
+    @Override
+    public void deleteChat(String chatId) {
+        documents.deleteChat(chatId);
+        buckets.deleteChat(chatId);
+    }
+
+    @Override
+    public void deleteMessages(String chatId, List<Message> messages) {
+        documents.deleteMessages(chatId, messages);
+        buckets.deleteMessages(chatId, messages);
+    }
+}
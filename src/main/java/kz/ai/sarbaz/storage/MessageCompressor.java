@@ -0,0 +1,66 @@
+package kz.ai.sarbaz.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import kz.ai.sarbaz.entity.Message;
+
+import java.util.List;
+
+/**
+ * Решает, какие сообщения хранить сжатыми.
+ * <p>
+ * Текст от {@code minLength} символов сжимается {@link ContentCodec} и остается сжатым, только если
+ * это экономит не меньше {@code minSavings} размера; все остальное, включая короткие вопросы,
+ * остается обычной строкой, которую запросы и инструменты читают напрямую. Сообщение вызывающего
+ * не меняется: хранилища пишут сжатую копию и возвращают исходное сообщение, поэтому код, который
+ * только что его сохранил, читает текст без повторной распаковки.
+ */
+public class MessageCompressor {
+
+    private final boolean enabled;
+    private final int minLength;
+    private final double minSavings;
+    private final Counter rawBytes;
+    private final Counter storedBytes;
+
+    public MessageCompressor(boolean enabled, int minLength, double minSavings, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.minLength = minLength;
+        this.minSavings = minSavings;
+        this.rawBytes = Counter.builder("messages.content.bytes")
+                .description("Size of message content considered for compression, raw and as stored")
+                .tag("form", "raw")
+                .register(meterRegistry);
+        this.storedBytes = Counter.builder("messages.content.bytes")
+                .description("Size of message content considered for compression, raw and as stored")
+                .tag("form", "stored")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Сообщение в том виде, в котором его нужно записать: сжатая копия или оно само
+     */
+    public Message forStorage(Message message) {
+        if (message.getCompressedContent() != null) {
+            return message;
+        }
+        String content = message.getContent();
+        if (!enabled || content == null || content.length() < minLength) {
+            return message;
+        }
+
+        byte[] compressed = ContentCodec.compress(content);
+        long raw = ContentCodec.originalLength(compressed);
+        rawBytes.increment(raw);
+        if (compressed.length > raw * (1 - minSavings)) {
+            storedBytes.increment(raw);
+            return message;
+        }
+        storedBytes.increment(compressed.length);
+        return message.withCompressedContent(compressed);
+    }
+
+    public List<Message> forStorage(List<Message> messages) {
+        return messages.stream().map(this::forStorage).toList();
+    }
+}
@@ -0,0 +1,83 @@
+package kz.ai.sarbaz.storage;
+
+import kz.ai.sarbaz.entity.Message;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Хранилище сообщений чатов, не зависящее от раскладки документов.
+ * <p>
+ * Сообщения чата упорядочены по {@code sequenceNumber}, который атомарно назначает
+ * {@code ChatService}, поэтому все чтения здесь хронологические. Реализации: документ на сообщение
+ * ({@link DocumentMessageStore}), бакеты фиксированного размера ({@link BucketedMessageStore}) и
+ * обе сразу на время миграции ({@link DualMessageStore}); выбирается через {@code app.messages.store}.
+ */
+public interface MessageStore {
+
+    /**
+     * Добавить сообщение; chatId и sequenceNumber должны быть заданы
+     */
+    Message save(Message message);
+
+    /**
+     * Добавить сообщения, возможно разных чатов, минимальным числом записей
+     */
+    void saveAll(List<Message> messages);
+
+    /**
+     * Сообщения с номерами от first до last включительно
+     */
+    List<Message> findRange(String chatId, int first, int last);
+
+    /**
+     * Последние limit сообщений чата
+     */
+    List<Message> findLast(String chatId, int limit);
+
+    /**
+     * Страница сообщений чата, старые первыми
+     */
+    Page<Message> findPage(String chatId, Pageable pageable);
+
+    /**
+     * Все сообщения чата
+     */
+    List<Message> findAll(String chatId);
+
+    /**
+     * Сообщения по id в произвольном порядке; неизвестные id пропускаются
+     */
+    List<Message> findByIds(Collection<String> ids);
+
+    /**
+     * Сообщения всех чатов, записанные после указанного времени. Поток нужно закрыть.
+     */
+    Stream<Message> streamSince(LocalDateTime timestamp);
+
+    /**
+     * Все сообщения, чат за чатом. Поток нужно закрыть.
+     */
+    Stream<Message> streamAll();
+
+    long count(String chatId);
+
+    /**
+     * dataRef всех вложений чата, читаются через проекцию без текста сообщений
+     */
+    List<String> findAttachmentRefs(String chatId);
+
+    /**
+     * Удалить все сообщения чата одним запросом
+     */
+    void deleteChat(String chatId);
+
+    /**
+     * Удалить именно эти сообщения чата; записанные после их чтения остаются
+     */
+    void deleteMessages(String chatId, List<Message> messages);
+}
@@ -0,0 +1,63 @@
+package kz.ai.sarbaz.streaming;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Один таймер heartbeat на все SSE-соединения.
+ * <p>
+ * Единственный периодический тик пишет в multicast-sink без гарантии доставки; подписка -
+ * это просто подключение к sink, поэтому простаивающее соединение не держит своего таймера,
+ * а медленный клиент теряет heartbeat вместо того, чтобы копить их в буфере. Стримы генерации
+ * вмешивают те же heartbeat, пока идут, так что клиенту с запросом в работе не нужно
+ * отдельное соединение для heartbeat.
+ */
+@Component
+public class HeartbeatHub {
+
+    private static final String EVENT = "heartbeat";
+    private static final String DATA = "ping";
+
+    private final Sinks.Many<ServerSentEvent<String>> sink = Sinks.many().multicast().directBestEffort();
+    private final AtomicInteger generationStreams = new AtomicInteger();
+
+    public HeartbeatHub(MeterRegistry meterRegistry) {
+        Gauge.builder("sse.heartbeat.subscribers", sink, Sinks.Many::currentSubscriberCount)
+                .description("Connections attached to the shared heartbeat, including generation streams")
+                .register(meterRegistry);
+        Gauge.builder("sse.generation.streams", generationStreams, AtomicInteger::get)
+                .description("Generation streams currently open")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Общие события heartbeat, без id, чтобы они не подменяли id последнего события стрима
+     */
+    public Flux<ServerSentEvent<String>> heartbeats() {
+        return sink.asFlux();
+    }
+
+    /**
+     * Вмешивать heartbeat в стрим генерации, пока он не завершится
+     */
+    public Flux<ServerSentEvent<String>> withHeartbeats(Flux<ServerSentEvent<String>> events) {
+        return events.publish(shared -> Flux.merge(shared, heartbeats().takeUntilOther(shared.ignoreElements())))
+                .doOnSubscribe(subscription -> generationStreams.incrementAndGet())
+                .doFinally(signal -> generationStreams.decrementAndGet());
+    }
+
+    @Scheduled(fixedRateString = "${app.heartbeat.interval:15s}")
+    public void tick() {
+        if (sink.currentSubscriberCount() > 0) {
+            // Один экземпляр события на тик, общий для всех подписчиков
+            sink.tryEmitNext(ServerSentEvent.<String>builder().event(EVENT).data(DATA).build());
+        }
+    }
+}
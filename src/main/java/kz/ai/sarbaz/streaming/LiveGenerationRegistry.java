@@ -0,0 +1,122 @@
+package kz.ai.sarbaz.streaming;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Позволяет всем открытым вкладкам чата следить за идущей генерацией.
+ * <p>
+ * Генерация публикуется как повторяющий Flux со счетчиком подписчиков: первый подписчик
+ * (вкладка, отправившая промпт) запускает единственный стрим LLM, следующие зрители получают
+ * уже выданные фрагменты и дальше идут вживую. Стрим LLM отменяется, только когда уходит
+ * последний зритель. У каждого чата есть канал, объявляющий его генерации, поэтому зритель,
+ * подключившийся к простаивающему чату, подхватит следующую.
+ */
+@Component
+public class LiveGenerationRegistry {
+
+    private static final Flux<ServerSentEvent<String>> IDLE = Flux.empty();
+    private static final Sinks.EmitFailureHandler RETRY = Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(100));
+
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+
+    public LiveGenerationRegistry(MeterRegistry meterRegistry) {
+        Gauge.builder("sse.live.channels", channels, Map::size)
+                .description("Chats with a generation in flight or live viewers")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Раздать стрим генерации чата его зрителям. На возвращенный Flux должен подписаться
+     * запрос, который начал генерацию.
+     */
+    public Flux<ServerSentEvent<String>> publish(String chatId, Flux<ServerSentEvent<String>> generation) {
+        // Повтор, переподключившийся после завершения, не должен снова вызывать модель
+        AtomicBoolean started = new AtomicBoolean();
+        AtomicReference<Flux<ServerSentEvent<String>>> self = new AtomicReference<>();
+        Flux<ServerSentEvent<String>> shared = Flux.defer(() -> started.compareAndSet(false, true) ? generation : IDLE)
+                .doFinally(signal -> finished(chatId, self.get()))
+                .replay()
+                .refCount(1);
+        self.set(shared);
+
+        while (true) {
+            Channel channel = channels.computeIfAbsent(chatId, id -> new Channel());
+            synchronized (channel) {
+                if (channel.closed) {
+                    continue;
+                }
+                channel.current = shared;
+                channel.generations.emitNext(shared, RETRY);
+                return shared;
+            }
+        }
+    }
+
+    /**
+     * Следить за чатом: идущая генерация, если есть, затем все следующие
+     */
+    public Flux<ServerSentEvent<String>> live(String chatId) {
+        return Flux.defer(() -> {
+            while (true) {
+                Channel channel = channels.computeIfAbsent(chatId, id -> new Channel());
+                synchronized (channel) {
+                    if (channel.closed) {
+                        continue;
+                    }
+                    channel.viewers++;
+                    return channel.generations.asFlux()
+                            .concatMap(generation -> generation)
+                            .doFinally(signal -> left(chatId, channel));
+                }
+            }
+        });
+    }
+
+    private void finished(String chatId, Flux<ServerSentEvent<String>> generation) {
+        Channel channel = channels.get(chatId);
+        if (channel == null) {
+            return;
+        }
+        synchronized (channel) {
+            // Более новый промпт в том же чате мог уже заменить эту генерацию
+            if (channel.current == generation) {
+                channel.current = null;
+                channel.generations.emitNext(IDLE, RETRY);
+                closeIfUnused(chatId, channel);
+            }
+        }
+    }
+
+    private void left(String chatId, Channel channel) {
+        synchronized (channel) {
+            channel.viewers--;
+            closeIfUnused(chatId, channel);
+        }
+    }
+
+    private void closeIfUnused(String chatId, Channel channel) {
+        if (channel.current == null && channel.viewers == 0 && !channel.closed) {
+            channel.closed = true;
+            channels.remove(chatId, channel);
+        }
+    }
+
+    private static final class Channel {
+        // Новому зрителю повторяется только последняя генерация; после ее конца - IDLE
+        private final Sinks.Many<Flux<ServerSentEvent<String>>> generations = Sinks.many().replay().latest();
+        private Flux<ServerSentEvent<String>> current;
+        private int viewers;
+        private boolean closed;
+    }
+}
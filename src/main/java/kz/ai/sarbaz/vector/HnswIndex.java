@@ -0,0 +1,429 @@
+package kz.ai.sarbaz.vector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Индекс приближенного поиска ближайших соседей (HNSW) по косинусной близости.
+ * <p>
+ * Векторы нормализуются по L2 при вставке и хранятся в одном плоском {@code float[]},
+ * списки соседей - простые {@code int[]} на узел и уровень, поэтому индекс не создает
+ * объектов на каждый вектор. Id узлов плотные и выдаются в порядке вставки.
+ * Вставка берет блокировку на запись, поиски делят блокировку на чтение.
+ */
+public class HnswIndex {
+
+    private static final int MAGIC = 0x484E5357; // "HNSW"
+    private static final int VERSION = 1;
+
+    private final int dimensions;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private float[] vectors;
+    // links[узел][уровень] = {число соседей, n1, n2, ...}
+    private int[][][] links;
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(int dimensions, int m, int efConstruction) {
+        this.dimensions = dimensions;
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.vectors = new float[dimensions * 1024];
+        this.links = new int[1024][][];
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Добавить вектор и вернуть id его узла
+     */
+    public int add(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions, got " + vector.length);
+        }
+
+        lock.writeLock().lock();
+        try {
+            int node = size;
+            ensureCapacity(node + 1);
+            normalizeInto(vector, vectors, node * dimensions);
+
+            int level = randomLevel();
+            links[node] = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                links[node][l] = new int[(l == 0 ? maxM0 : m) + 1];
+            }
+            size++;
+
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return node;
+            }
+
+            int current = entryPoint;
+            for (int l = maxLevel; l > level; l--) {
+                current = greedyClosest(node * dimensions, vectors, current, l);
+            }
+
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                int[] candidates = searchLayer(vectors, node * dimensions, current, efConstruction, l, null);
+                int maxLinks = l == 0 ? maxM0 : m;
+                int[] selected = selectNeighbours(node, candidates, m);
+                for (int neighbour : selected) {
+                    connect(node, neighbour, l, maxLinks);
+                    connect(neighbour, node, l, maxLinks);
+                }
+                if (candidates.length > 0) {
+                    current = candidates[0];
+                }
+            }
+
+            if (level > maxLevel) {
+                maxLevel = level;
+                entryPoint = node;
+            }
+            return node;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Найти до k ближайших узлов, прошедших фильтр, начиная с лучшего
+     */
+    public List<Hit> search(float[] query, int k, int ef, IntPredicate filter) {
+        float[] normalized = new float[dimensions];
+        normalizeInto(query, normalized, 0);
+
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                return List.of();
+            }
+
+            int current = entryPoint;
+            for (int l = maxLevel; l > 0; l--) {
+                current = greedyClosest(0, normalized, current, l);
+            }
+
+            int[] found = searchLayer(normalized, 0, current, Math.max(ef, k), 0, filter);
+            List<Hit> hits = new ArrayList<>(Math.min(k, found.length));
+            for (int i = 0; i < found.length && hits.size() < k; i++) {
+                hits.add(new Hit(found[i], similarity(normalized, 0, found[i])));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Точный поиск по явному набору узлов. Дешевле обхода графа, когда кандидатов
+     * немного, например фрагменты нескольких документов.
+     */
+    public List<Hit> exactSearch(float[] query, int k, int[] nodes) {
+        float[] normalized = new float[dimensions];
+        normalizeInto(query, normalized, 0);
+
+        lock.readLock().lock();
+        try {
+            PriorityQueue<Hit> best = new PriorityQueue<>(k + 1, (a, b) -> Float.compare(a.score(), b.score()));
+            for (int node : nodes) {
+                if (node < 0 || node >= size) {
+                    continue;
+                }
+                best.add(new Hit(node, similarity(normalized, 0, node)));
+                if (best.size() > k) {
+                    best.poll();
+                }
+            }
+            List<Hit> hits = new ArrayList<>(best);
+            hits.sort((a, b) -> Float.compare(b.score(), a.score()));
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Записать индекс в файл, отображенный в память. Файл пишется рядом с целевым и
+     * перемещается на его место, чтобы сбой не оставил недописанный индекс.
+     */
+    public void save(Path file) throws IOException {
+        lock.readLock().lock();
+        try {
+            long bytes = 4L * 7 + 4L * size * dimensions;
+            for (int node = 0; node < size; node++) {
+                bytes += 4;
+                for (int[] layer : links[node]) {
+                    bytes += 4L * (layer[0] + 1);
+                }
+            }
+
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(dimensions).putInt(m)
+                        .putInt(size).putInt(entryPoint).putInt(maxLevel);
+                buffer.asFloatBuffer().put(vectors, 0, size * dimensions);
+                buffer.position(buffer.position() + 4 * size * dimensions);
+                for (int node = 0; node < size; node++) {
+                    buffer.putInt(links[node].length);
+                    for (int[] layer : links[node]) {
+                        buffer.putInt(layer[0]);
+                        for (int i = 1; i <= layer[0]; i++) {
+                            buffer.putInt(layer[i]);
+                        }
+                    }
+                }
+                buffer.force();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Загрузить индекс, ранее записанный {@link #save(Path)}
+     */
+    public static HnswIndex load(Path file, int efConstruction) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not an HNSW index file: " + file);
+            }
+
+            int dimensions = buffer.getInt();
+            int m = buffer.getInt();
+            int size = buffer.getInt();
+            HnswIndex index = new HnswIndex(dimensions, m, efConstruction);
+            index.entryPoint = buffer.getInt();
+            index.maxLevel = buffer.getInt();
+            index.ensureCapacity(size);
+
+            buffer.asFloatBuffer().get(index.vectors, 0, size * dimensions);
+            buffer.position(buffer.position() + 4 * size * dimensions);
+            for (int node = 0; node < size; node++) {
+                int levels = buffer.getInt();
+                index.links[node] = new int[levels][];
+                for (int l = 0; l < levels; l++) {
+                    int count = buffer.getInt();
+                    int[] layer = new int[(l == 0 ? index.maxM0 : m) + 1];
+                    layer[0] = count;
+                    for (int i = 1; i <= count; i++) {
+                        layer[i] = buffer.getInt();
+                    }
+                    index.links[node][l] = layer;
+                }
+            }
+            index.size = size;
+            return index;
+        }
+    }
+
+    private int greedyClosest(int queryOffset, float[] queryArray, int start, int level) {
+        int current = start;
+        float currentScore = similarity(queryArray, queryOffset, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] layer = links[current][level];
+            for (int i = 1; i <= layer[0]; i++) {
+                float score = similarity(queryArray, queryOffset, layer[i]);
+                if (score > currentScore) {
+                    currentScore = score;
+                    current = layer[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Поиск по принципу "лучший первым" на одном уровне. Возвращает id узлов по убыванию близости.
+     * Отфильтрованные узлы обходятся, но не возвращаются.
+     */
+    private int[] searchLayer(float[] queryArray, int queryOffset, int start, int ef, int level, IntPredicate filter) {
+        BitSet visited = new BitSet(size);
+        // candidates: max-куча по оценке, results: min-куча по оценке
+        PriorityQueue<long[]> candidates = new PriorityQueue<>((a, b) -> Float.compare(score(b), score(a)));
+        PriorityQueue<long[]> results = new PriorityQueue<>((a, b) -> Float.compare(score(a), score(b)));
+
+        float startScore = similarity(queryArray, queryOffset, start);
+        visited.set(start);
+        candidates.add(entry(start, startScore));
+        if (filter == null || filter.test(start)) {
+            results.add(entry(start, startScore));
+        }
+
+        while (!candidates.isEmpty()) {
+            long[] candidate = candidates.poll();
+            if (results.size() >= ef && score(candidate) < score(results.peek())) {
+                break;
+            }
+
+            int[] layer = links[(int) candidate[0]][level];
+            for (int i = 1; i <= layer[0]; i++) {
+                int neighbour = layer[i];
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+
+                float score = similarity(queryArray, queryOffset, neighbour);
+                if (results.size() < ef || score > score(results.peek())) {
+                    candidates.add(entry(neighbour, score));
+                    if (filter == null || filter.test(neighbour)) {
+                        results.add(entry(neighbour, score));
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+
+        int[] ordered = new int[results.size()];
+        for (int i = ordered.length - 1; i >= 0; i--) {
+            ordered[i] = (int) results.poll()[0];
+        }
+        return ordered;
+    }
+
+    /**
+     * Эвристика выбора соседей из статьи о HNSW: кандидат остается, только если он ближе
+     * к новому узлу, чем к каждому из уже выбранных соседей.
+     */
+    private int[] selectNeighbours(int node, int[] candidates, int limit) {
+        int[] selected = new int[Math.min(limit, candidates.length)];
+        int count = 0;
+        for (int candidate : candidates) {
+            if (count == selected.length) {
+                break;
+            }
+            float toNode = similarity(vectors, node * dimensions, candidate);
+            boolean keep = true;
+            for (int i = 0; i < count; i++) {
+                if (similarity(vectors, selected[i] * dimensions, candidate) > toNode) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[count++] = candidate;
+            }
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    private void connect(int from, int to, int level, int maxLinks) {
+        int[] layer = links[from][level];
+        if (layer[0] < maxLinks) {
+            layer[++layer[0]] = to;
+            return;
+        }
+
+        // Заменить самую слабую связь, если новая ближе
+        int weakest = -1;
+        float weakestScore = similarity(vectors, from * dimensions, to);
+        for (int i = 1; i <= layer[0]; i++) {
+            float score = similarity(vectors, from * dimensions, layer[i]);
+            if (score < weakestScore) {
+                weakestScore = score;
+                weakest = i;
+            }
+        }
+        if (weakest > 0) {
+            layer[weakest] = to;
+        }
+    }
+
+    private float similarity(float[] queryArray, int queryOffset, int node) {
+        int nodeOffset = node * dimensions;
+        float sum = 0f;
+        for (int i = 0; i < dimensions; i++) {
+            sum += queryArray[queryOffset + i] * vectors[nodeOffset + i];
+        }
+        return sum;
+    }
+
+    private int randomLevel() {
+        return (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+    }
+
+    private void ensureCapacity(int nodes) {
+        if (nodes * dimensions > vectors.length) {
+            vectors = Arrays.copyOf(vectors, Math.max(vectors.length * 2, nodes * dimensions));
+        }
+        if (nodes > links.length) {
+            links = Arrays.copyOf(links, Math.max(links.length * 2, nodes));
+        }
+    }
+
+    private void normalizeInto(float[] source, float[] target, int offset) {
+        double norm = 0;
+        for (float v : source) {
+            norm += v * v;
+        }
+        float scale = norm == 0 ? 0f : (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < dimensions; i++) {
+            target[offset + i] = source[i] * scale;
+        }
+    }
+
+    private static long[] entry(int node, float score) {
+        return new long[]{node, Float.floatToRawIntBits(score)};
+    }
+
+    private static float score(long[] entry) {
+        return Float.intBitsToFloat((int) entry[1]);
+    }
+
+    /**
+     * Результат поиска: id узла и косинусная близость
+     */
+    public record Hit(int node, float score) {
+    }
+}
@@ -7,6 +7,7 @@ const API = {
     // Base endpoints for different resources
     endpoints: {
         chats: '/chats',
+        search: '/chats/search',
         prompt: '/chats/prompt',
         streamingPrompt: '/chats/streaming/prompt',
         health: '/chats/health',
@@ -30,6 +31,34 @@ const API = {
         }
     },
 
+    /**
+     * Full-text search over chat titles and messages
+     * @param {string} query - Search query
+     * @param {number} limit - Maximum number of chats to return
+     * @returns {Promise} Promise that resolves to ranked results with snippets
+     */
+    searchChats: async (query, limit = 20) => {
+        try {
+            const response = await axios.get(API.endpoints.search, { params: { q: query, limit } });
+            return response.data;
+        } catch (error) {
+            console.error('Error searching chats:', error);
+            throw error;
+        }
+    },
+
+    /**
+     * Follow model responses of a chat, including one already being generated in another tab
+     * @param {string} chatId - Chat ID
+     * @param {Function} onChunk - Called with every streamed chunk
+     * @returns {EventSource} Event source; call close() to stop following
+     */
+    followChat: (chatId, onChunk) => {
+        const source = new EventSource(`${API.endpoints.chats}/${encodeURIComponent(chatId)}/live`);
+        source.addEventListener('message', (event) => onChunk(event.data, event.lastEventId));
+        return source;
+    },
+
     /**
      * Create a new chat
      * @param {string} model - Model name to use
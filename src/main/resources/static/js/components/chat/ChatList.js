@@ -66,6 +66,14 @@ const ChatList = {
         
         loadChats() {
             this.$emit('load-chats');
+        },
+        
+        tokenUsage(chat) {
+            const prompt = chat.promptTokens || 0;
+            const completion = chat.completionTokens || 0;
+            return prompt + completion > 0
+                ? `Токены: ${prompt} запрос / ${completion} ответ`
+                : '';
         }
     }
 };
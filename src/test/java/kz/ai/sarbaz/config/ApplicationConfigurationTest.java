@@ -0,0 +1,66 @@
+package kz.ai.sarbaz.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import kz.ai.sarbaz.llm.LlmScheduler;
+import kz.ai.sarbaz.llm.ModelResidencyManager;
+import kz.ai.sarbaz.llm.ProviderRouter;
+import kz.ai.sarbaz.metrics.LlmMetrics;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.autoconfigure.chat.model.ToolCallingAutoConfiguration;
+import org.springframework.ai.autoconfigure.mistralai.MistralAiAutoConfiguration;
+import org.springframework.ai.autoconfigure.retry.SpringAiRetryAutoConfiguration;
+import org.springframework.ai.ollama.OllamaChatModel;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.web.client.RestClientAutoConfiguration;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Провайдеры маршрутизатора с настоящей автоконфигурацией Mistral и заглушками Ollama
+ */
+class ApplicationConfigurationTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            // Длительности вида 2m в @Value, как в приложении
+            .withInitializer(context -> context.getBeanFactory()
+                    .setConversionService(ApplicationConversionService.getSharedInstance()))
+            .withConfiguration(AutoConfigurations.of(MistralAiAutoConfiguration.class,
+                    SpringAiRetryAutoConfiguration.class, ToolCallingAutoConfiguration.class,
+                    RestClientAutoConfiguration.class))
+            .withUserConfiguration(ApplicationConfiguration.class)
+            .withBean(OllamaChatModel.class, () -> mock(OllamaChatModel.class))
+            .withBean(ModelResidencyManager.class, ApplicationConfigurationTest::residencyManager)
+            .withBean(LlmMetrics.class, () -> mock(LlmMetrics.class))
+            .withBean(LlmScheduler.class, () -> mock(LlmScheduler.class))
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+            .withPropertyValues("spring.ai.mistralai.embedding.enabled=false");
+
+    @Test
+    void mistralIsAProviderWhenEnabled() {
+        contextRunner
+                .withPropertyValues("spring.ai.mistralai.chat.enabled=true", "spring.ai.mistralai.api-key=test")
+                .run(context -> assertThat(context.getBean(ProviderRouter.class).getProviders())
+                        .containsExactlyInAnyOrder("ollama", "mistral"));
+    }
+
+    @Test
+    void onlyOllamaWhenMistralIsDisabled() {
+        contextRunner
+                .withPropertyValues("spring.ai.mistralai.chat.enabled=false")
+                .run(context -> assertThat(context.getBean(ProviderRouter.class).getProviders())
+                        .containsExactly("ollama"));
+    }
+
+    private static ModelResidencyManager residencyManager() {
+        ModelResidencyManager manager = mock(ModelResidencyManager.class);
+        when(manager.getHosts()).thenReturn(List.of("http://localhost:11434"));
+        return manager;
+    }
+}
@@ -0,0 +1,64 @@
+package kz.ai.sarbaz.entity;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kz.ai.sarbaz.storage.ContentCodec;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageTest {
+
+    private static final String TEXT = "Длинный ответ ассистента, который хранится сжатым. ".repeat(20);
+
+    @Test
+    void compressedContentIsInflatedOnFirstRead() {
+        Message message = compressed();
+
+        assertThat(ReflectionTestUtils.getField(message, "content")).isNull();
+        assertThat(message.getContent()).isEqualTo(TEXT);
+        assertThat(ReflectionTestUtils.getField(message, "content")).isEqualTo(TEXT);
+    }
+
+    @Test
+    void setContentDropsCompressedContent() {
+        Message message = compressed();
+
+        message.setContent("edited");
+
+        assertThat(message.getCompressedContent()).isNull();
+        assertThat(message.getContent()).isEqualTo("edited");
+    }
+
+    @Test
+    void compressedCopyKeepsTheOriginalIntact() {
+        Message original = Message.builder().id("m1").chatId("c1").content(TEXT).sequenceNumber(3).build();
+
+        Message copy = original.withCompressedContent(ContentCodec.compress(TEXT));
+
+        assertThat(ReflectionTestUtils.getField(copy, "content")).isNull();
+        assertThat(copy.getSequenceNumber()).isEqualTo(3);
+        assertThat(original.getCompressedContent()).isNull();
+        assertThat(original.getContent()).isEqualTo(TEXT);
+    }
+
+    @Test
+    void jsonCarriesTextNotCompressedContent() throws Exception {
+        String json = new ObjectMapper().findAndRegisterModules().writeValueAsString(compressed());
+
+        assertThat(json).doesNotContain("compressedContent");
+        assertThat(json).contains("\"content\"");
+        assertThat(new ObjectMapper().findAndRegisterModules().readValue(json, Message.class).getContent())
+                .isEqualTo(TEXT);
+    }
+
+    private static Message compressed() {
+        return Message.builder()
+                .id("m1")
+                .chatId("c1")
+                .type(Message.MessageType.ASSISTANT)
+                .compressedContent(ContentCodec.compress(TEXT))
+                .sequenceNumber(1)
+                .build();
+    }
+}
@@ -0,0 +1,82 @@
+package kz.ai.sarbaz.llm;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * /api/ps is served by a local stub that reports models with their full tag, as Ollama does.
+ */
+class ModelResidencyManagerTest {
+
+    private HttpServer server;
+
+    @AfterEach
+    void stopServer() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void untaggedWarmupModelMatchesLatestFromPs() throws Exception {
+        String host = ps("{\"models\":[{\"name\":\"llama3.2:latest\",\"expires_at\":\"2099-01-01T00:00:00Z\"}]}");
+        ModelResidencyManager manager = manager(host, Set.of("llama3.2"));
+
+        manager.refresh();
+
+        assertThat(manager.isResident(host, "llama3.2")).isTrue();
+        assertThat(manager.isResident(host, "llama3.2:latest")).isTrue();
+        assertThat(manager.isReady()).isTrue();
+        @SuppressWarnings("unchecked")
+        Map<String, String> models = (Map<String, String>) ((Map<String, Object>) manager.residency().get(host)).get("models");
+        assertThat(models).containsExactly(Map.entry("llama3.2:latest", "warm"));
+    }
+
+    @Test
+    void otherTagsStayDistinct() throws Exception {
+        String host = ps("{\"models\":[{\"name\":\"llama3.2:3b\",\"expires_at\":\"2099-01-01T00:00:00Z\"}]}");
+        ModelResidencyManager manager = manager(host, Set.of());
+
+        manager.refresh();
+
+        assertThat(manager.isResident(host, "llama3.2:3b")).isTrue();
+        assertThat(manager.isResident(host, "llama3.2")).isFalse();
+    }
+
+    @Test
+    void registryPortIsNotATag() {
+        assertThat(ModelResidencyManager.withTag("registry.local:5000/team/model"))
+                .isEqualTo("registry.local:5000/team/model:latest");
+        assertThat(ModelResidencyManager.withTag("registry.local:5000/team/model:q4")).isEqualTo("registry.local:5000/team/model:q4");
+    }
+
+    private String ps(String body) throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/ps", exchange -> {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static ModelResidencyManager manager(String host, Set<String> warmupModels) {
+        return new ModelResidencyManager(List.of(host), warmupModels, Duration.ofSeconds(5),
+                "30m", "5m", 5, Duration.ofMinutes(10));
+    }
+}
@@ -0,0 +1,214 @@
+package kz.ai.sarbaz.llm;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.ollama.OllamaChatModel;
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.ai.ollama.api.OllamaOptions;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Both providers are Ollama-protocol stubs on local ports, so routing is exercised end to end
+ * through the real Spring AI clients.
+ */
+class ProviderRouterTest {
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @AfterEach
+    void stopServers() {
+        servers.forEach(server -> server.stop(0));
+    }
+
+    @Test
+    void streamFailsOverWhenPrimaryErrors() throws Exception {
+        Stub primary = stub(500, Duration.ZERO, "primary");
+        Stub secondary = stub(200, Duration.ZERO, "secondary");
+        ProviderRouter router = router(primary, secondary, false, Duration.ofSeconds(5));
+
+        assertThat(streamed(router)).isEqualTo("secondary");
+        assertThat(primary.requests.get()).isEqualTo(1);
+        assertThat(meterRegistry.counter("router.llm.failovers", "provider", "primary", "model", "m").count()).isEqualTo(1);
+    }
+
+    @Test
+    void callFailsOverWhenPrimaryErrors() throws Exception {
+        Stub primary = stub(500, Duration.ZERO, "primary");
+        Stub secondary = stub(200, Duration.ZERO, "secondary");
+        ProviderRouter router = router(primary, secondary, false, Duration.ofSeconds(5));
+
+        ChatResponse response = router.asChatModel().call(prompt());
+        assertThat(response.getResult().getOutput().getText()).isEqualTo("secondary");
+    }
+
+    @Test
+    void callFailoverKeepsTheChatId() {
+        List<String> seen = new ArrayList<>();
+        ChatModel failing = prompt -> {
+            seen.add(ChatAffinity.current());
+            throw new IllegalStateException("down");
+        };
+        ChatModel answering = prompt -> {
+            seen.add(ChatAffinity.current());
+            return new ChatResponse(List.of(new Generation(new AssistantMessage("ok"))));
+        };
+        ProviderRouter router = new ProviderRouter(Map.of("primary", failing, "secondary", answering), "primary",
+                "m=primary/m,secondary/m",
+                new ProviderRouter.Settings(Duration.ofSeconds(10), Duration.ofSeconds(10), false,
+                        Duration.ofSeconds(1), Duration.ofSeconds(1)),
+                meterRegistry);
+
+        ChatAffinity.callWith("chat-1", () -> router.asChatModel().call(prompt()));
+
+        assertThat(seen).containsExactly("chat-1", "chat-1");
+    }
+
+    @Test
+    void callOffTheEventLoopStaysOnTheCallersThreadAndTimesOut() {
+        List<Thread> threads = new ArrayList<>();
+        ChatModel hanging = prompt -> {
+            threads.add(Thread.currentThread());
+            try {
+                Thread.sleep(5_000);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("interrupted", e);
+            }
+            return new ChatResponse(List.of(new Generation(new AssistantMessage("late"))));
+        };
+        ChatModel answering = prompt -> {
+            threads.add(Thread.currentThread());
+            return new ChatResponse(List.of(new Generation(new AssistantMessage("ok"))));
+        };
+        ProviderRouter router = new ProviderRouter(Map.of("primary", hanging, "secondary", answering), "primary",
+                "m=primary/m,secondary/m",
+                new ProviderRouter.Settings(Duration.ofSeconds(10), Duration.ofMillis(200), false,
+                        Duration.ofSeconds(1), Duration.ofSeconds(1)),
+                meterRegistry);
+
+        long started = System.nanoTime();
+        ChatResponse response = router.asChatModel().call(prompt());
+
+        assertThat(response.getResult().getOutput().getText()).isEqualTo("ok");
+        assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofSeconds(2));
+        assertThat(threads).containsOnly(Thread.currentThread()).hasSize(2);
+        assertThat(Thread.currentThread().isInterrupted()).isFalse();
+    }
+
+    @Test
+    void hedgedStreamKeepsTheFasterProvider() throws Exception {
+        Stub slow = stub(200, Duration.ofSeconds(3), "slow");
+        Stub fast = stub(200, Duration.ZERO, "fast");
+        ProviderRouter router = router(slow, fast, true, Duration.ofMillis(200));
+
+        long started = System.nanoTime();
+        assertThat(streamed(router)).isEqualTo("fast");
+        assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofSeconds(2));
+        assertThat(meterRegistry.counter("router.llm.hedge.wins", "provider", "fast", "model", "m").count()).isEqualTo(1);
+    }
+
+    @Test
+    void parsesRoutes() {
+        Map<String, List<ProviderRouter.Route>> routes =
+                ProviderRouter.parseRoutes("llama3.2:3b=ollama/llama3.2:3b, mistral/open-mistral-7b;;x=ollama/a/b");
+
+        assertThat(routes.get("llama3.2:3b")).containsExactly(
+                new ProviderRouter.Route("ollama", "llama3.2:3b"),
+                new ProviderRouter.Route("mistral", "open-mistral-7b"));
+        assertThat(routes.get("x")).containsExactly(new ProviderRouter.Route("ollama", "a/b"));
+    }
+
+    private ProviderRouter router(Stub primary, Stub secondary, boolean hedging, Duration hedgeDelay) {
+        Map<String, ChatModel> providers = Map.of(primary.name, primary.model, secondary.name, secondary.model);
+        String routes = "m=" + primary.name + "/m," + secondary.name + "/m";
+        return new ProviderRouter(providers, primary.name, routes,
+                new ProviderRouter.Settings(Duration.ofSeconds(10), Duration.ofSeconds(10), hedging, hedgeDelay, hedgeDelay),
+                meterRegistry);
+    }
+
+    private static String streamed(ProviderRouter router) {
+        return router.asChatModel().stream(prompt())
+                .map(response -> response.getResult() == null || response.getResult().getOutput().getText() == null
+                        ? "" : response.getResult().getOutput().getText())
+                .collect(Collectors.joining())
+                .block(Duration.ofSeconds(10));
+    }
+
+    private static Prompt prompt() {
+        return new Prompt("hello", OllamaOptions.builder().model("m").build());
+    }
+
+    /**
+     * Ollama /api/chat answering with the given status, first-token delay and text
+     */
+    private Stub stub(int status, Duration delay, String text) throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/chat", exchange -> {
+            requests.incrementAndGet();
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            boolean stream = !body.contains("\"stream\":false");
+            try {
+                Thread.sleep(delay.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (status != 200) {
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Type", stream ? "application/x-ndjson" : "application/json");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                if (stream) {
+                    out.write(chunk(text, false));
+                    out.write('\n');
+                    out.write(chunk("", true));
+                    out.write('\n');
+                } else {
+                    out.write(chunk(text, true));
+                }
+            } catch (Exception e) {
+                // Cancelled hedge: the client went away
+            }
+        });
+        server.start();
+        servers.add(server);
+
+        String name = text;
+        OllamaApi api = new OllamaApi("http://127.0.0.1:" + server.getAddress().getPort());
+        OllamaChatModel model = OllamaChatModel.builder()
+                .ollamaApi(api)
+                .defaultOptions(OllamaOptions.builder().model("m").build())
+                .build();
+        return new Stub(name, model, requests);
+    }
+
+    private static byte[] chunk(String content, boolean done) {
+        return ("{\"model\":\"m\",\"created_at\":\"2024-01-01T00:00:00Z\",\"message\":{\"role\":\"assistant\",\"content\":\""
+                + content + "\"},\"done\":" + done + (done ? ",\"done_reason\":\"stop\"" : "") + "}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private record Stub(String name, OllamaChatModel model, AtomicInteger requests) {
+    }
+}
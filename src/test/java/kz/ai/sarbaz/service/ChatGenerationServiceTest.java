@@ -0,0 +1,81 @@
+package kz.ai.sarbaz.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import kz.ai.sarbaz.entity.Chat;
+import kz.ai.sarbaz.entity.Message;
+import kz.ai.sarbaz.metrics.RequestTimeline;
+import kz.ai.sarbaz.streaming.LiveGenerationRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Промпт стриминга собирается так же, как в /chats/prompt: роль со сводкой, история, текущее сообщение
+ */
+class ChatGenerationServiceTest {
+
+    private final ChatModel chatModel = mock(ChatModel.class);
+    private final ChatService chatService = mock(ChatService.class);
+    private final RoleRegistry roleRegistry = mock(RoleRegistry.class);
+    private final ChatGenerationService service = new ChatGenerationService(ChatClient.create(chatModel), chatService,
+            new PromptAssembler(mock(DocumentExtractionService.class), mock(AttachmentRetrievalService.class),
+                    mock(FileStorageService.class)),
+            roleRegistry, new LiveGenerationRegistry(new SimpleMeterRegistry()), mock(UsageAnalyticsService.class));
+
+    @Test
+    void streamedPromptCarriesRoleSummaryAndHistory() {
+        Chat chat = Chat.builder().id("chat").summary("earlier turns").messageCount(3).build();
+        when(chatService.getOrCreateChat(isNull(), eq("model"))).thenReturn(chat);
+        when(chatService.chatExists("chat")).thenReturn(true);
+        when(chatService.getPromptHistory(eq(chat), anyInt())).thenReturn(List.of(
+                message("m1", Message.MessageType.USER, "first question"),
+                message("m2", Message.MessageType.ASSISTANT, "first answer")));
+        when(chatService.saveUserMessage(eq("chat"), eq("second question"), any()))
+                .thenReturn(message("m3", Message.MessageType.USER, "second question"));
+        when(roleRegistry.systemPrompt("analyst")).thenReturn("You are an analyst.");
+        when(chatModel.stream(any(Prompt.class)))
+                .thenReturn(Flux.just(new ChatResponse(List.of(new Generation(new AssistantMessage("ok"))))));
+
+        // Новый чат по SSE приходит без chatId
+        service.streamPrompt("reply", null, "model", "analyst", "second question", List.of(),
+                new RequestTimeline("reply", "model")).events().blockLast();
+
+        ArgumentCaptor<Prompt> prompt = ArgumentCaptor.forClass(Prompt.class);
+        verify(chatModel).stream(prompt.capture());
+        List<org.springframework.ai.chat.messages.Message> messages = prompt.getValue().getInstructions();
+        assertThat(messages).extracting(org.springframework.ai.chat.messages.Message::getMessageType)
+                .containsExactly(MessageType.SYSTEM, MessageType.USER, MessageType.ASSISTANT, MessageType.USER);
+        assertThat(messages.get(0).getText()).contains("You are an analyst.").contains("earlier turns");
+        assertThat(messages.get(1).getText()).isEqualTo("first question");
+        assertThat(messages.get(3).getText()).isEqualTo("second question");
+    }
+
+    private static Message message(String id, Message.MessageType type, String content) {
+        return Message.builder()
+                .id(id)
+                .chatId("chat")
+                .type(type)
+                .content(content)
+                .timestamp(LocalDateTime.now())
+                .build();
+    }
+}
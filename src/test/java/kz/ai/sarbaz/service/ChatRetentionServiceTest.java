@@ -0,0 +1,135 @@
+package kz.ai.sarbaz.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.result.UpdateResult;
+import kz.ai.sarbaz.entity.Chat;
+import kz.ai.sarbaz.entity.ColdMessageSegment;
+import kz.ai.sarbaz.entity.Message;
+import kz.ai.sarbaz.repository.ChatRepository;
+import kz.ai.sarbaz.storage.ContentCodec;
+import kz.ai.sarbaz.storage.MessageStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Перенос и возврат с моками MongoTemplate и MessageStore: проверяется, что сообщения,
+ * записанные параллельно, не удаляются
+ */
+class ChatRetentionServiceTest {
+
+    private static final String CHAT = "chat";
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final ChatRepository chatRepository = mock(ChatRepository.class);
+    private final MessageStore messageStore = mock(MessageStore.class);
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private ChatRetentionService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new ChatRetentionService(mongoTemplate, chatRepository, messageStore,
+                mock(ChatSearchService.class), mock(FileCleanupService.class), objectMapper,
+                true, Duration.ofDays(30), Duration.ZERO, 500);
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(ColdMessageSegment.class)))
+                .thenReturn(mock(BulkOperations.class, RETURNS_SELF));
+        when(mongoTemplate.find(any(Query.class), eq(Chat.class)))
+                .thenReturn(List.of(Chat.builder().id(CHAT).build()));
+    }
+
+    @Test
+    void freezesOnlyChatsNotUpdatedSinceTheCutoff() {
+        when(messageStore.findAll(CHAT)).thenReturn(List.of());
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Chat.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        service.apply();
+
+        ArgumentCaptor<Query> selection = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(selection.capture(), eq(Chat.class));
+        assertThat(selection.getValue().getQueryObject()).containsKey("updatedAt");
+        ArgumentCaptor<Query> freeze = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateFirst(freeze.capture(), any(Update.class), eq(Chat.class));
+        assertThat(freeze.getValue().getQueryObject()).containsKey("updatedAt");
+    }
+
+    @Test
+    void deletesOnlyTheCopiedMessages() {
+        List<Message> copied = List.of(message(1), message(2));
+        when(messageStore.findAll(CHAT)).thenReturn(copied);
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Chat.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        service.apply();
+
+        // Сообщение 3, записанное после чтения, в список не входит и остается в горячем хранилище
+        verify(messageStore).deleteMessages(CHAT, copied);
+        verify(messageStore, never()).deleteChat(anyString());
+    }
+
+    @Test
+    void keepsMessagesWhenTheChatChangedWhileCopying() {
+        when(messageStore.findAll(CHAT)).thenReturn(List.of(message(1)));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Chat.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        service.apply();
+
+        verify(messageStore, never()).deleteMessages(anyString(), any());
+        verify(messageStore, never()).deleteChat(anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void rehydrateMergesWithMessagesAlreadyHot() throws Exception {
+        Chat cold = Chat.builder().id(CHAT).coldAt(LocalDateTime.now()).build();
+        when(chatRepository.findById(CHAT)).thenReturn(Optional.of(cold));
+        when(mongoTemplate.find(any(Query.class), eq(ColdMessageSegment.class))).thenReturn(List.of(
+                ColdMessageSegment.builder()
+                        .id(CHAT + ":0")
+                        .chatId(CHAT)
+                        .segment(0)
+                        .count(2)
+                        .data(ContentCodec.compress(objectMapper.writeValueAsString(List.of(message(1), message(2)))))
+                        .build()));
+        // Ответ, сохраненный в горячее хранилище уже после переноса
+        when(messageStore.findAll(CHAT)).thenReturn(List.of(message(2), message(3)));
+
+        Chat rehydrated = service.rehydrate(cold);
+
+        ArgumentCaptor<List<Message>> restored = ArgumentCaptor.forClass(List.class);
+        verify(messageStore).saveAll(restored.capture());
+        assertThat(restored.getValue()).extracting(Message::getId).containsExactly("m1");
+        verify(messageStore, never()).deleteChat(anyString());
+        assertThat(rehydrated.getColdAt()).isNull();
+    }
+
+    private static Message message(int sequenceNumber) {
+        return Message.builder()
+                .id("m" + sequenceNumber)
+                .chatId(CHAT)
+                .type(Message.MessageType.USER)
+                .content("message " + sequenceNumber)
+                .sequenceNumber(sequenceNumber)
+                .build();
+    }
+}
@@ -0,0 +1,101 @@
+package kz.ai.sarbaz.service;
+
+import kz.ai.sarbaz.entity.ExtractedDocument;
+import kz.ai.sarbaz.entity.ExtractedDocument.ExtractionStatus;
+import kz.ai.sarbaz.repository.ExtractedDocumentRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Репозиторий и хранилище файлов - моки; разбор идет настоящими ридерами Spring AI.
+ */
+class DocumentExtractionServiceTest {
+
+    private static final String HASH = "hash";
+
+    private final ExtractedDocumentRepository repository = mock(ExtractedDocumentRepository.class);
+    private final FileStorageService fileStorageService = mock(FileStorageService.class);
+    private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    private DocumentExtractionService service;
+
+    @BeforeEach
+    void setUp() {
+        executor.initialize();
+        service = new DocumentExtractionService(repository, fileStorageService, executor);
+        ReflectionTestUtils.setField(service, "maxChars", 200_000);
+        ReflectionTestUtils.setField(service, "retryAfter", Duration.ofMinutes(10));
+        when(repository.findById(HASH)).thenReturn(Optional.empty());
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void storageFailureIsRetriedOnceTheDelayPasses() throws Exception {
+        when(fileStorageService.loadAsResource("ref"))
+                .thenThrow(new RuntimeException("Файл не найден: ref"))
+                .thenReturn(new ByteArrayResource("hello".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(extract("text/plain")).isEmpty();
+        ExtractedDocument failed = saved();
+        assertThat(failed.getStatus()).isEqualTo(ExtractionStatus.FAILED);
+        assertThat(failed.getRetryAfter()).isAfter(LocalDateTime.now().plusMinutes(9));
+
+        failed.setRetryAfter(LocalDateTime.now().minusSeconds(1));
+        when(repository.findById(HASH)).thenReturn(Optional.of(failed));
+
+        assertThat(extract("text/plain")).contains("hello");
+    }
+
+    @Test
+    void failureIsNotRetriedBeforeTheDelay() throws Exception {
+        when(repository.findById(HASH)).thenReturn(Optional.of(ExtractedDocument.builder()
+                .contentHash(HASH)
+                .status(ExtractionStatus.FAILED)
+                .retryAfter(LocalDateTime.now().plusMinutes(5))
+                .build()));
+
+        assertThat(extract("text/plain")).isEmpty();
+        verify(fileStorageService, never()).loadAsResource(any());
+    }
+
+    @Test
+    void unparseableFileIsNotRetried() throws Exception {
+        when(fileStorageService.loadAsResource("ref"))
+                .thenReturn(new ByteArrayResource("%PDF-1.7\nnot really a pdf".getBytes(StandardCharsets.US_ASCII)));
+
+        assertThat(extract("application/pdf")).isEmpty();
+        ExtractedDocument failed = saved();
+        assertThat(failed.getStatus()).isEqualTo(ExtractionStatus.FAILED);
+        assertThat(failed.getRetryAfter()).isNull();
+    }
+
+    private Optional<String> extract(String contentType) throws Exception {
+        return service.extractAsync(HASH, "ref", "file", contentType).get();
+    }
+
+    private ExtractedDocument saved() {
+        ArgumentCaptor<ExtractedDocument> captor = ArgumentCaptor.forClass(ExtractedDocument.class);
+        verify(repository).save(captor.capture());
+        return captor.getValue();
+    }
+}
@@ -0,0 +1,219 @@
+package kz.ai.sarbaz.storage;
+
+import com.mongodb.client.result.UpdateResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import kz.ai.sarbaz.entity.Message;
+import kz.ai.sarbaz.entity.MessageBucket;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * MongoTemplate is a mock serving the buckets of one chat from memory, so the bucket and
+ * offset arithmetic is checked without a database.
+ */
+class BucketedMessageStoreTest {
+
+    private static final String CHAT = "chat";
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final List<MessageBucket> buckets = new ArrayList<>();
+    private BucketedMessageStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new BucketedMessageStore(mongoTemplate, 3,
+                new MessageCompressor(false, 0, 0, new SimpleMeterRegistry()));
+        when(mongoTemplate.find(any(Query.class), eq(MessageBucket.class)))
+                .thenAnswer(invocation -> matching(invocation.getArgument(0)));
+    }
+
+    @Test
+    void findPageStartsInsideTheFirstCoveringBucket() {
+        chatWith(8);
+
+        Page<Message> page = store.findPage(CHAT, PageRequest.of(1, 2));
+
+        assertThat(sequenceNumbers(page.getContent())).containsExactly(3, 4);
+        assertThat(page.getTotalElements()).isEqualTo(8);
+    }
+
+    @Test
+    void findPageSkipsBucketsBeforeTheOffset() {
+        chatWith(8);
+
+        Page<Message> page = store.findPage(CHAT, PageRequest.of(1, 3));
+
+        assertThat(sequenceNumbers(page.getContent())).containsExactly(4, 5, 6);
+    }
+
+    @Test
+    void findPageReturnsThePartialLastPage() {
+        chatWith(8);
+
+        Page<Message> page = store.findPage(CHAT, PageRequest.of(2, 3));
+
+        assertThat(sequenceNumbers(page.getContent())).containsExactly(7, 8);
+        assertThat(page.getTotalPages()).isEqualTo(3);
+    }
+
+    @Test
+    void findPagePastTheEndIsEmpty() {
+        chatWith(8);
+
+        Page<Message> page = store.findPage(CHAT, PageRequest.of(5, 3));
+
+        assertThat(page.getContent()).isEmpty();
+        assertThat(page.getTotalElements()).isEqualTo(8);
+    }
+
+    @Test
+    void findRangeOnBucketEdges() {
+        chatWith(8);
+
+        assertThat(sequenceNumbers(store.findRange(CHAT, 3, 4))).containsExactly(3, 4);
+        assertThat(sequenceNumbers(store.findRange(CHAT, 4, 6))).containsExactly(4, 5, 6);
+        assertThat(sequenceNumbers(store.findRange(CHAT, 1, 3))).containsExactly(1, 2, 3);
+        assertThat(sequenceNumbers(store.findRange(CHAT, 6, 7))).containsExactly(6, 7);
+    }
+
+    @Test
+    void findRangeClampsAndRejectsEmptyRanges() {
+        chatWith(8);
+
+        assertThat(sequenceNumbers(store.findRange(CHAT, -2, 2))).containsExactly(1, 2);
+        assertThat(sequenceNumbers(store.findRange(CHAT, 7, 20))).containsExactly(7, 8);
+        assertThat(store.findRange(CHAT, 5, 4)).isEmpty();
+        assertThat(store.findRange(CHAT, -3, 0)).isEmpty();
+    }
+
+    @Test
+    void backfillRetriesWhenTheBucketChangedUnderIt() {
+        when(mongoTemplate.findOne(any(Query.class), eq(MessageBucket.class)))
+                .thenReturn(bucket(0, List.of(message(1))))
+                .thenReturn(bucket(0, List.of(message(1), message(2))));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(MessageBucket.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        int added = store.backfill(CHAT, 0, List.of(message(1), message(2), message(3)));
+
+        // The second attempt sees message 2 written meanwhile and only adds message 3
+        assertThat(added).isEqualTo(1);
+        verify(mongoTemplate, times(2)).updateFirst(any(Query.class), any(Update.class), eq(MessageBucket.class));
+    }
+
+    @Test
+    void backfillRetriesWhenTheBucketIsCreatedConcurrently() {
+        when(mongoTemplate.findOne(any(Query.class), eq(MessageBucket.class)))
+                .thenReturn(null)
+                .thenReturn(bucket(0, List.of(message(1))));
+        when(mongoTemplate.insert(any(MessageBucket.class))).thenThrow(new DuplicateKeyException("chat:0"));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(MessageBucket.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        assertThat(store.backfill(CHAT, 0, List.of(message(1), message(2)))).isEqualTo(1);
+    }
+
+    @Test
+    void backfillGivesUpOnABucketThatKeepsChanging() {
+        when(mongoTemplate.findOne(any(Query.class), eq(MessageBucket.class)))
+                .thenReturn(bucket(0, List.of(message(1))));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(MessageBucket.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        assertThatThrownBy(() -> store.backfill(CHAT, 0, List.of(message(1), message(2))))
+                .isInstanceOf(IllegalStateException.class);
+        verify(mongoTemplate, times(5)).updateFirst(any(Query.class), any(Update.class), eq(MessageBucket.class));
+    }
+
+    @Test
+    void backfillSkipsMessagesAlreadyInTheBucket() {
+        when(mongoTemplate.findOne(any(Query.class), eq(MessageBucket.class)))
+                .thenReturn(bucket(0, List.of(message(1), message(2))));
+
+        assertThat(store.backfill(CHAT, 0, List.of(message(1), message(2)))).isZero();
+    }
+
+    @Test
+    void saveDoesNotAppendAMessageTheBucketAlreadyHolds() {
+        // The bucket exists but holds the message, so the upsert does not match and its insert collides
+        when(mongoTemplate.upsert(any(Query.class), any(Update.class), eq(MessageBucket.class)))
+                .thenThrow(new DuplicateKeyException("chat:1"));
+
+        store.save(message(4));
+
+        verify(mongoTemplate, times(2)).upsert(any(Query.class), any(Update.class), eq(MessageBucket.class));
+    }
+
+    private void chatWith(int messages) {
+        List<Message> all = IntStream.rangeClosed(1, messages).mapToObj(BucketedMessageStoreTest::message).toList();
+        for (int bucket = 0; bucket * 3 < messages; bucket++) {
+            // Concurrent appends may leave a bucket out of order
+            List<Message> content = new ArrayList<>(all.subList(bucket * 3, Math.min(messages, bucket * 3 + 3)));
+            Collections.reverse(content);
+            buckets.add(bucket(bucket, content));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<MessageBucket> matching(Query query) {
+        Document filter = query.getQueryObject();
+        if (filter.containsKey("_id")) {
+            Collection<String> ids = (Collection<String>) ((Document) filter.get("_id")).get("$in");
+            return buckets.stream().filter(bucket -> ids.contains(bucket.getId())).toList();
+        }
+        if (filter.containsKey("bucket")) {
+            Document range = (Document) filter.get("bucket");
+            int from = (Integer) range.get("$gte");
+            int to = (Integer) range.get("$lte");
+            return buckets.stream().filter(bucket -> bucket.getBucket() >= from && bucket.getBucket() <= to).toList();
+        }
+        return buckets;
+    }
+
+    private static MessageBucket bucket(int bucket, List<Message> messages) {
+        return MessageBucket.builder()
+                .id(BucketedMessageStore.bucketId(CHAT, bucket))
+                .chatId(CHAT)
+                .bucket(bucket)
+                .count(messages.size())
+                .messages(new ArrayList<>(messages))
+                .build();
+    }
+
+    private static Message message(int sequenceNumber) {
+        return Message.builder()
+                .id("m" + sequenceNumber)
+                .chatId(CHAT)
+                .type(Message.MessageType.USER)
+                .content("message " + sequenceNumber)
+                .sequenceNumber(sequenceNumber)
+                .build();
+    }
+
+    private static List<Integer> sequenceNumbers(List<Message> messages) {
+        return messages.stream().map(Message::getSequenceNumber).toList();
+    }
+}
@@ -0,0 +1,116 @@
+package kz.ai.sarbaz.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ContentCodecTest {
+
+    private static final String ANSWER = """
+            Вот пример функции на Java:
+
+            ```java
+            public int sum(int a, int b) {
+                return a + b;
+            }
+            ```
+
+            Here is the same function explained step by step. """.repeat(5);
+
+    @Test
+    void roundTripsWithoutDictionary() {
+        byte[] compressed = ContentCodec.compress(ANSWER, ContentCodec.NO_DICTIONARY, Deflater.DEFAULT_COMPRESSION);
+
+        assertThat(compressed[0]).isEqualTo((byte) ContentCodec.NO_DICTIONARY);
+        assertThat(ContentCodec.decompress(compressed)).isEqualTo(ANSWER);
+    }
+
+    @Test
+    void roundTripsWithCurrentDictionary() {
+        byte[] compressed = ContentCodec.compress(ANSWER);
+
+        assertThat(compressed[0]).isEqualTo((byte) ContentCodec.CURRENT_DICTIONARY);
+        assertThat(ContentCodec.decompress(compressed)).isEqualTo(ANSWER);
+        assertThat(ContentCodec.originalLength(compressed)).isEqualTo(ANSWER.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    void roundTripsEmptyText() {
+        assertThat(ContentCodec.decompress(ContentCodec.compress(""))).isEmpty();
+    }
+
+    @Test
+    void dictionaryShrinksShortAnswers() {
+        String answer = "Вот пример функции на Java:\n\n```java\nreturn a + b;\n```";
+        byte[] plain = ContentCodec.compress(answer, ContentCodec.NO_DICTIONARY, Deflater.DEFAULT_COMPRESSION);
+
+        assertThat(ContentCodec.compress(answer)).hasSizeLessThanOrEqualTo(plain.length);
+    }
+
+    @Test
+    void rejectsTruncatedHeader() {
+        assertThatThrownBy(() -> ContentCodec.decompress(new byte[]{1, 0, 0}))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void rejectsTruncatedStream() {
+        byte[] compressed = ContentCodec.compress(ANSWER);
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+
+        assertThatThrownBy(() -> ContentCodec.decompress(truncated))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void rejectsCorruptStream() {
+        byte[] corrupt = ContentCodec.compress(ANSWER);
+        for (int i = 5; i < corrupt.length; i++) {
+            corrupt[i] = (byte) 0xff;
+        }
+
+        assertThatThrownBy(() -> ContentCodec.decompress(corrupt))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void rejectsImplausibleLength() {
+        byte[] negative = ContentCodec.compress(ANSWER);
+        negative[1] = (byte) 0x80;
+        byte[] huge = ContentCodec.compress(ANSWER);
+        huge[1] = 0x7f;
+
+        assertThatThrownBy(() -> ContentCodec.decompress(negative)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ContentCodec.decompress(huge)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void rejectsDataReadWithTheWrongDictionary() {
+        byte[] compressed = ContentCodec.compress(ANSWER);
+        compressed[0] = (byte) ContentCodec.NO_DICTIONARY;
+
+        assertThatThrownBy(() -> ContentCodec.decompress(compressed))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void rejectsUnknownDictionary() {
+        byte[] compressed = ContentCodec.compress(ANSWER);
+        compressed[0] = 9;
+        byte[] negative = ContentCodec.compress(ANSWER);
+        negative[0] = (byte) 0xff;
+
+        assertThatThrownBy(() -> ContentCodec.decompress(compressed))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("dictionary 9");
+        assertThatThrownBy(() -> ContentCodec.decompress(negative))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ContentCodec.compress(ANSWER, 9, Deflater.DEFAULT_COMPRESSION))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,72 @@
+package kz.ai.sarbaz.vector;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 64;
+    private static final int VECTORS = 5_000;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+
+    @Test
+    void recallAgainstExactSearch(@TempDir Path dir) throws Exception {
+        Random random = new Random(7);
+        float[][] data = randomVectors(random, VECTORS);
+        float[][] queries = randomVectors(random, QUERIES);
+
+        HnswIndex index = new HnswIndex(DIMENSIONS, 16, 100);
+        for (float[] vector : data) {
+            index.add(vector);
+        }
+
+        int[] all = IntStream.range(0, VECTORS).toArray();
+        int found = 0;
+        for (float[] query : queries) {
+            List<HnswIndex.Hit> approximate = index.search(query, K, 128, null);
+
+            List<Integer> expected = index.exactSearch(query, K, all).stream().map(HnswIndex.Hit::node).toList();
+            found += (int) approximate.stream().map(HnswIndex.Hit::node).filter(expected::contains).count();
+        }
+        double recall = found / (double) (QUERIES * K);
+
+        assertThat(recall).isGreaterThan(0.9);
+
+        // Файл индекса должен восстанавливаться с теми же результатами поиска
+        Path file = dir.resolve("index.hnsw");
+        index.save(file);
+        HnswIndex loaded = HnswIndex.load(file, 100);
+        assertThat(loaded.size()).isEqualTo(VECTORS);
+        assertThat(loaded.search(queries[0], K, 64, null)).isEqualTo(index.search(queries[0], K, 64, null));
+    }
+
+    @Test
+    void filterRestrictsResults() {
+        Random random = new Random(11);
+        HnswIndex index = new HnswIndex(DIMENSIONS, 16, 100);
+        for (float[] vector : randomVectors(random, 1_000)) {
+            index.add(vector);
+        }
+
+        List<HnswIndex.Hit> hits = index.search(randomVectors(random, 1)[0], K, 200, node -> node % 2 == 0);
+        assertThat(hits).isNotEmpty().allMatch(hit -> hit.node() % 2 == 0);
+    }
+
+    private static float[][] randomVectors(Random random, int count) {
+        float[][] vectors = new float[count][DIMENSIONS];
+        for (float[] vector : vectors) {
+            for (int i = 0; i < DIMENSIONS; i++) {
+                vector[i] = (float) random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+}